@@ -0,0 +1,146 @@
+package com.example.limit.benchmark;
+
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Репозитории лимитов в памяти: заглушка вместо БД, чтобы отделить стоимость логики
+ * LimitService от стоимости SQL. Реализованы только методы, которые вызываются на путях
+ * reserveLimit, confirmOperation и deductLimit, с той же семантикой условных UPDATE.
+ * Остальные методы бросают UnsupportedOperationException.
+ */
+final class InMemoryLimitStore {
+
+    private final ConcurrentMap<Long, UserLimit> limits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LimitReservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    UserLimitRepository userLimitRepository() {
+        return proxy(UserLimitRepository.class, this::invokeUserLimit);
+    }
+
+    LimitReservationRepository reservationRepository() {
+        return proxy(LimitReservationRepository.class, this::invokeReservation);
+    }
+
+    private Object invokeUserLimit(Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "findByUserId" -> Optional.ofNullable(limits.get((Long) args[0]));
+            case "save" -> {
+                UserLimit userLimit = (UserLimit) args[0];
+                if (userLimit.getId() == null) {
+                    userLimit.setId(ids.incrementAndGet());
+                }
+                UserLimit existing = limits.putIfAbsent(userLimit.getUserId(), userLimit);
+                yield existing == null ? userLimit : existing;
+            }
+            case "tryReserve" -> update((Long) args[0], userLimit -> {
+                long amount = (long) args[1];
+                if (userLimit.getPeriodDay() < (long) args[2] || userLimit.getAvailableLimit() < amount) {
+                    return 0;
+                }
+                userLimit.setReservedAmount(Money.add(userLimit.getReservedAmount(), amount));
+                return 1;
+            });
+            case "tryDeduct" -> update((Long) args[0], userLimit -> {
+                long amount = (long) args[1];
+                if (userLimit.getPeriodDay() < (long) args[2] || userLimit.getAvailableLimit() < amount) {
+                    return 0;
+                }
+                userLimit.setCurrentLimit(Money.subtract(userLimit.getCurrentLimit(), amount));
+                return 1;
+            });
+            case "applyConfirmed" -> update((Long) args[0], userLimit -> {
+                long amount = (long) args[1];
+                userLimit.setCurrentLimit(Money.subtract(userLimit.getCurrentLimit(), amount));
+                userLimit.setReservedAmount(Money.subtract(userLimit.getReservedAmount(), amount));
+                return 1;
+            });
+            case "addReservedAmount" -> update((Long) args[0], userLimit -> {
+                userLimit.setReservedAmount(Money.add(userLimit.getReservedAmount(), (long) args[1]));
+                return 1;
+            });
+            default -> throw unsupported(method);
+        };
+    }
+
+    private Object invokeReservation(Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "findByOperationId" -> Optional.ofNullable(reservations.get((String) args[0]));
+            case "save" -> {
+                LimitReservation reservation = (LimitReservation) args[0];
+                if (reservations.putIfAbsent(reservation.getOperationId(), reservation) != null) {
+                    throw new IllegalStateException("Duplicate operationId " + reservation.getOperationId());
+                }
+                reservation.setId(ids.incrementAndGet());
+                reservation.setCreatedAt(LocalDateTime.now());
+                yield reservation;
+            }
+            case "transitionStatus" -> {
+                LimitReservation reservation = reservations.get((String) args[0]);
+                if (reservation == null) {
+                    yield 0;
+                }
+                synchronized (reservation) {
+                    if (reservation.getStatus() != args[1]) {
+                        yield 0;
+                    }
+                    reservation.setStatus((ReservationStatus) args[2]);
+                    yield 1;
+                }
+            }
+            default -> throw unsupported(method);
+        };
+    }
+
+    private int update(Long userId, LimitUpdate update) {
+        UserLimit userLimit = limits.get(userId);
+        if (userLimit == null) {
+            return 0;
+        }
+        // Как блокировка строки в БД: изменения одного пользователя идут по очереди
+        synchronized (userLimit) {
+            return update.apply(userLimit);
+        }
+    }
+
+    private static UnsupportedOperationException unsupported(Method method) {
+        return new UnsupportedOperationException("Not used by the benchmarked paths: " + method.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> "InMemory" + type.getSimpleName();
+                };
+            }
+            return handler.invoke(method, args);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(Method method, Object[] args);
+    }
+
+    @FunctionalInterface
+    private interface LimitUpdate {
+        int apply(UserLimit userLimit);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.limit.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входа benchmarks.jar. Принимает обычные аргументы JMH, а -Dbench.threads=1,8,32
+ * запускает весь набор последовательно для каждого числа потоков.
+ */
+public final class LimitBenchmarkMain {
+
+    private LimitBenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String threads = System.getProperty("bench.threads");
+        if (threads == null || threads.isBlank()) {
+            new Runner(commandLine).run();
+            return;
+        }
+        for (String value : threads.split(",")) {
+            int threadCount = Integer.parseInt(value.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threadCount);
+            if (commandLine.getResult().hasValue()) {
+                options.result(withThreads(commandLine.getResult().get(), threadCount));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+
+    private static String withThreads(String result, int threads) {
+        int dot = result.lastIndexOf('.');
+        return dot < 0 ? result + "-t" + threads : result.substring(0, dot) + "-t" + threads + result.substring(dot);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.limit.benchmark;
+
+import com.example.Main;
+import com.example.limit.cache.LimitReadCache;
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.lock.UserLockStripes;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.service.LimitService;
+import com.example.limit.service.LimitServiceApi;
+import com.example.limit.velocity.VelocityLimiter;
+import com.example.limit.writebehind.ReservationWriteBehind;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Базовая линия горячего пути движка лимитов: reserveLimit, reserveLimit + confirmOperation и deductLimit.
+ * <p>
+ * Параметры:
+ * <ul>
+ *   <li>engine - h2: полный Spring-контекст на H2 in-memory (транзакции, SQL, метрики);
+ *       memory: LimitService на репозиториях в памяти, только логика сервиса</li>
+ *   <li>users - число пользователей, между которыми равномерно распределяются вызовы;
+ *       1 - все потоки конкурируют за одну строку</li>
+ *   <li>pendingPerUser - сколько pending-резервов у каждого пользователя до начала замеров</li>
+ * </ul>
+ * Число потоков задается через -t или -Dbench.threads, см. {@link LimitBenchmarkMain}.
+ * <p>
+ * Лимит по умолчанию выставлен так, чтобы его не исчерпать за прогон: замеряется успешный путь.
+ * reserve не подтверждает резервы, поэтому число pending-строк растет в течение прогона.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LimitEngineBenchmark {
+
+    private static final BigDecimal DEFAULT_LIMIT = new BigDecimal("1000000000000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    @Param({"h2", "memory"})
+    public String engine;
+
+    @Param({"1", "1000"})
+    public int users;
+
+    @Param({"0", "16"})
+    public int pendingPerUser;
+
+    private ConfigurableApplicationContext context;
+    private LimitServiceApi limitService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limitService = switch (engine) {
+            case "h2" -> startH2();
+            case "memory" -> inMemory();
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        };
+        for (long userId = 1; userId <= users; userId++) {
+            limitService.getLimit(userId);
+            for (int i = 0; i < pendingPerUser; i++) {
+                limitService.reserveLimit(userId, AMOUNT, null);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public ReservationResponse reserve() {
+        return limitService.reserveLimit(nextUser(), AMOUNT, null);
+    }
+
+    @Benchmark
+    public void reserveAndConfirm() {
+        ReservationResponse reservation = limitService.reserveLimit(nextUser(), AMOUNT, null);
+        limitService.confirmOperation(reservation.getOperationId());
+    }
+
+    @Benchmark
+    public void deduct() {
+        limitService.deductLimit(nextUser(), AMOUNT);
+    }
+
+    private long nextUser() {
+        return users == 1 ? 1 : ThreadLocalRandom.current().nextLong(1, users + 1);
+    }
+
+    private LimitServiceApi startH2() {
+        context = new SpringApplicationBuilder(Main.class)
+                .web(WebApplicationType.NONE)
+                // Демонстрационный UserCommandLineRunner к лимитам не относится
+                .initializers(applicationContext -> applicationContext.addBeanFactoryPostProcessor(beanFactory ->
+                        ((BeanDefinitionRegistry) beanFactory).removeBeanDefinition("userCommandLineRunner")))
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.datasource.driver-class-name=org.h2.Driver",
+                        "spring.datasource.hikari.maximum-pool-size=64",
+                        "spring.jpa.hibernate.ddl-auto=create-drop",
+                        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                        "spring.liquibase.enabled=false",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        "payment.product-service.base-url=http://localhost:8080",
+                        "limit.default-value=" + DEFAULT_LIMIT.toPlainString(),
+                        "limit.expiry.wheel.enabled=false")
+                .run();
+        return context.getBean(LimitServiceApi.class);
+    }
+
+    private static LimitServiceApi inMemory() {
+        InMemoryLimitStore store = new InMemoryLimitStore();
+        UserLimitRepository userLimitRepository = store.userLimitRepository();
+        LimitReservationRepository reservationRepository = store.reservationRepository();
+        return new LimitService(
+                userLimitRepository,
+                reservationRepository,
+                null,
+                new ReservationExpiryWheel(null, reservationRepository, false, 1000, 500, 10000),
+                null,
+                new LazyLimitReset(userLimitRepository, reservationRepository, DEFAULT_LIMIT, "cron"),
+                new IdempotencyCache(Duration.ofMinutes(10), 100_000),
+                new VelocityLimiter(List.of(), null, null, null, System::currentTimeMillis),
+                new ReservationWriteBehind(null, null, null, null, null, false, 0, 1),
+                new UserLockStripes(1024),
+                new LimitReadCache(true, Duration.ofSeconds(5), 100_000),
+                new NoOpTransactionManager(),
+                DEFAULT_LIMIT,
+                1000);
+    }
+
+    /**
+     * Транзакции без ресурса: у репозиториев в памяти нечего фиксировать
+     */
+    private static final class NoOpTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.payment.benchmark;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.client.PooledClientHttpRequestFactory;
+import com.example.payment.client.ProductServiceClient;
+import com.example.payment.client.ProductServiceResponseErrorHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ProductServiceClient.getProductById против локальной заглушки продуктового сервиса в этом же процессе:
+ * замеряется только стоимость HTTP-клиента.
+ * <p>
+ * Параметры:
+ * <ul>
+ *   <li>client - simple: HttpURLConnection, как было до пула (JDK держит не больше http.maxConnections = 5
+ *       свободных соединений на хост, остальные вызовы открывают новые); pooled: {@link PooledClientHttpRequestFactory}
+ *       с keep-alive пулом на 64 соединения</li>
+ *   <li>connectRttMillis - задержка заглушки перед первым ответом на новом соединении, как установка
+ *       соединения по сети (TCP, TLS); 0 - loopback без задержки</li>
+ * </ul>
+ * После каждого прогона печатается, сколько соединений открыл клиент: при числе потоков больше пяти
+ * HttpURLConnection открывает новые, пул - не больше числа потоков. Запуск с -Dbench.threads=1,8,32.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductClientBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"simple", "pooled"})
+    public String client;
+
+    @Param({"0", "5"})
+    public int connectRttMillis;
+
+    private StubServer server;
+    private ClientHttpRequestFactory requestFactory;
+    private ProductServiceClient productServiceClient;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubServer(connectRttMillis);
+        requestFactory = switch (client) {
+            case "simple" -> {
+                SimpleClientHttpRequestFactory simple = new SimpleClientHttpRequestFactory();
+                simple.setConnectTimeout(TIMEOUT);
+                simple.setReadTimeout(TIMEOUT);
+                yield simple;
+            }
+            case "pooled" -> new PooledClientHttpRequestFactory("product-stub", new PooledClientHttpRequestFactory.Settings(
+                    64, 64, TIMEOUT, TIMEOUT, TIMEOUT, Duration.ofSeconds(30), Duration.ofMinutes(5)));
+            default -> throw new IllegalArgumentException("Unknown client: " + client);
+        };
+        String baseUrl = "http://localhost:" + server.port();
+        // micro-batching is off: every call must reach the stub to measure connection handling
+        productServiceClient = new ProductServiceClient(new RestTemplateBuilder()
+                .requestFactory(() -> requestFactory)
+                .rootUri(baseUrl)
+                .errorHandler(new ProductServiceResponseErrorHandler())
+                .build(), baseUrl, false, Duration.ZERO, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (requestFactory instanceof DisposableBean disposable) {
+            disposable.destroy();
+        }
+        if (server != null) {
+            server.close();
+            // Сколько соединений пришлось открыть: у пула их не больше числа потоков
+            System.out.printf("%n%s client opened %d connections%n", client, server.accepted());
+        }
+    }
+
+    /**
+     * Случайный id: одновременные вызовы одного id объединил бы SingleFlight, и до заглушки дошел бы один
+     */
+    @Benchmark
+    public ProductResponse getProductById() {
+        return productServiceClient.getProductById(ThreadLocalRandom.current().nextLong(1, 1_000_000));
+    }
+
+    /**
+     * HTTP/1.1 keep-alive сервер на один ответ: поток на соединение, любой запрос получает один и тот же продукт
+     */
+    private static final class StubServer implements Closeable {
+
+        private static final byte[] RESPONSE = response("""
+                {"id":1,"accountNumber":"40817810000000000001","balance":100.00,"productType":"ACCOUNT","userId":1}""");
+
+        private final ServerSocket serverSocket;
+        private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "product-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final int connectRttMillis;
+        private final AtomicLong accepted = new AtomicLong();
+
+        StubServer(int connectRttMillis) throws IOException {
+            this.connectRttMillis = connectRttMillis;
+            this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+            executor.execute(this::acceptLoop);
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        long accepted() {
+            return accepted.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+
+        private void acceptLoop() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    accepted.incrementAndGet();
+                    executor.execute(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                boolean first = true;
+                while (skipRequest(in)) {
+                    if (first && connectRttMillis > 0) {
+                        Thread.sleep(connectRttMillis);
+                    }
+                    first = false;
+                    out.write(RESPONSE);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // клиент закрыл соединение или заглушка останавливается
+            }
+        }
+
+        /**
+         * Читает запрос без тела до пустой строки
+         *
+         * @return false, если соединение закрыто
+         */
+        private static boolean skipRequest(InputStream in) throws IOException {
+            int matched = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+                if (matched == 4) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static byte[] response(String body) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n\r\n";
+            byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+            byte[] response = new byte[headBytes.length + bytes.length];
+            System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+            System.arraycopy(bytes, 0, response, headBytes.length, bytes.length);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.limit.loadtest;
+
+import com.example.Main;
+import com.example.limit.loadtest.RequestStats.Request;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Точка входа loadtest.jar. Поднимает Task8 в этом же процессе (H2 или локальный PostgreSQL)
+ * либо нагружает уже запущенное приложение по -Dload.target, печатает задержки и пропускную
+ * способность по видам запросов. Код выхода 1, если доля ошибок выше load.max-error-rate
+ * или не все запросы завершились: так прогон можно использовать как проверку в CI.
+ * <p>
+ * Если в load.max-in-flight несколько значений, замер повторяется для каждого против того же приложения.
+ */
+public final class LimitLoadTestMain {
+
+    private static final String APP_PROPERTY_PREFIX = "load.app.";
+
+    private LimitLoadTestMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+        ConfigurableApplicationContext application = settings.target().isEmpty() ? startApplication(settings) : null;
+        int exitCode;
+        try {
+            URI baseUri = application == null
+                    ? URI.create(settings.target())
+                    : URI.create("http://localhost:"
+                            + ((WebServerApplicationContext) application).getWebServer().getPort());
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(settings.timeout())
+                    .build();
+            exitCode = 0;
+            for (int maxInFlight : settings.maxInFlight()) {
+                exitCode = Math.max(exitCode, run(settings, client, baseUri, maxInFlight, System.out));
+            }
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(LoadTestSettings settings, HttpClient client, URI baseUri, int maxInFlight,
+                           PrintStream out) throws InterruptedException, IOException {
+        ZipfianUserIds userIds = new ZipfianUserIds(settings.users(), settings.zipfExponent());
+        out.printf("%nTarget %s (%s), %.0f scenarios/s for %s after %s warmup, mix %s%n",
+                baseUri, settings.target().isEmpty() ? settings.database() : "external",
+                settings.rate(), settings.duration(), settings.warmup(), settings.mix());
+        out.printf("%d users, zipf %.2f (hottest user gets %.1f%% of scenarios), at most %d in flight%n",
+                settings.users(), settings.zipfExponent(), userIds.hottestShare() * 100, maxInFlight);
+
+        OpenLoopDriver driver = new OpenLoopDriver(client, baseUri, settings, maxInFlight);
+        driver.run();
+
+        double seconds = settings.duration().toNanos() / 1e9;
+        out.printf("%nLaunched %d scenarios, %.1f/s; latency is measured from the scheduled start%n",
+                driver.launched(), driver.launched() / seconds);
+        RequestStats.printHeader(out);
+        long total = 0;
+        long failed = 0;
+        for (RequestStats stats : driver.stats().values()) {
+            stats.print(out, seconds);
+            total += stats.total();
+            failed += stats.failed();
+        }
+
+        if (!settings.histogramDir().isEmpty()) {
+            Path dir = Files.createDirectories(settings.maxInFlight().size() == 1
+                    ? Path.of(settings.histogramDir())
+                    : Path.of(settings.histogramDir(), "in-flight-" + maxInFlight));
+            for (Request request : Request.values()) {
+                driver.stats().get(request).writeHistogram(dir);
+            }
+            out.printf("Response time distributions written to %s%n", dir.toAbsolutePath());
+        }
+
+        double errorRate = total == 0 ? 1 : (double) failed / total;
+        out.printf("Error rate %.4f (limit %.4f)%n", errorRate, settings.maxErrorRate());
+        if (!driver.drained()) {
+            out.println("Some requests did not complete before the timeout");
+            return 1;
+        }
+        return errorRate > settings.maxErrorRate() ? 1 : 0;
+    }
+
+    private static ConfigurableApplicationContext startApplication(LoadTestSettings settings) throws IOException {
+        // Порт известен заранее: платежный модуль ходит за продуктами в это же приложение
+        int port = freePort();
+        int maxInFlight = settings.maxInFlight().stream().mapToInt(Integer::intValue).max().orElseThrow();
+        List<String> properties = new ArrayList<>(List.of(
+                "server.port=" + port,
+                // Каждый сценарий products держит два соединения: входящее и вызов продуктового сервиса
+                "server.tomcat.max-connections=" + Math.max(8192, 2 * maxInFlight + 100),
+                "spring.datasource.hikari.maximum-pool-size=" + settings.poolSize(),
+                "spring.main.banner-mode=off",
+                "logging.level.root=WARN",
+                "payment.product-service.base-url=http://localhost:" + port));
+        if (settings.database().equals("postgres")) {
+            properties.addAll(List.of(
+                    "spring.datasource.url=" + settings.jdbcUrl(),
+                    "spring.datasource.username=" + settings.jdbcUser(),
+                    "spring.datasource.password=" + settings.jdbcPassword(),
+                    "spring.datasource.driver-class-name=org.postgresql.Driver",
+                    "spring.jpa.hibernate.ddl-auto=validate",
+                    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.PostgreSQLDialect",
+                    "spring.liquibase.change-log=classpath:db/changelog/db.changelog-master.xml",
+                    "spring.liquibase.enabled=true"));
+        } else {
+            properties.addAll(List.of(
+                    "spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                    "spring.datasource.driver-class-name=org.h2.Driver",
+                    "spring.jpa.hibernate.ddl-auto=create-drop",
+                    "spring.liquibase.enabled=false"));
+        }
+        // -Dload.app.payment.async.enabled=false и т.п. уходят в настройки приложения
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(APP_PROPERTY_PREFIX))
+                .forEach(name -> properties.add(name.substring(APP_PROPERTY_PREFIX.length()) + "="
+                        + System.getProperty(name)));
+        return new SpringApplicationBuilder(Main.class)
+                .web(WebApplicationType.SERVLET)
+                // Демонстрационный UserCommandLineRunner к лимитам не относится
+                .initializers(applicationContext -> applicationContext.addBeanFactoryPostProcessor(beanFactory ->
+                        ((BeanDefinitionRegistry) beanFactory).removeBeanDefinition("userCommandLineRunner")))
+                .properties(properties.toArray(new String[0]))
+                .run();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
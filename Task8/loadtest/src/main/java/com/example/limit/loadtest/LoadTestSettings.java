@@ -0,0 +1,126 @@
+package com.example.limit.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Параметры прогона из системных свойств -Dload.*
+ *
+ * @param target      адрес уже запущенного приложения; если пуст, приложение стартует в этом процессе
+ * @param database    h2 или postgres для приложения, запущенного в процессе
+ * @param rate        запусков сценариев в секунду
+ * @param users       число пользователей
+ * @param zipfExponent перекос выбора пользователя, 0 - равномерно
+ * @param mix         доли сценариев
+ * @param maxInFlight пределы одновременных сценариев, по прогону на каждый; ожидание слота входит в задержку
+ * @param maxErrorRate доля ошибок, выше которой прогон завершается с кодом 1
+ */
+record LoadTestSettings(
+        String target,
+        String database,
+        String jdbcUrl,
+        String jdbcUser,
+        String jdbcPassword,
+        int poolSize,
+        double rate,
+        Duration warmup,
+        Duration duration,
+        Duration timeout,
+        int users,
+        double zipfExponent,
+        Map<Scenario, Integer> mix,
+        List<Integer> maxInFlight,
+        double maxErrorRate,
+        String histogramDir
+) {
+
+    enum Scenario {
+        RESERVE_CONFIRM("reserve-confirm"),
+        RESERVE_CANCEL("reserve-cancel"),
+        DEDUCT("deduct"),
+        PRODUCTS("products");
+
+        private final String key;
+
+        Scenario(String key) {
+            this.key = key;
+        }
+
+        static Scenario of(String key) {
+            for (Scenario scenario : values()) {
+                if (scenario.key.equals(key)) {
+                    return scenario;
+                }
+            }
+            throw new IllegalArgumentException("Unknown load.mix scenario: " + key);
+        }
+    }
+
+    static LoadTestSettings fromSystemProperties() {
+        LoadTestSettings settings = new LoadTestSettings(
+                System.getProperty("load.target", ""),
+                System.getProperty("load.db", "h2"),
+                System.getProperty("load.jdbc-url", "jdbc:postgresql://localhost:5432/postgres?reWriteBatchedInserts=true"),
+                System.getProperty("load.jdbc-user", "postgres"),
+                System.getProperty("load.jdbc-password", "postgres"),
+                Integer.getInteger("load.pool-size", 32),
+                Double.parseDouble(System.getProperty("load.rate", "500")),
+                Duration.parse(System.getProperty("load.warmup", "PT10S")),
+                Duration.parse(System.getProperty("load.duration", "PT30S")),
+                Duration.parse(System.getProperty("load.timeout", "PT5S")),
+                Integer.getInteger("load.users", 10_000),
+                Double.parseDouble(System.getProperty("load.zipf", "0.99")),
+                parseMix(System.getProperty("load.mix", "reserve-confirm=60,reserve-cancel=20,deduct=20")),
+                parseLevels(System.getProperty("load.max-in-flight", "512")),
+                Double.parseDouble(System.getProperty("load.max-error-rate", "0.01")),
+                System.getProperty("load.histogram-dir", ""));
+        if (settings.rate <= 0 || settings.users <= 0 || settings.zipfExponent < 0
+                || settings.duration.isZero() || settings.duration.isNegative() || settings.warmup.isNegative()) {
+            throw new IllegalArgumentException("Invalid load.* settings: " + settings);
+        }
+        if (!settings.database.equals("h2") && !settings.database.equals("postgres")) {
+            throw new IllegalArgumentException("load.db must be h2 or postgres");
+        }
+        return settings;
+    }
+
+    /**
+     * 512 или 1000,5000,10000
+     */
+    private static List<Integer> parseLevels(String value) {
+        List<Integer> levels = new ArrayList<>();
+        for (String part : value.split(",")) {
+            int level = Integer.parseInt(part.trim());
+            if (level <= 0) {
+                throw new IllegalArgumentException("load.max-in-flight must be positive: " + part);
+            }
+            levels.add(level);
+        }
+        return List.copyOf(levels);
+    }
+
+    /**
+     * reserve-confirm=60,reserve-cancel=20,deduct=20
+     */
+    private static Map<Scenario, Integer> parseMix(String value) {
+        Map<Scenario, Integer> mix = new EnumMap<>(Scenario.class);
+        for (String part : value.split(",")) {
+            String[] entry = part.trim().split("=");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Invalid load.mix entry: " + part);
+            }
+            int weight = Integer.parseInt(entry[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative load.mix weight: " + part);
+            }
+            mix.put(Scenario.of(entry[0].trim()), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("load.mix has no scenarios");
+        }
+        return mix;
+    }
+}
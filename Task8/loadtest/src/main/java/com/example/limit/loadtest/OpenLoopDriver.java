@@ -0,0 +1,176 @@
+package com.example.limit.loadtest;
+
+import com.example.limit.loadtest.LoadTestSettings.Scenario;
+import com.example.limit.loadtest.RequestStats.Request;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Генератор нагрузки с открытым циклом: сценарии запускаются по расписанию с постоянной частотой,
+ * не дожидаясь ответов на предыдущие. Медленный ответ не сдвигает следующие запуски, а задержка
+ * каждого запроса считается от его момента по расписанию.
+ * <p>
+ * Число одновременных сценариев ограничено maxInFlight (одно из значений load.max-in-flight).
+ * Если слотов нет, запуск ждет, и это ожидание входит в задержку, а не пропадает из измерений.
+ */
+final class OpenLoopDriver {
+
+    private static final CompletableFuture<Integer> SKIPPED = CompletableFuture.completedFuture(0);
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final LoadTestSettings settings;
+    private final ZipfianUserIds userIds;
+    private final Scenario[] scenarios;
+    private final int[] cumulativeWeights;
+    private final Map<Request, RequestStats> stats = new EnumMap<>(Request.class);
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final AtomicLong operationSeq = new AtomicLong();
+    // operationId уникальны между прогонами против одного приложения
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private long launched;
+    private boolean drained;
+
+    OpenLoopDriver(HttpClient client, URI baseUri, LoadTestSettings settings, int maxInFlight) {
+        this.client = client;
+        this.baseUri = baseUri;
+        this.settings = settings;
+        this.userIds = new ZipfianUserIds(settings.users(), settings.zipfExponent());
+        this.scenarios = settings.mix().keySet().toArray(new Scenario[0]);
+        this.cumulativeWeights = new int[scenarios.length];
+        int sum = 0;
+        for (int i = 0; i < scenarios.length; i++) {
+            sum += settings.mix().get(scenarios[i]);
+            cumulativeWeights[i] = sum;
+        }
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        for (Request request : Request.values()) {
+            stats.put(request, new RequestStats(request));
+        }
+    }
+
+    /**
+     * Прогрев, затем измеряемый интервал. Возвращается после ответов на все запущенные сценарии
+     * или через load.timeout после конца интервала.
+     */
+    void run() throws InterruptedException {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+        long start = System.nanoTime();
+        long measureStart = start + settings.warmup().toNanos();
+        long end = measureStart + settings.duration().toNanos();
+        boolean measuring = settings.warmup().isZero();
+
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * intervalNanos);
+            if (intended - end >= 0) {
+                break;
+            }
+            if (!measuring && intended - measureStart >= 0) {
+                stats.values().forEach(RequestStats::reset);
+                measuring = true;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inFlight.acquire();
+            launch(nextScenario(), intended);
+            if (measuring) {
+                launched++;
+            }
+        }
+
+        drained = inFlight.tryAcquire(maxInFlight, settings.timeout().toMillis() * 2, TimeUnit.MILLISECONDS);
+        stats.values().forEach(RequestStats::close);
+    }
+
+    Map<Request, RequestStats> stats() {
+        return stats;
+    }
+
+    /**
+     * Сценариев запущено за измеряемый интервал
+     */
+    long launched() {
+        return launched;
+    }
+
+    boolean drained() {
+        return drained;
+    }
+
+    private void launch(Scenario scenario, long intended) {
+        long userId = userIds.next();
+        String operationId = "lt-" + runId + "-" + operationSeq.incrementAndGet();
+        String limitBody = "{\"amount\": " + amount() + ", \"operationId\": \"" + operationId + "\"}";
+        String operationBody = "{\"operationId\": \"" + operationId + "\"}";
+
+        CompletableFuture<Integer> flow = switch (scenario) {
+            case RESERVE_CONFIRM -> send(Request.RESERVE, "/api/limits/" + userId + "/reserve", limitBody, intended)
+                    .thenCompose(status -> status == 201
+                            ? send(Request.CONFIRM, "/api/limits/confirm", operationBody, System.nanoTime())
+                            : SKIPPED);
+            case RESERVE_CANCEL -> send(Request.RESERVE, "/api/limits/" + userId + "/reserve", limitBody, intended)
+                    .thenCompose(status -> status == 201
+                            ? send(Request.CANCEL, "/api/limits/cancel", operationBody, System.nanoTime())
+                            : SKIPPED);
+            case DEDUCT -> send(Request.DEDUCT, "/api/limits/" + userId + "/deduct", limitBody, intended);
+            // Платежный модуль ходит за продуктами в продуктовый сервис по HTTP: запрос держит поток
+            // и на JDBC, и на исходящем вызове
+            case PRODUCTS -> send(Request.PRODUCTS, "/api/v1/payments/users/" + userId + "/products", null, intended);
+        };
+        flow.whenComplete((status, error) -> inFlight.release());
+    }
+
+    /**
+     * Второй запрос сценария уходит сразу после ответа на первый, поэтому его момент по расписанию - этот ответ.
+     * Без тела уходит GET, с телом - POST.
+     */
+    private CompletableFuture<Integer> send(Request request, String path, String body, long intended) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(settings.timeout());
+        HttpRequest httpRequest = body == null
+                ? builder.GET().build()
+                : builder.header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+        long sent = System.nanoTime();
+        return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    int status = error == null ? response.statusCode() : 0;
+                    stats.get(request).record(intended, sent, System.nanoTime(), status);
+                    return status;
+                });
+    }
+
+    private Scenario nextScenario() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < scenarios.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return scenarios[i];
+            }
+        }
+        throw new IllegalStateException("Scenario weights are inconsistent");
+    }
+
+    /**
+     * От 1.00 до 10.00
+     */
+    private static BigDecimal amount() {
+        return BigDecimal.valueOf(ThreadLocalRandom.current().nextLong(100, 1001), 2);
+    }
+}
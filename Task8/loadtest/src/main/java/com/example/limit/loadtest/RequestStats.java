@@ -0,0 +1,129 @@
+package com.example.limit.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Задержки и исходы одного вида запроса.
+ * <p>
+ * Время ответа считается от момента, когда запрос должен был уйти по расписанию, а не от фактической
+ * отправки: если генератор или приложение отстали, ожидание входит в задержку (поправка на coordinated
+ * omission). Время обслуживания от фактической отправки пишется отдельно для сравнения.
+ */
+final class RequestStats {
+
+    enum Request {
+        RESERVE,
+        CONFIRM,
+        CANCEL,
+        DEDUCT,
+        PRODUCTS
+    }
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Request request;
+    private final Recorder responseTimes = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder serviceTimes = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Histogram responseHistogram;
+    private Histogram serviceHistogram;
+    private long succeededCount;
+    private long rejectedCount;
+    private long failedCount;
+
+    RequestStats(Request request) {
+        this.request = request;
+    }
+
+    /**
+     * 2xx - успех, 4xx - отказ по бизнес-правилу (нехватка лимита, частота), остальное - ошибка
+     */
+    void record(long intendedNanos, long sentNanos, long completedNanos, int status) {
+        responseTimes.recordValue(completedNanos - intendedNanos);
+        serviceTimes.recordValue(completedNanos - sentNanos);
+        if (status >= 200 && status < 300) {
+            succeeded.increment();
+        } else if (status >= 400 && status < 500) {
+            rejected.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Отбрасывает накопленное, например после прогрева
+     */
+    void reset() {
+        responseTimes.getIntervalHistogram();
+        serviceTimes.getIntervalHistogram();
+        succeeded.reset();
+        rejected.reset();
+        failed.reset();
+    }
+
+    /**
+     * Фиксирует результаты измеряемого интервала
+     */
+    void close() {
+        responseHistogram = responseTimes.getIntervalHistogram();
+        serviceHistogram = serviceTimes.getIntervalHistogram();
+        succeededCount = succeeded.sum();
+        rejectedCount = rejected.sum();
+        failedCount = failed.sum();
+    }
+
+    long total() {
+        return succeededCount + rejectedCount + failedCount;
+    }
+
+    long failed() {
+        return failedCount;
+    }
+
+    void print(PrintStream out, double seconds) {
+        if (total() == 0) {
+            return;
+        }
+        out.printf("%-8s %9d %9d %8d %7d %9.1f | %8.2f %8.2f %8.2f %8.2f | %8.2f %8.2f%n",
+                request, total(), succeededCount, rejectedCount, failedCount, total() / seconds,
+                millis(responseHistogram, 50), millis(responseHistogram, 99), millis(responseHistogram, 99.9),
+                millis(responseHistogram.getMaxValue()),
+                millis(serviceHistogram, 50), millis(serviceHistogram, 99.9));
+    }
+
+    static void printHeader(PrintStream out) {
+        out.printf("%-8s %9s %9s %8s %7s %9s | %8s %8s %8s %8s | %8s %8s%n",
+                "request", "total", "ok", "rejected", "errors", "req/s",
+                "p50 ms", "p99 ms", "p999 ms", "max ms", "svc p50", "svc p999");
+    }
+
+    /**
+     * Распределение времени ответа в формате .hgrm для HdrHistogram plotter
+     */
+    void writeHistogram(Path dir) throws FileNotFoundException {
+        if (total() == 0) {
+            return;
+        }
+        try (PrintStream out = new PrintStream(dir.resolve(request.name().toLowerCase() + ".hgrm").toFile())) {
+            responseHistogram.outputPercentileDistribution(out, (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return millis(histogram.getValueAtPercentile(percentile));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
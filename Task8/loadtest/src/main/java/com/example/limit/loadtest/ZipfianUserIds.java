@@ -0,0 +1,38 @@
+package com.example.limit.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * userId от 1 до users с вероятностью, обратной rank^exponent: пользователь 1 самый горячий.
+ * При exponent = 0 выбор равномерный. Выбор - двоичный поиск по заранее посчитанной функции распределения.
+ */
+final class ZipfianUserIds {
+
+    private final double[] cumulative;
+
+    ZipfianUserIds(int users, double exponent) {
+        cumulative = new double[users];
+        double sum = 0;
+        for (int rank = 1; rank <= users; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < users; i++) {
+            cumulative[i] /= sum;
+        }
+        cumulative[users - 1] = 1;
+    }
+
+    long next() {
+        int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        return (index < 0 ? -index - 1 : index) + 1;
+    }
+
+    /**
+     * Доля обращений к самому горячему пользователю
+     */
+    double hottestShare() {
+        return cumulative[0];
+    }
+}
@@ -6,15 +6,22 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.LinkedHashSet;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1")
 public class ProductController {
 
+    /**
+     * Наибольшее число id в GET /api/v1/products?ids=...
+     */
+    private static final int MAX_BATCH_IDS = 100;
+
     private final ProductService productService;
 
     public ProductController(ProductService productService) {
@@ -37,6 +44,20 @@ public class ProductController {
                         "Product with id %d not found".formatted(productId)
                 ));
     }
-}
-
 
+    /**
+     * Продукты по списку id (ids=1,2,3) одним запросом к БД. Ненайденные id в ответ не попадают.
+     */
+    @GetMapping("/products")
+    public List<ProductResponse> getProductsByIds(@RequestParam List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_BATCH_IDS) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "ids must contain from 1 to %d product ids".formatted(MAX_BATCH_IDS)
+            );
+        }
+        return productService.getProductsByIds(new LinkedHashSet<>(ids)).stream()
+                .map(ProductResponse::from)
+                .toList();
+    }
+}
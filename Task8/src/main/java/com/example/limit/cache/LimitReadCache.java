@@ -0,0 +1,159 @@
+package com.example.limit.cache;
+
+import com.example.limit.dto.LimitResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш ответов GET /api/limits/{userId} на движке database.
+ * <p>
+ * Изменения лимита пользователя в LimitService сбрасывают его запись сразу после коммита, поэтому
+ * на одном узле чтение после записи видит запись. Изменения с других узлов видны не позже
+ * limit.read-cache.ttl. Запись помнит период, за который прочитан баланс, и в новом дне не отдается.
+ * Размер ограничен limit.read-cache.max-size, вытеснение в порядке добавления, как в IdempotencyCache.
+ * <p>
+ * Чтобы ответ, прочитанный до параллельного изменения, не попал в кэш после его сброса, чтение
+ * берет {@link #stamp} до обращения к БД, а {@link #put} отменяет вставку, если с тех пор был сброс.
+ */
+@Component
+public class LimitReadCache {
+
+    private static final int STAMP_STRIPES = 1024;
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public LimitReadCache(
+            @Value("${limit.read-cache.enabled:true}") boolean enabled,
+            @Value("${limit.read-cache.ttl:PT5S}") Duration ttl,
+            @Value("${limit.read-cache.max-size:100000}") int maxSize) {
+        this(enabled, ttl, maxSize, System::nanoTime);
+    }
+
+    LimitReadCache(boolean enabled, Duration ttl, int maxSize, LongSupplier nanoClock) {
+        if (ttl.isNegative() || ttl.isZero() || maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid limit.read-cache settings");
+        }
+        this.enabled = enabled;
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Ответ, прочитанный в том же периоде, или null
+     */
+    public LimitResponse get(Long userId, long period) {
+        Entry entry = entries.get(userId);
+        if (entry == null || entry.period != period || entry.expiresAtNanos - nanoClock.getAsLong() <= 0) {
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * Отметка сбросов пользователя. Берется до чтения из БД и передается в {@link #put}.
+     */
+    public long stamp(Long userId) {
+        return stamps.get(stripe(userId));
+    }
+
+    public void put(Long userId, long period, LimitResponse response, long stamp) {
+        if (!enabled || stamps.get(stripe(userId)) != stamp) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        Entry entry = new Entry(userId, period, response, now + ttlNanos);
+        entries.put(userId, entry);
+        insertionOrder.add(entry);
+        // Сброс мог пройти между проверкой и вставкой
+        if (stamps.get(stripe(userId)) != stamp) {
+            entries.remove(userId, entry);
+        }
+        evict(now);
+    }
+
+    /**
+     * Сбрасывает запись пользователя. Внутри транзакции - после ее коммита, чтобы параллельное
+     * чтение не закэшировало незакоммиченное состояние как актуальное.
+     */
+    public void invalidate(Long userId) {
+        afterCommit(() -> {
+            stamps.incrementAndGet(stripe(userId));
+            entries.remove(userId);
+        });
+    }
+
+    /**
+     * Сбрасывает все записи: после сброса лимитов или смены дефолтного лимита
+     */
+    public void clear() {
+        afterCommit(() -> {
+            for (int i = 0; i < STAMP_STRIPES; i++) {
+                stamps.incrementAndGet(i);
+            }
+            entries.clear();
+            insertionOrder.clear();
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static int stripe(Long userId) {
+        return Long.hashCode(userId) & (STAMP_STRIPES - 1);
+    }
+
+    private void evict(long now) {
+        Entry head;
+        while ((head = insertionOrder.peek()) != null
+                && (head.expiresAtNanos - now <= 0 || entries.size() > maxSize)) {
+            if (insertionOrder.remove(head)) {
+                entries.remove(head.userId, head);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Long userId;
+        private final long period;
+        private final LimitResponse response;
+        private final long expiresAtNanos;
+
+        private Entry(Long userId, long period, LimitResponse response, long expiresAtNanos) {
+            this.userId = userId;
+            this.period = period;
+            this.response = response;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.limit.controller;
+
+import com.example.limit.dto.ReservedAmountMismatch;
+import com.example.limit.service.ReservedAmountConsistencyChecker;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/limits/consistency")
+public class LimitConsistencyController {
+    
+    private final ReservedAmountConsistencyChecker checker;
+    
+    public LimitConsistencyController(ReservedAmountConsistencyChecker checker) {
+        this.checker = checker;
+    }
+    
+    /**
+     * GET /api/limits/consistency/reserved-amount - Найти расхождения reserved_amount
+     */
+    @GetMapping("/reserved-amount")
+    public List<ReservedAmountMismatch> checkReservedAmount() {
+        return checker.check();
+    }
+    
+    /**
+     * POST /api/limits/consistency/reserved-amount/repair - Пересчитать расходящиеся reserved_amount
+     */
+    @PostMapping("/reserved-amount/repair")
+    public List<ReservedAmountMismatch> repairReservedAmount() {
+        return checker.repair();
+    }
+}
@@ -4,22 +4,47 @@ import com.example.limit.dto.ConfirmOperationRequest;
 import com.example.limit.dto.LimitErrorResponse;
 import com.example.limit.dto.LimitRequest;
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchRequest;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
 import com.example.limit.exception.InsufficientLimitException;
 import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.exception.VelocityLimitExceededException;
 import com.example.limit.service.LimitServiceApi;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
 @RestController
 @RequestMapping("/api/limits")
 public class LimitController {
     
+    private static final int MAX_BATCH_OPERATION_IDS = 100_000;
+    
     private final LimitServiceApi limitService;
+    private final ObjectMapper objectMapper;
+    private final int batchChunkSize;
     
-    public LimitController(LimitServiceApi limitService) {
+    public LimitController(LimitServiceApi limitService, ObjectMapper objectMapper,
+                           @Value("${limit.batch.chunk-size:1000}") int batchChunkSize) {
+        if (batchChunkSize <= 0) {
+            throw new IllegalArgumentException("limit.batch.chunk-size must be positive");
+        }
         this.limitService = limitService;
+        this.objectMapper = objectMapper;
+        this.batchChunkSize = batchChunkSize;
     }
     
     /**
@@ -45,6 +70,14 @@ public class LimitController {
         );
     }
     
+    /**
+     * POST /api/limits/reserve:batch - Зарезервировать лимит для нескольких операций
+     */
+    @PostMapping("/reserve:batch")
+    public List<ReservationBatchResult> reserveBatch(@Valid @RequestBody ReservationBatchRequest request) {
+        return limitService.reserveBatch(request.items());
+    }
+    
     /**
      * POST /api/limits/confirm - Подтвердить операцию (списать лимит)
      */
@@ -63,6 +96,22 @@ public class LimitController {
         limitService.cancelOperation(request.getOperationId());
     }
     
+    /**
+     * POST /api/limits/confirm:batch - Подтвердить операции из списка {"operationIds": [...]}
+     */
+    @PostMapping("/confirm:batch")
+    public List<OperationBatchResult> confirmBatch(InputStream body) throws IOException {
+        return settleOperationIds(body, limitService::confirmBatch);
+    }
+    
+    /**
+     * POST /api/limits/cancel:batch - Отменить операции из списка {"operationIds": [...]}
+     */
+    @PostMapping("/cancel:batch")
+    public List<OperationBatchResult> cancelBatch(InputStream body) throws IOException {
+        return settleOperationIds(body, limitService::cancelBatch);
+    }
+    
     /**
      * POST /api/limits/{userId}/restore - Восстановить лимит
      */
@@ -82,7 +131,7 @@ public class LimitController {
     public void deductLimit(
             @PathVariable Long userId,
             @Valid @RequestBody LimitRequest request) {
-        limitService.deductLimit(userId, request.getAmount());
+        limitService.deductLimit(userId, request.getAmount(), request.getOperationId());
     }
     
     @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -91,6 +140,12 @@ public class LimitController {
         return errorResponse(HttpStatus.BAD_REQUEST, e.getMessage());
     }
     
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    @ExceptionHandler(VelocityLimitExceededException.class)
+    public LimitErrorResponse handleVelocityLimitExceeded(VelocityLimitExceededException e) {
+        return errorResponse(HttpStatus.TOO_MANY_REQUESTS, e.getMessage());
+    }
+    
     @ResponseStatus(HttpStatus.NOT_FOUND)
     @ExceptionHandler(ReservationNotFoundException.class)
     public LimitErrorResponse handleReservationNotFound(ReservationNotFoundException e) {
@@ -109,6 +164,58 @@ public class LimitController {
         return errorResponse(HttpStatus.CONFLICT, e.getMessage());
     }
     
+    /**
+     * Читает operationIds потоковым парсером, без дерева JSON и DTO на каждый элемент, и передает их
+     * на обработку пачками по limit.batch.chunk-size по мере чтения: в памяти одна пачка id.
+     * Ошибка в теле останавливает обработку, уже обработанные пачки остаются примененными.
+     */
+    private List<OperationBatchResult> settleOperationIds(
+            InputStream body, Function<List<String>, List<OperationBatchResult>> settle) throws IOException {
+        List<OperationBatchResult> results = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        int count = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Batch request must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"operationIds".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.START_ARRAY) {
+                    throw new IllegalArgumentException("operationIds must be an array");
+                }
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.VALUE_STRING || parser.getText().isBlank()) {
+                        throw new IllegalArgumentException("operationIds must be non-empty strings");
+                    }
+                    if (count == MAX_BATCH_OPERATION_IDS) {
+                        throw new IllegalArgumentException(
+                                "At most " + MAX_BATCH_OPERATION_IDS + " operationIds per batch");
+                    }
+                    chunk.add(parser.getText());
+                    count++;
+                    if (chunk.size() == batchChunkSize) {
+                        results.addAll(settle.apply(chunk));
+                        chunk = new ArrayList<>();
+                    }
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed batch request: " + e.getOriginalMessage());
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Operation IDs are required");
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(settle.apply(chunk));
+        }
+        return results;
+    }
+    
     private LimitErrorResponse errorResponse(HttpStatus status, String message) {
         return LimitErrorResponse.of(status.value(), status.getReasonPhrase(), message);
     }
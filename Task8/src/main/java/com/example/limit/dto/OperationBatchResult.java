@@ -0,0 +1,42 @@
+package com.example.limit.dto;
+
+/**
+ * Результат подтверждения или отмены одного operationId из пакета. Порядок результатов совпадает
+ * с порядком operationId в запросе. userId пуст, если резерв не найден.
+ */
+public record OperationBatchResult(
+        String operationId,
+        Long userId,
+        Outcome outcome,
+        String message
+) {
+
+    public enum Outcome {
+        CONFIRMED,
+        CANCELLED,
+        NOT_FOUND,
+        NOT_PENDING,
+        FAILED
+    }
+
+    public static OperationBatchResult applied(String operationId, Long userId, Outcome outcome) {
+        return new OperationBatchResult(operationId, userId, outcome, null);
+    }
+
+    public static OperationBatchResult notFound(String operationId) {
+        return new OperationBatchResult(operationId, null, Outcome.NOT_FOUND,
+                "Reservation not found for operationId: " + operationId);
+    }
+
+    public static OperationBatchResult notPending(String operationId, Long userId) {
+        return new OperationBatchResult(operationId, userId, Outcome.NOT_PENDING,
+                "Reservation is not in PENDING status");
+    }
+
+    /**
+     * Результат для operationId, который обрабатывался отдельным вызовом и завершился исключением
+     */
+    public static OperationBatchResult failed(String operationId, RuntimeException e) {
+        return new OperationBatchResult(operationId, null, Outcome.FAILED, e.getMessage());
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.limit.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Срок истечения pending-резерва, который нужно поставить на колесо таймеров.
+ */
+public record PendingReservationExpiry(
+        Long id,
+        String operationId,
+        LocalDateTime expiresAt
+) {
+}
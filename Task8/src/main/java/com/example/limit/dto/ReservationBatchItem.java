@@ -0,0 +1,21 @@
+package com.example.limit.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+import java.math.BigDecimal;
+
+/**
+ * Элемент пакетного резервирования.
+ */
+public record ReservationBatchItem(
+        @NotNull(message = "User ID is required")
+        Long userId,
+
+        @NotNull(message = "Amount is required")
+        @Positive(message = "Amount must be positive")
+        BigDecimal amount,
+
+        String operationId
+) {
+}
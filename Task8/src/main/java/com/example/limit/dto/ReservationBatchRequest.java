@@ -0,0 +1,14 @@
+package com.example.limit.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public record ReservationBatchRequest(
+        @NotEmpty(message = "Items are required")
+        @Size(max = 10000, message = "At most 10000 items per batch")
+        List<@Valid ReservationBatchItem> items
+) {
+}
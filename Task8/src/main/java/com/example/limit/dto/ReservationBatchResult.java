@@ -0,0 +1,52 @@
+package com.example.limit.dto;
+
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.exception.VelocityLimitExceededException;
+
+import java.math.BigDecimal;
+
+/**
+ * Результат резервирования одного элемента пакета. Порядок результатов совпадает с порядком элементов.
+ */
+public record ReservationBatchResult(
+        Long userId,
+        String operationId,
+        BigDecimal amount,
+        Outcome outcome,
+        String message
+) {
+
+    public enum Outcome {
+        RESERVED,
+        INSUFFICIENT_LIMIT,
+        DUPLICATE_OPERATION,
+        VELOCITY_LIMIT_EXCEEDED,
+        FAILED
+    }
+
+    public static ReservationBatchResult reserved(ReservationBatchItem item, String operationId) {
+        return new ReservationBatchResult(item.userId(), operationId, item.amount(), Outcome.RESERVED, null);
+    }
+
+    public static ReservationBatchResult rejected(ReservationBatchItem item, String operationId,
+                                                  Outcome outcome, String message) {
+        return new ReservationBatchResult(item.userId(), operationId, item.amount(), outcome, message);
+    }
+
+    /**
+     * Результат для элемента, который обрабатывался отдельным вызовом и завершился исключением
+     */
+    public static ReservationBatchResult failed(ReservationBatchItem item, RuntimeException e) {
+        Outcome outcome;
+        if (e instanceof InsufficientLimitException) {
+            outcome = Outcome.INSUFFICIENT_LIMIT;
+        } else if (e instanceof VelocityLimitExceededException) {
+            outcome = Outcome.VELOCITY_LIMIT_EXCEEDED;
+        } else if (e instanceof IllegalArgumentException) {
+            outcome = Outcome.DUPLICATE_OPERATION;
+        } else {
+            outcome = Outcome.FAILED;
+        }
+        return rejected(item, item.operationId(), outcome, e.getMessage());
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.limit.dto;
 
 import com.example.limit.entity.LimitReservation;
+import com.example.limit.money.Money;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
@@ -11,6 +12,7 @@ public class ReservationResponse {
     private BigDecimal amount;
     private String status;
     private String operationId;
+    private String operationType;
     private LocalDateTime createdAt;
     private LocalDateTime expiresAt;
     
@@ -20,9 +22,10 @@ public class ReservationResponse {
     public ReservationResponse(LimitReservation reservation) {
         this.reservationId = reservation.getId();
         this.userId = reservation.getUserId();
-        this.amount = reservation.getAmount();
+        this.amount = Money.toDecimal(reservation.getAmount());
         this.status = reservation.getStatus().name();
         this.operationId = reservation.getOperationId();
+        this.operationType = reservation.getOperationType().name();
         this.createdAt = reservation.getCreatedAt();
         this.expiresAt = reservation.getExpiresAt();
     }
@@ -67,6 +70,14 @@ public class ReservationResponse {
         this.operationId = operationId;
     }
     
+    public String getOperationType() {
+        return operationType;
+    }
+    
+    public void setOperationType(String operationType) {
+        this.operationType = operationType;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
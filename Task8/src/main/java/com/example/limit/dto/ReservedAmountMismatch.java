@@ -0,0 +1,13 @@
+package com.example.limit.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Расхождение между user_limits.reserved_amount и суммой pending-резервов пользователя.
+ */
+public record ReservedAmountMismatch(
+        Long userId,
+        BigDecimal reservedAmount,
+        BigDecimal pendingTotal
+) {
+}
@@ -0,0 +1,106 @@
+package com.example.limit.entity;
+
+import com.example.limit.money.MoneyConverter;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Запись журнала операций леджера (limit.ledger.event-log.enabled). Журнал только дополняется:
+ * состояние счета - это снимок в user_limits (до event_seq включительно) плюс события после него.
+ */
+@Entity
+@Table(name = "limit_events", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"user_id", "seq"})
+})
+public class LimitEvent {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    /** Номер события у пользователя, без пропусков */
+    @Column(name = "seq", nullable = false)
+    private long seq;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", nullable = false, length = 16)
+    private EventType type;
+    
+    @Column(name = "operation_id")
+    private String operationId;
+    
+    /** Сумма в копейках; для RESET - новый текущий лимит */
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "amount", nullable = false, precision = 19, scale = 2)
+    private long amount;
+    
+    /** День нового периода, только для RESET */
+    @Column(name = "period_day")
+    private Long periodDay;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    public LimitEvent() {
+    }
+    
+    public LimitEvent(Long userId, long seq, EventType type, String operationId, long amount, Long periodDay) {
+        this.userId = userId;
+        this.seq = seq;
+        this.type = type;
+        this.operationId = operationId;
+        this.amount = amount;
+        this.periodDay = periodDay;
+        this.createdAt = LocalDateTime.now();
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+    
+    public EventType getType() {
+        return type;
+    }
+    
+    public String getOperationId() {
+        return operationId;
+    }
+    
+    public long getAmount() {
+        return amount;
+    }
+    
+    public Long getPeriodDay() {
+        return periodDay;
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+    
+    /**
+     * Тип события. На текущий лимит влияют CONFIRM, DEDUCT (минус сумма), REFUND, RESTORE (плюс сумма)
+     * и RESET; остальные меняют только pending-резервы, которые восстанавливаются из limit_reservations.
+     */
+    public enum EventType {
+        RESERVE,
+        CONFIRM,
+        CANCEL,
+        REFUND,
+        EXPIRE,
+        RESTORE,
+        DEDUCT,
+        RESET
+    }
+}
@@ -1,7 +1,7 @@
 package com.example.limit.entity;
 
+import com.example.limit.money.MoneyConverter;
 import jakarta.persistence.*;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
@@ -15,8 +15,10 @@ public class LimitReservation {
     @Column(name = "user_id", nullable = false)
     private Long userId;
     
+    /** Сумма в копейках, см. {@link com.example.limit.money.Money} */
+    @Convert(converter = MoneyConverter.class)
     @Column(name = "amount", nullable = false, precision = 19, scale = 2)
-    private BigDecimal amount;
+    private long amount;
     
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
@@ -25,6 +27,11 @@ public class LimitReservation {
     @Column(name = "operation_id", unique = true)
     private String operationId;
     
+    /** Резерв или прямое списание: оба вида делят пространство operationId */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "operation_type", nullable = false)
+    private OperationType operationType = OperationType.RESERVE;
+    
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
     
@@ -43,7 +50,7 @@ public class LimitReservation {
     public LimitReservation() {
     }
     
-    public LimitReservation(Long userId, BigDecimal amount, String operationId) {
+    public LimitReservation(Long userId, long amount, String operationId) {
         this.userId = userId;
         this.amount = amount;
         this.operationId = operationId;
@@ -66,11 +73,11 @@ public class LimitReservation {
         this.userId = userId;
     }
     
-    public BigDecimal getAmount() {
+    public long getAmount() {
         return amount;
     }
     
-    public void setAmount(BigDecimal amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
     
@@ -90,6 +97,14 @@ public class LimitReservation {
         this.operationId = operationId;
     }
     
+    public OperationType getOperationType() {
+        return operationType;
+    }
+    
+    public void setOperationType(OperationType operationType) {
+        this.operationType = operationType;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -112,6 +127,11 @@ public class LimitReservation {
         CANCELLED,  // Операция отменена, резерв освобожден
         EXPIRED     // Резерв истек
     }
+    
+    public enum OperationType {
+        RESERVE,    // Резерв с последующим подтверждением или отменой
+        DEDUCT      // Прямое списание, запись создается подтвержденной
+    }
 }
 
 
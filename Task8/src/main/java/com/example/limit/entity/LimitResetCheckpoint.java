@@ -0,0 +1,101 @@
+package com.example.limit.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.UpdateTimestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Прогресс одного воркера ежедневного сброса лимитов по диапазону id в user_limits.
+ * После падения сброс продолжается с lastId.
+ */
+@Entity
+@Table(name = "limit_reset_checkpoints", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"reset_date", "worker_index"})
+})
+public class LimitResetCheckpoint {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "reset_date", nullable = false)
+    private LocalDate resetDate;
+    
+    @Column(name = "worker_index", nullable = false)
+    private int workerIndex;
+    
+    /**
+     * Момент запуска сброса: pending-резервы, созданные до него, отменяются
+     */
+    @Column(name = "started_at", nullable = false)
+    private LocalDateTime startedAt;
+    
+    /**
+     * Последний обработанный id; диапазон воркера - (lastId, rangeEnd]
+     */
+    @Column(name = "last_id", nullable = false)
+    private Long lastId;
+    
+    @Column(name = "range_end", nullable = false)
+    private Long rangeEnd;
+    
+    @Column(name = "completed", nullable = false)
+    private boolean completed;
+    
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    public LimitResetCheckpoint() {
+    }
+    
+    public LimitResetCheckpoint(LocalDate resetDate, int workerIndex, LocalDateTime startedAt,
+                                Long lastId, Long rangeEnd) {
+        this.resetDate = resetDate;
+        this.workerIndex = workerIndex;
+        this.startedAt = startedAt;
+        this.lastId = lastId;
+        this.rangeEnd = rangeEnd;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public LocalDate getResetDate() {
+        return resetDate;
+    }
+    
+    public int getWorkerIndex() {
+        return workerIndex;
+    }
+    
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+    
+    public Long getLastId() {
+        return lastId;
+    }
+    
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+    
+    public Long getRangeEnd() {
+        return rangeEnd;
+    }
+    
+    public boolean isCompleted() {
+        return completed;
+    }
+    
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+    
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -1,9 +1,11 @@
 package com.example.limit.entity;
 
+import com.example.limit.money.Money;
+import com.example.limit.money.MoneyConverter;
 import jakarta.persistence.*;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
-import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
@@ -12,6 +14,8 @@ import java.time.LocalDateTime;
 })
 public class UserLimit {
     
+    // Суммы хранятся в копейках, см. Money
+    
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -19,11 +23,41 @@ public class UserLimit {
     @Column(name = "user_id", nullable = false, unique = true)
     private Long userId;
     
+    @Convert(converter = MoneyConverter.class)
     @Column(name = "current_limit", nullable = false, precision = 19, scale = 2)
-    private BigDecimal currentLimit;
+    private long currentLimit;
     
+    @Convert(converter = MoneyConverter.class)
     @Column(name = "default_limit", nullable = false, precision = 19, scale = 2)
-    private BigDecimal defaultLimit;
+    private long defaultLimit;
+    
+    /**
+     * Сумма pending-резервов пользователя. Поддерживается в той же транзакции,
+     * что и сами резервы, чтобы доступный лимит читался одной строкой.
+     */
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "reserved_amount", nullable = false, precision = 19, scale = 2)
+    private long reservedAmount;
+    
+    /**
+     * День (epoch day), к которому относится current_limit. Используется ленивым сбросом.
+     */
+    @Column(name = "period_day", nullable = false)
+    private long periodDay = LocalDate.now().toEpochDay();
+    
+    /**
+     * Последнее событие limit_events, уже учтенное в этой строке. Используется журналом леджера.
+     */
+    @Column(name = "event_seq", nullable = false)
+    private long eventSeq;
+    
+    /**
+     * Версия строки. Условные UPDATE в репозиториях тоже увеличивают ее, поэтому сохранение
+     * устаревшей сущности завершится OptimisticLockingFailureException, а не затрет чужое изменение.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
     
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
@@ -36,7 +70,7 @@ public class UserLimit {
     public UserLimit() {
     }
     
-    public UserLimit(Long userId, BigDecimal currentLimit, BigDecimal defaultLimit) {
+    public UserLimit(Long userId, long currentLimit, long defaultLimit) {
         this.userId = userId;
         this.currentLimit = currentLimit;
         this.defaultLimit = defaultLimit;
@@ -58,22 +92,57 @@ public class UserLimit {
         this.userId = userId;
     }
     
-    public BigDecimal getCurrentLimit() {
+    public long getCurrentLimit() {
         return currentLimit;
     }
     
-    public void setCurrentLimit(BigDecimal currentLimit) {
+    public void setCurrentLimit(long currentLimit) {
         this.currentLimit = currentLimit;
     }
     
-    public BigDecimal getDefaultLimit() {
+    public long getDefaultLimit() {
         return defaultLimit;
     }
     
-    public void setDefaultLimit(BigDecimal defaultLimit) {
+    public void setDefaultLimit(long defaultLimit) {
         this.defaultLimit = defaultLimit;
     }
     
+    public long getReservedAmount() {
+        return reservedAmount;
+    }
+    
+    public void setReservedAmount(long reservedAmount) {
+        this.reservedAmount = reservedAmount;
+    }
+    
+    public long getPeriodDay() {
+        return periodDay;
+    }
+    
+    public void setPeriodDay(long periodDay) {
+        this.periodDay = periodDay;
+    }
+    
+    public long getEventSeq() {
+        return eventSeq;
+    }
+    
+    public void setEventSeq(long eventSeq) {
+        this.eventSeq = eventSeq;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Доступный лимит: текущий минус зарезервированный
+     */
+    public long getAvailableLimit() {
+        return Money.subtract(currentLimit, reservedAmount);
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,57 @@
+package com.example.limit.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Снимок скользящего окна пользователя: непустые бакеты окна, по строке на пользователя и окно.
+ * Пишется пачками через JDBC, см. LimitBatchRepository, и читается при старте.
+ */
+@Entity
+@Table(name = "velocity_snapshots", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"user_id", "window_name"})
+})
+public class VelocitySnapshot {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "window_name", nullable = false, length = 20)
+    private String windowName;
+    
+    /**
+     * Бакеты подряд: номер бакета (long), число операций (int), сумма в копейках (long)
+     */
+    @Column(name = "buckets", nullable = false, length = 20000)
+    private byte[] buckets;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    public VelocitySnapshot() {
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+    
+    public String getWindowName() {
+        return windowName;
+    }
+    
+    public byte[] getBuckets() {
+        return buckets;
+    }
+    
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
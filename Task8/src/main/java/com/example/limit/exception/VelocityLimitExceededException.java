@@ -0,0 +1,11 @@
+package com.example.limit.exception;
+
+/**
+ * Превышен предел скользящего окна: слишком много операций или слишком большая сумма за окно
+ */
+public class VelocityLimitExceededException extends RuntimeException {
+    
+    public VelocityLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.limit.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров. Уровень 0 хранит элементы с точностью до одного тика,
+ * каждый следующий уровень - в wheelSize раз грубее. При переходе через границу
+ * корзины старшего уровня ее элементы перекладываются на младшие уровни.
+ * <p>
+ * Вставка и срабатывание стоят O(1) на элемент независимо от числа таймеров.
+ * Отмена не поддерживается: сработавший элемент должен сам проверить, актуален ли он.
+ * Класс не потокобезопасен, им управляет один поток.
+ */
+public final class HierarchicalTimingWheel<T> {
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<Entry<T>>[][] buckets;
+
+    /**
+     * Элементы дальше последнего уровня. Пересматриваются при обороте последнего уровня.
+     */
+    private final List<Entry<T>> overflow = new ArrayList<>();
+
+    /**
+     * Элементы, чей срок наступил при вставке. Срабатывают при ближайшем advanceTo.
+     */
+    private final List<Entry<T>> due = new ArrayList<>();
+
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, int levels, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2 || levels <= 0) {
+            throw new IllegalArgumentException("Invalid timing wheel geometry");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.buckets = new List[levels][wheelSize];
+        for (int level = 0; level < levels; level++) {
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[level][i] = new ArrayList<>();
+            }
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Добавляет элемент. Срок округляется вверх до тика, поэтому элемент никогда
+     * не срабатывает раньше deadlineMillis.
+     */
+    public void add(T item, long deadlineMillis) {
+        long tick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+        place(new Entry<>(item, tick));
+        size++;
+    }
+
+    /**
+     * Продвигает колесо до nowMillis и отдает все элементы, чей срок наступил.
+     */
+    public void advanceTo(long nowMillis, Consumer<T> onExpired) {
+        drain(due, onExpired);
+
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            drain(buckets[0][(int) (currentTick % wheelSize)], onExpired);
+            drain(due, onExpired);
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        if (entry.tick <= currentTick) {
+            due.add(entry);
+            return;
+        }
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            long levelSpan = span * wheelSize;
+            // Элемент попадает на уровень, если лежит в том же блоке следующего уровня, что и текущий тик
+            if (entry.tick / levelSpan == currentTick / levelSpan) {
+                buckets[level][(int) ((entry.tick / span) % wheelSize)].add(entry);
+                return;
+            }
+            span = levelSpan;
+        }
+        overflow.add(entry);
+    }
+
+    /**
+     * На границе блока уровня перекладывает элементы его текущей корзины ниже, начиная со старших уровней.
+     */
+    private void cascade() {
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            span *= wheelSize;
+        }
+        if (currentTick % span == 0) {
+            replace(overflow);
+        }
+        for (int level = buckets.length - 1; level > 0; level--) {
+            span /= wheelSize;
+            if (currentTick % span == 0) {
+                replace(buckets[level][(int) ((currentTick / span) % wheelSize)]);
+            }
+        }
+    }
+
+    private void replace(List<Entry<T>> bucket) {
+        if (bucket.isEmpty()) {
+            return;
+        }
+        List<Entry<T>> entries = new ArrayList<>(bucket);
+        bucket.clear();
+        for (Entry<T> entry : entries) {
+            place(entry);
+        }
+    }
+
+    private void drain(List<Entry<T>> bucket, Consumer<T> onExpired) {
+        if (bucket.isEmpty()) {
+            return;
+        }
+        List<Entry<T>> entries = new ArrayList<>(bucket);
+        bucket.clear();
+        size -= entries.size();
+        for (Entry<T> entry : entries) {
+            onExpired.accept(entry.item);
+        }
+    }
+
+    private record Entry<T>(T item, long tick) {
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.limit.expiry;
+
+import com.example.limit.dto.PendingReservationExpiry;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.service.LimitMaintenance;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Истекает pending-резервы примерно через тик после их expiresAt, а не раз в час.
+ * <p>
+ * Сроки резервов лежат на {@link HierarchicalTimingWheel}, которым управляет один поток.
+ * Новые резервы регистрируются из любых потоков через очередь и попадают на колесо на ближайшем тике.
+ * Сработавшие operationId истекаются пачками по limit.expiry.batch-size, каждая пачка - своя транзакция.
+ * Подтвержденные и отмененные резервы с колеса не снимаются: при срабатывании их просто пропустит
+ * условие status = PENDING.
+ * <p>
+ * При старте колесо восстанавливается из pending-резервов в БД. Ежечасная очистка
+ * в {@link com.example.limit.scheduler.LimitScheduler} остается страховкой для пропущенных резервов.
+ */
+@Component
+public class ReservationExpiryWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationExpiryWheel.class);
+
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_LEVELS = 4;
+
+    private final ObjectProvider<LimitMaintenance> limitMaintenance;
+    private final LimitReservationRepository reservationRepository;
+    private final boolean enabled;
+    private final long tickMillis;
+    private final int batchSize;
+    private final int rebuildPageSize;
+
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+    private final HierarchicalTimingWheel<String> wheel;
+    private ScheduledExecutorService ticker;
+
+    public ReservationExpiryWheel(
+            ObjectProvider<LimitMaintenance> limitMaintenance,
+            LimitReservationRepository reservationRepository,
+            @Value("${limit.expiry.wheel.enabled:true}") boolean enabled,
+            @Value("${limit.expiry.tick-ms:1000}") long tickMillis,
+            @Value("${limit.expiry.batch-size:500}") int batchSize,
+            @Value("${limit.expiry.rebuild-page-size:10000}") int rebuildPageSize) {
+        if (tickMillis <= 0 || batchSize <= 0 || rebuildPageSize <= 0) {
+            throw new IllegalArgumentException("limit.expiry settings must be positive");
+        }
+        this.limitMaintenance = limitMaintenance;
+        this.reservationRepository = reservationRepository;
+        this.enabled = enabled;
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.rebuildPageSize = rebuildPageSize;
+        this.wheel = new HierarchicalTimingWheel<>(tickMillis, WHEEL_SIZE, WHEEL_LEVELS, System.currentTimeMillis());
+    }
+
+    /**
+     * Ставит резерв на колесо. Вызывается после создания pending-резерва.
+     */
+    public void schedule(String operationId, LocalDateTime expiresAt) {
+        if (enabled && expiresAt != null) {
+            registrations.add(new Registration(operationId, toMillis(expiresAt)));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Reservation expiry wheel is disabled, relying on the hourly cleanup");
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "limit-expiry-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.execute(this::rebuild);
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Загружает сроки всех pending-резервов из БД постранично по id.
+     */
+    private void rebuild() {
+        try {
+            long afterId = 0;
+            int loaded = 0;
+            List<PendingReservationExpiry> page;
+            do {
+                page = reservationRepository.findExpiriesAfter(
+                        ReservationStatus.PENDING, afterId, PageRequest.of(0, rebuildPageSize));
+                for (PendingReservationExpiry expiry : page) {
+                    wheel.add(expiry.operationId(), toMillis(expiry.expiresAt()));
+                    afterId = expiry.id();
+                }
+                loaded += page.size();
+            } while (page.size() == rebuildPageSize);
+            logger.info("Reservation expiry wheel rebuilt with {} pending reservations", loaded);
+        } catch (Exception e) {
+            logger.error("Failed to rebuild reservation expiry wheel, relying on the hourly cleanup", e);
+        }
+    }
+
+    private void tick() {
+        try {
+            Registration registration;
+            while ((registration = registrations.poll()) != null) {
+                wheel.add(registration.operationId(), registration.deadlineMillis());
+            }
+
+            List<String> due = new ArrayList<>();
+            wheel.advanceTo(System.currentTimeMillis(), due::add);
+            for (int from = 0; from < due.size(); from += batchSize) {
+                expire(due.subList(from, Math.min(from + batchSize, due.size())));
+            }
+        } catch (Exception e) {
+            logger.error("Reservation expiry wheel tick failed", e);
+        }
+    }
+
+    private void expire(List<String> operationIds) {
+        try {
+            limitMaintenance.getObject().expireReservations(operationIds);
+        } catch (Exception e) {
+            // Резервы останутся PENDING и будут истекшими при ежечасной очистке
+            logger.error("Failed to expire {} reservations", operationIds.size(), e);
+        }
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private record Registration(String operationId, long deadlineMillis) {
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.limit.idempotency;
+
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitReservation.OperationType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш идемпотентности: ответ на резерв или списание по operationId.
+ * <p>
+ * Повтор запроса с тем же operationId отвечается из памяти без обращения к БД.
+ * Размер ограничен limit.idempotency.max-size, запись живет limit.idempotency.ttl.
+ * Вытеснение идет в порядке добавления при каждом put, поэтому чтение - один поиск
+ * в ConcurrentHashMap без выделения памяти. Промах кэша не означает, что операции не было:
+ * тогда дубликат ловит уникальное ограничение на operation_id.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public IdempotencyCache(
+            @Value("${limit.idempotency.ttl:PT10M}") Duration ttl,
+            @Value("${limit.idempotency.max-size:100000}") int maxSize) {
+        this(ttl, maxSize, System::nanoTime);
+    }
+
+    IdempotencyCache(Duration ttl, int maxSize, LongSupplier nanoClock) {
+        if (ttl.isNegative() || ttl.isZero() || maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid limit.idempotency settings");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Исходный ответ по operationId или null, если его нет или срок записи истек
+     */
+    public ReservationResponse get(String operationId) {
+        Entry entry = entries.get(operationId);
+        if (entry == null || entry.expiresAtNanos - nanoClock.getAsLong() <= 0) {
+            return null;
+        }
+        return entry.response;
+    }
+
+    /**
+     * Запоминает ответ. Вызывается после коммита, чтобы в кэш не попал откаченный результат.
+     */
+    public void put(String operationId, ReservationResponse response) {
+        long now = nanoClock.getAsLong();
+        Entry entry = new Entry(operationId, response, now + ttlNanos);
+        entries.put(operationId, entry);
+        insertionOrder.add(entry);
+        evict(now);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+        insertionOrder.clear();
+    }
+
+    /**
+     * Возвращает исходный ответ, если повтор того же вида пришел с теми же пользователем и суммой.
+     * Резервы и списания делят одно пространство operationId, поэтому резерв не отвечает на
+     * списание и наоборот. Иначе operationId занят другой операцией.
+     */
+    public static ReservationResponse replay(ReservationResponse original, OperationType operationType,
+                                             Long userId, BigDecimal amount) {
+        if (operationType.name().equals(original.getOperationType())
+                && original.getUserId().equals(userId) && original.getAmount().compareTo(amount) == 0) {
+            return original;
+        }
+        throw new IllegalArgumentException(
+                "Reservation with operationId " + original.getOperationId() + " already exists");
+    }
+
+    private void evict(long now) {
+        Entry head;
+        while ((head = insertionOrder.peek()) != null
+                && (head.expiresAtNanos - now <= 0 || entries.size() > maxSize)) {
+            if (insertionOrder.remove(head)) {
+                // Запись могла быть заменена повторным put, тогда удалять нечего
+                entries.remove(head.operationId, head);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String operationId;
+        private final ReservationResponse response;
+        private final long expiresAtNanos;
+
+        private Entry(String operationId, ReservationResponse response, long expiresAtNanos) {
+            this.operationId = operationId;
+            this.response = response;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
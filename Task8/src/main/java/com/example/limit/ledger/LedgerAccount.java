@@ -0,0 +1,144 @@
+package com.example.limit.ledger;
+
+import com.example.limit.dto.LimitResponse;
+import com.example.limit.entity.LimitEvent;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository.LimitSnapshotRow;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Счет пользователя в леджере: текущий лимит, сумма pending-резервов (в копейках) и сами резервы.
+ * Изменяется только потоком своей партиции, поэтому синхронизация не нужна.
+ */
+final class LedgerAccount {
+
+    private final Long userId;
+    private final long defaultLimit;
+    private long currentLimit;
+    private long reservedTotal;
+    private long periodDay;
+    private LocalDateTime updatedAt;
+    /** Последнее событие журнала и последнее событие, попавшее в снимок */
+    private long eventSeq;
+    private long snapshotSeq;
+
+    /**
+     * Pending-резервы и резервы, чей последний статус еще не записан в БД.
+     * Если резерва здесь нет, источником истины для него является БД.
+     */
+    private final Map<String, LedgerReservation> reservations = new HashMap<>();
+
+    LedgerAccount(UserLimit userLimit) {
+        this.userId = userLimit.getUserId();
+        this.defaultLimit = userLimit.getDefaultLimit();
+        this.currentLimit = userLimit.getCurrentLimit();
+        this.periodDay = userLimit.getPeriodDay();
+        this.updatedAt = userLimit.getUpdatedAt();
+        this.eventSeq = userLimit.getEventSeq();
+        this.snapshotSeq = userLimit.getEventSeq();
+    }
+
+    Long getUserId() {
+        return userId;
+    }
+
+    long getCurrentLimit() {
+        return currentLimit;
+    }
+
+    long getReservedTotal() {
+        return reservedTotal;
+    }
+
+    long getPeriodDay() {
+        return periodDay;
+    }
+
+    long getAvailableLimit() {
+        return Money.subtract(currentLimit, reservedTotal);
+    }
+
+    void changeCurrentLimit(long delta) {
+        currentLimit = Money.add(currentLimit, delta);
+        updatedAt = LocalDateTime.now();
+    }
+
+    void resetCurrentLimit(long value, long periodDay) {
+        this.currentLimit = value;
+        this.periodDay = periodDay;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    void changeReserved(long delta) {
+        reservedTotal = Money.add(reservedTotal, delta);
+    }
+
+    long nextEventSeq() {
+        return ++eventSeq;
+    }
+
+    /**
+     * Применяет событие из хвоста журнала к состоянию из снимка. Pending-резервы
+     * журналом не восстанавливаются: они загружаются из limit_reservations.
+     */
+    void replay(LimitEvent event) {
+        switch (event.getType()) {
+            case CONFIRM, DEDUCT -> currentLimit = Money.subtract(currentLimit, event.getAmount());
+            case REFUND, RESTORE -> currentLimit = Money.add(currentLimit, event.getAmount());
+            case RESET -> {
+                currentLimit = event.getAmount();
+                periodDay = event.getPeriodDay();
+            }
+            default -> {
+            }
+        }
+        eventSeq = event.getSeq();
+        updatedAt = event.getCreatedAt();
+    }
+
+    /**
+     * Есть ли события, которые еще не попали в снимок
+     */
+    boolean isSnapshotStale() {
+        return snapshotSeq != eventSeq;
+    }
+
+    LimitSnapshotRow toSnapshot() {
+        snapshotSeq = eventSeq;
+        return new LimitSnapshotRow(userId, currentLimit, reservedTotal, periodDay, eventSeq);
+    }
+
+    LedgerReservation getReservation(String operationId) {
+        return reservations.get(operationId);
+    }
+
+    void track(LedgerReservation reservation) {
+        reservations.put(reservation.getOperationId(), reservation);
+    }
+
+    Collection<LedgerReservation> reservations() {
+        return reservations.values();
+    }
+
+    /**
+     * Убирает завершенный резерв из памяти, если после записи в БД его статус не менялся.
+     */
+    boolean untrackIfSettled(String operationId, long writeSeq) {
+        LedgerReservation reservation = reservations.get(operationId);
+        if (reservation == null || reservation.isPending() || reservation.getWriteSeq() != writeSeq) {
+            return false;
+        }
+        reservations.remove(operationId);
+        return true;
+    }
+
+    LimitResponse toResponse() {
+        return new LimitResponse(userId, Money.toDecimal(currentLimit), Money.toDecimal(defaultLimit),
+                Money.toDecimal(getAvailableLimit()), updatedAt);
+    }
+}
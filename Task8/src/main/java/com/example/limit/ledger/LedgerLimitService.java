@@ -0,0 +1,757 @@
+package com.example.limit.ledger;
+
+import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitEvent;
+import com.example.limit.entity.LimitEvent.EventType;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.LimitReservation.OperationType;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitBatchRepository.LimitSnapshotRow;
+import com.example.limit.repository.LimitEventRepository;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.service.LimitMaintenance;
+import com.example.limit.service.LimitService;
+import com.example.limit.service.LimitServiceApi;
+import com.example.limit.velocity.VelocityLimiter;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Движок лимитов на in-memory леджере (limit.engine=ledger).
+ * <p>
+ * Счета пользователей распределены по фиксированному числу партиций, у каждой партиции
+ * один поток-писатель, поэтому решения принимаются в памяти без блокировок и обращений к БД.
+ * Изменения записываются в user_limits и limit_reservations асинхронно, в порядке их принятия.
+ * Счет загружается из БД при первом обращении к пользователю и дальше живет в памяти.
+ * <p>
+ * Идентификатор резерва (reservationId) в ответе не заполняется: строка в БД появляется позже.
+ * <p>
+ * С limit.ledger.event-log.enabled балансы в user_limits не перезаписываются на каждое изменение:
+ * операции дописываются в журнал limit_events, а user_limits раз в limit.ledger.event-log.snapshot-ms
+ * получает снимок измененных счетов с номером последнего учтенного события. Счет восстанавливается
+ * из снимка и хвоста журнала; при старте заранее загружаются счета, у которых хвост есть.
+ */
+@Timed(value = "limit.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
+@Service
+@Primary
+@ConditionalOnProperty(name = "limit.engine", havingValue = "ledger")
+public class LedgerLimitService implements LimitServiceApi, LimitMaintenance, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerLimitService.class);
+
+    private final UserLimitRepository userLimitRepository;
+    private final LimitReservationRepository reservationRepository;
+    private final LimitService databaseEngine;
+    private final ReservationExpiryWheel expiryWheel;
+    private final LazyLimitReset lazyReset;
+    private final IdempotencyCache idempotencyCache;
+    private final VelocityLimiter velocityLimiter;
+    private final LimitEventRepository eventRepository;
+    private final LimitBatchRepository batchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long defaultLimitValue;
+    private final boolean eventLog;
+    private final LedgerPartition[] partitions;
+
+    /**
+     * operationId -> userId для резервов, которые сейчас живут в памяти леджера.
+     */
+    private final ConcurrentMap<String, Long> operationIndex = new ConcurrentHashMap<>();
+
+    public LedgerLimitService(
+            UserLimitRepository userLimitRepository,
+            LimitReservationRepository reservationRepository,
+            LimitService databaseEngine,
+            ReservationExpiryWheel expiryWheel,
+            LazyLimitReset lazyReset,
+            IdempotencyCache idempotencyCache,
+            VelocityLimiter velocityLimiter,
+            LimitEventRepository eventRepository,
+            LimitBatchRepository batchRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue,
+            @Value("${limit.ledger.partitions:8}") int partitionCount,
+            @Value("${limit.ledger.event-log.enabled:false}") boolean eventLog,
+            @Value("${limit.ledger.persist.max-attempts:5}") int persistAttempts,
+            @Value("${limit.ledger.persist.initial-backoff:PT0.1S}") Duration persistInitialBackoff,
+            @Value("${limit.ledger.persist.max-backoff:PT2S}") Duration persistMaxBackoff) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("limit.ledger.partitions must be positive");
+        }
+        if (persistAttempts <= 0 || persistInitialBackoff.isNegative() || persistMaxBackoff.isNegative()) {
+            throw new IllegalArgumentException("Invalid limit.ledger.persist settings");
+        }
+        this.userLimitRepository = userLimitRepository;
+        this.reservationRepository = reservationRepository;
+        this.databaseEngine = databaseEngine;
+        this.expiryWheel = expiryWheel;
+        this.lazyReset = lazyReset;
+        this.idempotencyCache = idempotencyCache;
+        this.velocityLimiter = velocityLimiter;
+        this.eventRepository = eventRepository;
+        this.batchRepository = batchRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.defaultLimitValue = Money.fromDecimal(defaultLimitValue);
+        this.eventLog = eventLog;
+        this.partitions = new LedgerPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new LedgerPartition(i, persistAttempts, persistInitialBackoff, persistMaxBackoff);
+        }
+    }
+
+    @Override
+    public LimitResponse getLimit(Long userId) {
+        LedgerPartition partition = partitionFor(userId);
+        return partition.call(() -> loadAccount(partition, userId, true).toResponse());
+    }
+
+    @Override
+    public ReservationResponse reserveLimit(Long userId, BigDecimal amount, String operationId) {
+        long amountCents = Money.fromDecimal(amount);
+        final String finalOperationId;
+        if (operationId != null && !operationId.isEmpty()) {
+            ReservationResponse original = findOriginal(OperationType.RESERVE, userId, amount, operationId);
+            if (original != null) {
+                return original;
+            }
+            finalOperationId = operationId;
+        } else {
+            finalOperationId = UUID.randomUUID().toString();
+        }
+
+        LedgerPartition partition = partitionFor(userId);
+        ReservationResponse response = partition.call(() -> {
+            LedgerAccount account = loadAccount(partition, userId, true);
+            requireAvailable(account, amountCents);
+            // Решение принимается здесь же, в потоке партиции, поэтому снимать операцию
+            // с окон нужно только при дубликате
+            VelocityLimiter.Permit permit = velocityLimiter.acquire(userId, amountCents);
+            if (operationIndex.putIfAbsent(finalOperationId, userId) != null) {
+                velocityLimiter.release(permit);
+                throw duplicateOperation(finalOperationId);
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            LedgerReservation reservation = new LedgerReservation(
+                    finalOperationId, OperationType.RESERVE, userId, amountCents, now, now.plusHours(1));
+            account.track(reservation);
+            account.changeReserved(amountCents);
+
+            LimitReservation entity = reservation.toEntity();
+            partition.persist(() -> transactionTemplate.executeWithoutResult(
+                    status -> reservationRepository.save(entity)), () -> { });
+            appendEvent(partition, account, EventType.RESERVE, finalOperationId, amountCents);
+            persistBalances(partition, account);
+            expiryWheel.schedule(finalOperationId, reservation.getExpiresAt());
+            return reservation.toResponse();
+        });
+        if (operationId != null && !operationId.isEmpty()) {
+            idempotencyCache.put(operationId, response);
+        }
+        return response;
+    }
+
+    /**
+     * Решения по элементам принимаются в памяти партиций, поэтому пакет обрабатывается поэлементно.
+     * Элементы одного пользователя идут подряд и попадают в одну партицию.
+     */
+    @Override
+    public List<ReservationBatchResult> reserveBatch(List<ReservationBatchItem> items) {
+        Integer[] order = new Integer[items.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> items.get(i).userId()));
+
+        ReservationBatchResult[] results = new ReservationBatchResult[items.size()];
+        for (int index : order) {
+            ReservationBatchItem item = items.get(index);
+            try {
+                ReservationResponse reservation = reserveLimit(item.userId(), item.amount(), item.operationId());
+                results[index] = ReservationBatchResult.reserved(item, reservation.getOperationId());
+            } catch (RuntimeException e) {
+                results[index] = ReservationBatchResult.failed(item, e);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public void confirmOperation(String operationId) {
+        Long userId = resolveUserId(operationId);
+        LedgerPartition partition = partitionFor(userId);
+        partition.call(() -> {
+            LedgerAccount account = loadAccount(partition, userId, true);
+            LedgerReservation reservation = resolveReservation(account, operationId);
+            if (!reservation.isPending()) {
+                throw new IllegalStateException("Reservation is not in PENDING status");
+            }
+
+            account.changeReserved(Money.negate(reservation.getAmount()));
+            account.changeCurrentLimit(Money.negate(reservation.getAmount()));
+            persistBalances(partition, account);
+            persistStatus(partition, account, reservation, ReservationStatus.CONFIRMED);
+            return null;
+        });
+    }
+
+    @Override
+    public void cancelOperation(String operationId) {
+        Long userId = resolveUserId(operationId);
+        LedgerPartition partition = partitionFor(userId);
+        partition.call(() -> {
+            LedgerAccount account = loadAccount(partition, userId, true);
+            LedgerReservation reservation = resolveReservation(account, operationId);
+
+            if (reservation.getStatus() == ReservationStatus.CONFIRMED) {
+                // Операция уже подтверждена - возвращаем списанный лимит
+                account.changeCurrentLimit(reservation.getAmount());
+                persistBalances(partition, account);
+            } else if (reservation.isPending()) {
+                account.changeReserved(Money.negate(reservation.getAmount()));
+                persistBalances(partition, account);
+            }
+            persistStatus(partition, account, reservation, ReservationStatus.CANCELLED);
+            return null;
+        });
+    }
+
+    @Override
+    public List<OperationBatchResult> confirmBatch(List<String> operationIds) {
+        return settleEach(operationIds, OperationBatchResult.Outcome.CONFIRMED, this::confirmOperation);
+    }
+
+    @Override
+    public List<OperationBatchResult> cancelBatch(List<String> operationIds) {
+        return settleEach(operationIds, OperationBatchResult.Outcome.CANCELLED, this::cancelOperation);
+    }
+
+    /**
+     * Решения принимаются в памяти партиций, поэтому пакет обрабатывается поэлементно
+     */
+    private List<OperationBatchResult> settleEach(List<String> operationIds, OperationBatchResult.Outcome outcome,
+                                                  Consumer<String> action) {
+        List<OperationBatchResult> results = new ArrayList<>(operationIds.size());
+        for (String operationId : operationIds) {
+            Long userId = null;
+            try {
+                userId = resolveUserId(operationId);
+                action.accept(operationId);
+                results.add(OperationBatchResult.applied(operationId, userId, outcome));
+            } catch (ReservationNotFoundException e) {
+                results.add(OperationBatchResult.notFound(operationId));
+            } catch (IllegalStateException e) {
+                results.add(OperationBatchResult.notPending(operationId, userId));
+            } catch (RuntimeException e) {
+                results.add(OperationBatchResult.failed(operationId, e));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void restoreLimit(Long userId, BigDecimal amount) {
+        LedgerPartition partition = partitionFor(userId);
+        partition.call(() -> {
+            LedgerAccount account = loadAccount(partition, userId, false);
+            long amountCents = Money.fromDecimal(amount);
+            account.changeCurrentLimit(amountCents);
+            appendEvent(partition, account, EventType.RESTORE, null, amountCents);
+            persistBalances(partition, account);
+            return null;
+        });
+    }
+
+    /**
+     * С operationId списание сохраняется подтвержденной записью в limit_reservations,
+     * а повтор возвращается без повторного списания.
+     */
+    @Override
+    public void deductLimit(Long userId, BigDecimal amount, String operationId) {
+        long amountCents = Money.fromDecimal(amount);
+        boolean idempotent = operationId != null && !operationId.isEmpty();
+        if (idempotent && findOriginal(OperationType.DEDUCT, userId, amount, operationId) != null) {
+            return;
+        }
+
+        LedgerPartition partition = partitionFor(userId);
+        ReservationResponse response = partition.call(() -> {
+            LedgerAccount account = loadAccount(partition, userId, true);
+            requireAvailable(account, amountCents);
+            VelocityLimiter.Permit permit = velocityLimiter.acquire(userId, amountCents);
+            if (!idempotent) {
+                account.changeCurrentLimit(-amountCents);
+                appendEvent(partition, account, EventType.DEDUCT, null, amountCents);
+                persistBalances(partition, account);
+                return null;
+            }
+            if (operationIndex.putIfAbsent(operationId, userId) != null) {
+                velocityLimiter.release(permit);
+                throw duplicateOperation(operationId);
+            }
+
+            account.changeCurrentLimit(-amountCents);
+            LedgerReservation deduction = new LedgerReservation(
+                    operationId, OperationType.DEDUCT, userId, amountCents, LocalDateTime.now(), null);
+            long writeSeq = deduction.changeStatus(ReservationStatus.CONFIRMED);
+            // До записи в БД списание остается в памяти, чтобы его можно было отменить
+            account.track(deduction);
+            LimitReservation entity = deduction.toEntity();
+            partition.persist(
+                    () -> transactionTemplate.executeWithoutResult(status -> reservationRepository.save(entity)),
+                    () -> partition.execute(() -> {
+                        if (account.untrackIfSettled(operationId, writeSeq)) {
+                            operationIndex.remove(operationId, userId);
+                        }
+                    }));
+            appendEvent(partition, account, EventType.DEDUCT, operationId, amountCents);
+            persistBalances(partition, account);
+            return deduction.toResponse();
+        });
+        if (idempotent) {
+            idempotencyCache.put(operationId, response);
+        }
+    }
+
+    /**
+     * Сначала сбрасывает лимиты в БД, затем приводит к тому же состоянию загруженные счета.
+     * Записи партиций, поставленные в очередь до сброса, будут перекрыты записями сброса.
+     * С журналом перед сбросом пишутся снимки, чтобы старый хвост журнала не применился поверх сброса.
+     */
+    @Override
+    public void resetAllLimits() {
+        if (eventLog) {
+            snapshot();
+            flush();
+        }
+        databaseEngine.resetAllLimits();
+        long periodDay = LocalDate.now().toEpochDay();
+        forEachPartition(partition -> {
+            for (LedgerAccount account : partition.accounts()) {
+                for (LedgerReservation reservation : account.reservations()) {
+                    if (reservation.isPending()) {
+                        account.changeReserved(Money.negate(reservation.getAmount()));
+                        persistStatus(partition, account, reservation, ReservationStatus.CANCELLED);
+                    }
+                }
+                account.resetCurrentLimit(defaultLimitValue, periodDay);
+                appendEvent(partition, account, EventType.RESET, null, defaultLimitValue);
+                persistBalances(partition, account);
+            }
+        });
+    }
+
+    /**
+     * Истекает резервы в БД, затем в памяти. Момент для in-memory прохода берется позже,
+     * поэтому загруженные счета истекают как минимум те же резервы, что и БД.
+     */
+    @Override
+    public void expireOldReservations() {
+        databaseEngine.expireOldReservations();
+        LocalDateTime now = LocalDateTime.now();
+        forEachPartition(partition -> {
+            for (LedgerAccount account : partition.accounts()) {
+                boolean changed = false;
+                for (LedgerReservation reservation : account.reservations()) {
+                    if (reservation.isPending() && reservation.isExpired(now)) {
+                        account.changeReserved(Money.negate(reservation.getAmount()));
+                        persistStatus(partition, account, reservation, ReservationStatus.EXPIRED);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    persistBalances(partition, account);
+                }
+            }
+        });
+    }
+
+    /**
+     * Резервы незагруженных счетов истекаются в БД, затем резервы из памяти - в своих партициях.
+     * Счет, загруженный во время прохода по БД, уже не увидит истекший там резерв как pending.
+     */
+    @Override
+    public void expireReservations(Collection<String> operationIds) {
+        List<String> notLoaded = new ArrayList<>();
+        for (String operationId : operationIds) {
+            if (!operationIndex.containsKey(operationId)) {
+                notLoaded.add(operationId);
+            }
+        }
+        databaseEngine.expireReservations(notLoaded);
+
+        LocalDateTime now = LocalDateTime.now();
+        for (String operationId : operationIds) {
+            Long userId = operationIndex.get(operationId);
+            if (userId == null) {
+                continue;
+            }
+            LedgerPartition partition = partitionFor(userId);
+            partition.execute(() -> {
+                LedgerAccount account = partition.getAccount(userId);
+                LedgerReservation reservation = account == null ? null : account.getReservation(operationId);
+                if (reservation != null && reservation.isPending() && reservation.isExpired(now)) {
+                    account.changeReserved(Money.negate(reservation.getAmount()));
+                    persistBalances(partition, account);
+                    persistStatus(partition, account, reservation, ReservationStatus.EXPIRED);
+                }
+            });
+        }
+    }
+
+    /**
+     * Пишет снимки счетов с событиями новее прошлого снимка: одна пачка на партицию,
+     * в очереди записи после событий, которые она учитывает
+     */
+    @Scheduled(fixedDelayString = "${limit.ledger.event-log.snapshot-ms:10000}")
+    public void snapshot() {
+        if (!eventLog) {
+            return;
+        }
+        forEachPartition(partition -> {
+            List<LimitSnapshotRow> rows = new ArrayList<>();
+            for (LedgerAccount account : partition.accounts()) {
+                if (account.isSnapshotStale()) {
+                    rows.add(account.toSnapshot());
+                }
+            }
+            if (!rows.isEmpty()) {
+                partition.persist(() -> transactionTemplate.executeWithoutResult(
+                        status -> batchRepository.updateLimitSnapshots(rows)), () -> { });
+            }
+        });
+    }
+
+    /**
+     * Загружает при старте счета, у которых в журнале есть события новее снимка,
+     * чтобы первое обращение к ним не ждало проигрывания хвоста
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!eventLog) {
+            return;
+        }
+        try {
+            List<Long> userIds = eventRepository.findUserIdsBehindSnapshot();
+            for (Long userId : userIds) {
+                LedgerPartition partition = partitionFor(userId);
+                partition.call(() -> loadAccount(partition, userId, false));
+            }
+            logger.info("Ledger warmed up {} accounts from the event log", userIds.size());
+        } catch (Exception e) {
+            logger.error("Failed to warm up ledger accounts, loading them on first use", e);
+        }
+    }
+
+    /**
+     * Размер леджера: загруженные счета и операции, которые еще живут в памяти
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("limit.ledger.accounts", this, ledger -> {
+                    int accounts = 0;
+                    for (LedgerPartition partition : ledger.partitions) {
+                        accounts += partition.accountCount();
+                    }
+                    return accounts;
+                })
+                .description("Accounts loaded into the in-memory ledger")
+                .register(registry);
+        Gauge.builder("limit.ledger.operations", operationIndex, ConcurrentMap::size)
+                .description("Reservations and deductions held in ledger memory")
+                .register(registry);
+        FunctionCounter.builder("limit.ledger.persist.failures", this,
+                        ledger -> ledger.sumPartitions(LedgerPartition::failedWrites))
+                .description("Failed attempts to write ledger changes to the database, including retried ones")
+                .register(registry);
+        FunctionCounter.builder("limit.ledger.persist.dropped", this,
+                        ledger -> ledger.sumPartitions(LedgerPartition::droppedWrites))
+                .description("Ledger changes never written to the database; their partition reloaded from it")
+                .register(registry);
+    }
+
+    private long sumPartitions(ToLongFunction<LedgerPartition> metric) {
+        long sum = 0;
+        for (LedgerPartition partition : partitions) {
+            sum += metric.applyAsLong(partition);
+        }
+        return sum;
+    }
+
+    /**
+     * Дожидается записи в БД всех изменений, принятых леджером к этому моменту.
+     */
+    public void flush() {
+        for (LedgerPartition partition : partitions) {
+            partition.flush();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (LedgerPartition partition : partitions) {
+            partition.shutdown();
+        }
+    }
+
+    private LedgerPartition partitionFor(Long userId) {
+        return partitions[Math.floorMod(Long.hashCode(userId), partitions.length)];
+    }
+
+    private void forEachPartition(Consumer<LedgerPartition> action) {
+        for (LedgerPartition partition : partitions) {
+            partition.call(() -> {
+                action.accept(partition);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Возвращает счет пользователя, при первом обращении загружая его из БД вместе с pending-резервами.
+     */
+    private LedgerAccount loadAccount(LedgerPartition partition, Long userId, boolean createIfMissing) {
+        LedgerAccount account = partition.getAccount(userId);
+        if (account == null) {
+            account = readAccount(partition, userId, createIfMissing);
+        }
+        if (lazyReset.isEnabled()) {
+            rollOver(partition, account);
+        }
+        return account;
+    }
+
+    private LedgerAccount readAccount(LedgerPartition partition, Long userId, boolean createIfMissing) {
+        UserLimit userLimit = userLimitRepository.findByUserId(userId)
+                .orElseGet(() -> {
+                    if (!createIfMissing) {
+                        throw new IllegalStateException("User limit not found");
+                    }
+                    return createDefaultLimit(userId);
+                });
+
+        LedgerAccount account = new LedgerAccount(userLimit);
+        if (eventLog) {
+            for (LimitEvent event : eventRepository.findByUserIdAndSeqGreaterThanOrderBySeq(
+                    userId, userLimit.getEventSeq())) {
+                account.replay(event);
+            }
+        }
+        for (LimitReservation stored : reservationRepository.findByUserIdAndStatus(userId, ReservationStatus.PENDING)) {
+            LedgerReservation reservation = new LedgerReservation(stored);
+            account.track(reservation);
+            account.changeReserved(reservation.getAmount());
+            operationIndex.putIfAbsent(reservation.getOperationId(), userId);
+        }
+        partition.putAccount(account);
+        return account;
+    }
+
+    /**
+     * Ленивый сброс в памяти: при первом обращении в новом дне отменяет pending-резервы прошлых дней
+     * и возвращает лимит к значению по умолчанию
+     */
+    private void rollOver(LedgerPartition partition, LedgerAccount account) {
+        LocalDate today = LocalDate.now();
+        if (account.getPeriodDay() >= today.toEpochDay()) {
+            return;
+        }
+        LocalDateTime periodStart = today.atStartOfDay();
+        for (LedgerReservation reservation : List.copyOf(account.reservations())) {
+            if (reservation.isPending() && reservation.getCreatedAt().isBefore(periodStart)) {
+                account.changeReserved(Money.negate(reservation.getAmount()));
+                persistStatus(partition, account, reservation, ReservationStatus.CANCELLED);
+            }
+        }
+        account.resetCurrentLimit(defaultLimitValue, today.toEpochDay());
+        appendEvent(partition, account, EventType.RESET, null, defaultLimitValue);
+        persistBalances(partition, account);
+    }
+
+    private UserLimit createDefaultLimit(Long userId) {
+        try {
+            return transactionTemplate.execute(status ->
+                    userLimitRepository.save(new UserLimit(userId, defaultLimitValue, defaultLimitValue)));
+        } catch (DataIntegrityViolationException e) {
+            // Строку успел создать другой узел или движок БД
+            return userLimitRepository.findByUserId(userId).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Исходный ответ на повтор операции: из кэша идемпотентности, а при промахе - из БД.
+     * Операция, которая еще живет в памяти леджера, отклоняется как дубликат в партиции.
+     */
+    private ReservationResponse findOriginal(OperationType kind, Long userId, BigDecimal amount,
+                                             String operationId) {
+        ReservationResponse cached = idempotencyCache.get(operationId);
+        if (cached != null) {
+            return IdempotencyCache.replay(cached, kind, userId, amount);
+        }
+        if (operationIndex.containsKey(operationId)) {
+            return null;
+        }
+        LimitReservation stored = reservationRepository.findByOperationId(operationId).orElse(null);
+        if (stored == null) {
+            return null;
+        }
+        ReservationResponse original = IdempotencyCache.replay(
+                new ReservationResponse(stored), kind, userId, amount);
+        idempotencyCache.put(operationId, original);
+        return original;
+    }
+
+    private Long resolveUserId(String operationId) {
+        Long userId = operationIndex.get(operationId);
+        if (userId != null) {
+            return userId;
+        }
+        return reservationRepository.findByOperationId(operationId)
+                .map(LimitReservation::getUserId)
+                .orElseThrow(() -> reservationNotFound(operationId));
+    }
+
+    /**
+     * Находит резерв в памяти счета, а если его там нет - в БД.
+     * Pending-резерв из БД начинает отслеживаться и учитывается в сумме резервов.
+     */
+    private LedgerReservation resolveReservation(LedgerAccount account, String operationId) {
+        LedgerReservation reservation = account.getReservation(operationId);
+        if (reservation != null) {
+            return reservation;
+        }
+
+        LimitReservation stored = reservationRepository.findByOperationId(operationId)
+                .orElseThrow(() -> reservationNotFound(operationId));
+        reservation = new LedgerReservation(stored);
+        if (reservation.isPending()) {
+            account.track(reservation);
+            account.changeReserved(reservation.getAmount());
+            operationIndex.putIfAbsent(operationId, account.getUserId());
+        }
+        return reservation;
+    }
+
+    private void requireAvailable(LedgerAccount account, long amount) {
+        long availableLimit = account.getAvailableLimit();
+        if (availableLimit < amount) {
+            throw new InsufficientLimitException(
+                    String.format("Insufficient limit. Available: %s, Requested: %s",
+                            Money.toDecimal(availableLimit), Money.toDecimal(amount))
+            );
+        }
+    }
+
+    /**
+     * Записывает балансы счета в user_limits. С журналом балансы попадают туда снимком, см. {@link #snapshot}.
+     */
+    private void persistBalances(LedgerPartition partition, LedgerAccount account) {
+        if (eventLog) {
+            return;
+        }
+        Long userId = account.getUserId();
+        long currentLimit = account.getCurrentLimit();
+        long reservedAmount = account.getReservedTotal();
+        long periodDay = account.getPeriodDay();
+        partition.persist(() -> transactionTemplate.executeWithoutResult(
+                status -> userLimitRepository.updateBalances(userId, currentLimit, reservedAmount, periodDay)), () -> { });
+    }
+
+    /**
+     * Записывает новый статус резерва. После успешной записи завершенный резерв
+     * выгружается из памяти, и дальше его состояние читается из БД.
+     */
+    private void persistStatus(LedgerPartition partition, LedgerAccount account,
+                               LedgerReservation reservation, ReservationStatus newStatus) {
+        String operationId = reservation.getOperationId();
+        appendEvent(partition, account, statusEvent(reservation.getStatus(), newStatus),
+                operationId, reservation.getAmount());
+        long writeSeq = reservation.changeStatus(newStatus);
+        // Пока статус не записан, резерв должен оставаться в памяти
+        account.track(reservation);
+        operationIndex.putIfAbsent(operationId, account.getUserId());
+        partition.persist(
+                () -> transactionTemplate.executeWithoutResult(
+                        status -> reservationRepository.updateStatusByOperationId(operationId, newStatus)),
+                () -> partition.execute(() -> {
+                    if (account.untrackIfSettled(operationId, writeSeq)) {
+                        operationIndex.remove(operationId, account.getUserId());
+                    }
+                }));
+    }
+
+    /**
+     * Дописывает событие в журнал в очереди записи партиции
+     */
+    private void appendEvent(LedgerPartition partition, LedgerAccount account,
+                             EventType type, String operationId, long amount) {
+        if (!eventLog) {
+            return;
+        }
+        LimitEvent event = new LimitEvent(account.getUserId(), account.nextEventSeq(), type, operationId, amount,
+                type == EventType.RESET ? account.getPeriodDay() : null);
+        partition.persist(() -> transactionTemplate.executeWithoutResult(
+                status -> eventRepository.save(event)), () -> { });
+    }
+
+    private static EventType statusEvent(ReservationStatus oldStatus, ReservationStatus newStatus) {
+        return switch (newStatus) {
+            case CONFIRMED -> EventType.CONFIRM;
+            case EXPIRED -> EventType.EXPIRE;
+            case CANCELLED -> oldStatus == ReservationStatus.CONFIRMED ? EventType.REFUND : EventType.CANCEL;
+            default -> throw new IllegalArgumentException("No event for status " + newStatus);
+        };
+    }
+
+    private static IllegalArgumentException duplicateOperation(String operationId) {
+        return new IllegalArgumentException("Reservation with operationId " + operationId + " already exists");
+    }
+
+    private static ReservationNotFoundException reservationNotFound(String operationId) {
+        return new ReservationNotFoundException("Reservation not found for operationId: " + operationId);
+    }
+}
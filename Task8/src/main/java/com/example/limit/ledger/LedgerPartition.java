@@ -0,0 +1,208 @@
+package com.example.limit.ledger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Партиция леджера: один поток принимает решения по своим счетам,
+ * второй поток по порядку применяет изменения к БД.
+ * Неудачная запись повторяется с нарастающей паузой, не пропуская вперед следующие.
+ * Если попытки кончились, память партиции расходится с БД: партиция перестает принимать решения,
+ * отбрасывает уже поставленные в очередь записи и загружает счета из БД заново.
+ */
+final class LedgerPartition {
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerPartition.class);
+
+    private final int index;
+    private final ExecutorService executor;
+    private final ExecutorService writer;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Map<Long, LedgerAccount> accounts = new HashMap<>();
+    /** Число счетов для чтения из других потоков (метрики) */
+    private volatile int accountCount;
+    /** Поколение памяти партиции, растет при каждой перезагрузке счетов */
+    private volatile long epoch;
+    /** Записи этого и более ранних поколений отбрасываются; читается и пишется только потоком записи */
+    private long droppedEpoch = -1;
+    private volatile boolean reloading;
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder droppedWrites = new LongAdder();
+
+    LedgerPartition(int index, int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        this.index = index;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.executor = Executors.newSingleThreadExecutor(r -> newThread(r, "limit-ledger-" + index));
+        this.writer = Executors.newSingleThreadExecutor(r -> newThread(r, "limit-ledger-writer-" + index));
+    }
+
+    LedgerAccount getAccount(Long userId) {
+        return accounts.get(userId);
+    }
+
+    void putAccount(LedgerAccount account) {
+        accounts.put(account.getUserId(), account);
+        accountCount = accounts.size();
+    }
+
+    int accountCount() {
+        return accountCount;
+    }
+
+    Collection<LedgerAccount> accounts() {
+        return accounts.values();
+    }
+
+    long failedWrites() {
+        return failedWrites.sum();
+    }
+
+    long droppedWrites() {
+        return droppedWrites.sum();
+    }
+
+    /**
+     * Выполняет задачу в потоке партиции и ждет результата.
+     * Пока партиция перезагружается после потерянной записи, бросает IllegalStateException.
+     */
+    <T> T call(Supplier<T> task) {
+        if (reloading) {
+            throw unavailable();
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                if (reloading) {
+                    throw unavailable();
+                }
+                return task.get();
+            }, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ставит задачу в поток партиции без ожидания. После остановки партиции задача отбрасывается.
+     */
+    void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Ledger partition {} is stopped, task skipped", index);
+        }
+    }
+
+    /**
+     * Ставит запись в очередь БД. Записи одной партиции применяются строго по порядку.
+     * onSuccess выполняется только после успешной записи.
+     */
+    void persist(Runnable write, Runnable onSuccess) {
+        long writeEpoch = epoch;
+        writer.execute(() -> {
+            if (writeEpoch <= droppedEpoch) {
+                droppedWrites.increment();
+                return;
+            }
+            if (apply(write)) {
+                onSuccess.run();
+                return;
+            }
+            droppedWrites.increment();
+            droppedEpoch = writeEpoch;
+            reload();
+        });
+    }
+
+    /**
+     * Выполняется в потоке записи: пауза между попытками держит очередь, поэтому порядок сохраняется
+     */
+    private boolean apply(Runnable write) {
+        long backoffMillis = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write.run();
+                return true;
+            } catch (Exception e) {
+                failedWrites.increment();
+                if (attempt >= maxAttempts) {
+                    logger.error("Ledger partition {} gave up persisting change after {} attempts", index, attempt, e);
+                    return false;
+                }
+                logger.warn("Ledger partition {} failed to persist change (attempt {}), retrying in {} ms",
+                        index, attempt, backoffMillis, e);
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        }
+    }
+
+    /**
+     * Закрывает партицию для решений и в ее потоке сбрасывает счета: следующее обращение загрузит их из БД.
+     * Записи, поставленные до сброса, относятся к старому поколению и будут отброшены.
+     */
+    private void reload() {
+        reloading = true;
+        try {
+            executor.execute(() -> {
+                accounts.clear();
+                accountCount = 0;
+                epoch++;
+                reloading = false;
+                logger.warn("Ledger partition {} reloads its accounts from the database", index);
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Ledger partition {} is stopped, reload skipped", index);
+        }
+    }
+
+    /**
+     * Дожидается, пока все поставленные в очередь записи будут применены.
+     */
+    void flush() {
+        CompletableFuture.runAsync(() -> { }, writer).join();
+    }
+
+    void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        writer.shutdown();
+        if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("Ledger partition {} did not flush pending writes in time", index);
+        }
+    }
+
+    private IllegalStateException unavailable() {
+        return new IllegalStateException("Ledger partition " + index + " is reloading after a failed write, retry later");
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
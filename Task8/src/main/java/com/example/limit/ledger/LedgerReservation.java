@@ -0,0 +1,110 @@
+package com.example.limit.ledger;
+
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.LimitReservation.OperationType;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.money.Money;
+
+import java.time.LocalDateTime;
+
+/**
+ * In-memory копия резерва. Изменяется только потоком партиции, которой принадлежит пользователь.
+ */
+final class LedgerReservation {
+
+    private final String operationId;
+    private final OperationType operationType;
+    private final Long userId;
+    private final long amount;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime expiresAt;
+    private ReservationStatus status;
+    private long writeSeq;
+
+    LedgerReservation(String operationId, OperationType operationType, Long userId, long amount,
+                      LocalDateTime createdAt, LocalDateTime expiresAt) {
+        this.operationId = operationId;
+        this.operationType = operationType;
+        this.userId = userId;
+        this.amount = amount;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.status = ReservationStatus.PENDING;
+    }
+
+    LedgerReservation(LimitReservation stored) {
+        this.operationId = stored.getOperationId();
+        this.operationType = stored.getOperationType();
+        this.userId = stored.getUserId();
+        this.amount = stored.getAmount();
+        this.createdAt = stored.getCreatedAt();
+        this.expiresAt = stored.getExpiresAt();
+        this.status = stored.getStatus();
+    }
+
+    String getOperationId() {
+        return operationId;
+    }
+
+    Long getUserId() {
+        return userId;
+    }
+
+    long getAmount() {
+        return amount;
+    }
+
+    LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    ReservationStatus getStatus() {
+        return status;
+    }
+
+    boolean isPending() {
+        return status == ReservationStatus.PENDING;
+    }
+
+    boolean isExpired(LocalDateTime now) {
+        return expiresAt != null && expiresAt.isBefore(now);
+    }
+
+    /**
+     * Меняет статус и возвращает порядковый номер изменения, по которому
+     * после записи в БД можно понять, не устарела ли in-memory копия.
+     */
+    long changeStatus(ReservationStatus newStatus) {
+        this.status = newStatus;
+        return ++writeSeq;
+    }
+
+    long getWriteSeq() {
+        return writeSeq;
+    }
+
+    LimitReservation toEntity() {
+        LimitReservation entity = new LimitReservation(userId, amount, operationId);
+        entity.setStatus(status);
+        entity.setOperationType(operationType);
+        entity.setExpiresAt(expiresAt);
+        return entity;
+    }
+
+    ReservationResponse toResponse() {
+        ReservationResponse response = new ReservationResponse();
+        response.setUserId(userId);
+        response.setAmount(Money.toDecimal(amount));
+        response.setStatus(status.name());
+        response.setOperationId(operationId);
+        response.setOperationType(operationType.name());
+        response.setCreatedAt(createdAt);
+        response.setExpiresAt(expiresAt);
+        return response;
+    }
+}
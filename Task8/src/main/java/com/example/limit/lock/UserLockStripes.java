@@ -0,0 +1,51 @@
+package com.example.limit.lock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Блокировки пользователей внутри процесса: фиксированный массив ReentrantLock, userId хешируется в полосу.
+ * <p>
+ * Изменения одного пользователя выполняются по очереди еще до открытия транзакции, поэтому ждущие
+ * потоки стоят на блокировке в памяти, а не держат соединение из пула, пока строку user_limits
+ * меняет другой поток. Пользователи из одной полосы тоже ждут друг друга, число полос - limit.lock.stripes.
+ * Блокировка действует в пределах одного узла: между узлами изменения защищают условные UPDATE
+ * и версия строки {@link com.example.limit.entity.UserLimit}.
+ */
+@Component
+public class UserLockStripes {
+
+    private final ReentrantLock[] locks;
+
+    public UserLockStripes(@Value("${limit.lock.stripes:1024}") int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("limit.lock.stripes must be a positive power of two");
+        }
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Выполняет действие под блокировкой полосы пользователя. Повторный вход из того же потока допустим.
+     */
+    public <T> T withLock(Long userId, Supplier<T> action) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ReentrantLock lockFor(Long userId) {
+        // Перемешиваем биты, чтобы подряд идущие userId не попадали в соседние полосы по кругу
+        long hash = userId * 0x9E3779B97F4A7C15L;
+        return locks[(int) (hash >>> 32) & (locks.length - 1)];
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.limit.metrics;
+
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.repository.LimitReservationRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Гейджи модуля лимитов. Число pending-резервов считается запросом по расписанию
+ * (limit.metrics.pending-refresh-ms), а не при каждом чтении гейджа, чтобы частый
+ * опрос метрик не нагружал БД.
+ */
+@Component
+public class LimitMetrics implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LimitMetrics.class);
+
+    private final LimitReservationRepository reservationRepository;
+    private final AtomicLong pendingReservations = new AtomicLong();
+
+    public LimitMetrics(LimitReservationRepository reservationRepository) {
+        this.reservationRepository = reservationRepository;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("limit.reservations.pending", pendingReservations, AtomicLong::get)
+                .description("PENDING rows in limit_reservations")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${limit.metrics.pending-refresh-ms:15000}")
+    public void refreshPendingReservations() {
+        try {
+            pendingReservations.set(reservationRepository.countByStatus(ReservationStatus.PENDING));
+        } catch (Exception e) {
+            logger.warn("Failed to refresh pending reservations gauge", e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.limit.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Денежные суммы модуля лимитов в минорных единицах (копейках): long со scale 2,
+ * как NUMERIC(19,2) в БД. Сложение и сравнение long не выделяют память, в отличие от BigDecimal.
+ * <p>
+ * BigDecimal остается только на границе: в DTO, в параметрах API сервиса и в колонках БД
+ * (см. {@link MoneyConverter}). Переполнение long - ошибка, а не заворачивание.
+ */
+public final class Money {
+
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    /**
+     * Сумма в копейках. Больше двух знаков после запятой не округляются, а отклоняются.
+     */
+    public static long fromDecimal(BigDecimal amount) {
+        try {
+            return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount " + amount.toPlainString()
+                    + " must have at most " + SCALE + " decimal places and fit into a long of minor units", e);
+        }
+    }
+
+    public static BigDecimal toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public static long add(long left, long right) {
+        try {
+            return Math.addExact(left, right);
+        } catch (ArithmeticException e) {
+            throw overflow(e);
+        }
+    }
+
+    public static long subtract(long left, long right) {
+        try {
+            return Math.subtractExact(left, right);
+        } catch (ArithmeticException e) {
+            throw overflow(e);
+        }
+    }
+
+    public static long negate(long amount) {
+        try {
+            return Math.negateExact(amount);
+        } catch (ArithmeticException e) {
+            throw overflow(e);
+        }
+    }
+
+    private static ArithmeticException overflow(ArithmeticException cause) {
+        ArithmeticException overflow = new ArithmeticException("Money amount overflows minor units");
+        overflow.initCause(cause);
+        return overflow;
+    }
+}
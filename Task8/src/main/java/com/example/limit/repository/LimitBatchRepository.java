@@ -0,0 +1,277 @@
+package com.example.limit.repository;
+
+import com.example.limit.entity.LimitReservation.OperationType;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.money.Money;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Пакетные операции над лимитами через JDBC batch: один round trip на пачку строк
+ * вместо отдельного statement на каждый элемент.
+ */
+@Repository
+public class LimitBatchRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public LimitBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    public Set<Long> findExistingUserIds(Collection<Long> userIds) {
+        return new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT user_id FROM user_limits WHERE user_id IN (:userIds)",
+                new MapSqlParameterSource("userIds", userIds),
+                Long.class));
+    }
+
+    public void insertDefaultLimits(Collection<Long> userIds, long defaultLimit) {
+        BigDecimal limit = Money.toDecimal(defaultLimit);
+        LocalDateTime created = LocalDateTime.now();
+        Timestamp now = Timestamp.valueOf(created);
+        long periodDay = created.toLocalDate().toEpochDay();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO user_limits (user_id, current_limit, default_limit, reserved_amount, period_day, " +
+                "event_seq, version, created_at, updated_at) VALUES (?, ?, ?, 0, ?, 0, 0, ?, ?)",
+                userIds,
+                userIds.size(),
+                (ps, userId) -> {
+                    ps.setLong(1, userId);
+                    ps.setBigDecimal(2, limit);
+                    ps.setBigDecimal(3, limit);
+                    ps.setLong(4, periodDay);
+                    ps.setTimestamp(5, now);
+                    ps.setTimestamp(6, now);
+                });
+    }
+
+    public Set<String> findExistingOperationIds(Collection<String> operationIds) {
+        return new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT operation_id FROM limit_reservations WHERE operation_id IN (:operationIds)",
+                new MapSqlParameterSource("operationIds", operationIds),
+                String.class));
+    }
+
+    /**
+     * Условный резерв для каждой строки в одном batch.
+     * Строки выполняются по порядку, поэтому резервы одного пользователя видят друг друга.
+     * Строка с period_day меньше minPeriod (баланс прошлого дня) не резервируется, как в
+     * {@link UserLimitRepository#tryReserve}.
+     *
+     * @return число измененных строк для каждого элемента: 1 - зарезервировано, 0 - не хватило лимита
+     */
+    public int[] tryReserveAll(List<ReservationRow> rows, long minPeriod) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(
+                "UPDATE user_limits SET reserved_amount = reserved_amount + ?, version = version + 1, updated_at = ? " +
+                "WHERE user_id = ? AND current_limit - reserved_amount >= ? AND period_day >= ?",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setBigDecimal(1, Money.toDecimal(row.amount()));
+                    ps.setTimestamp(2, now);
+                    ps.setLong(3, row.userId());
+                    ps.setBigDecimal(4, Money.toDecimal(row.amount()));
+                    ps.setLong(5, minPeriod);
+                });
+        return counts.length == 0 ? new int[0] : counts[0];
+    }
+
+    public void insertPendingReservations(List<ReservationRow> rows, LocalDateTime createdAt, LocalDateTime expiresAt) {
+        Timestamp created = Timestamp.valueOf(createdAt);
+        Timestamp expires = Timestamp.valueOf(expiresAt);
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO limit_reservations " +
+                "(user_id, amount, status, operation_type, operation_id, created_at, expires_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setLong(1, row.userId());
+                    ps.setBigDecimal(2, Money.toDecimal(row.amount()));
+                    ps.setString(3, ReservationStatus.PENDING.name());
+                    ps.setString(4, OperationType.RESERVE.name());
+                    ps.setString(5, row.operationId());
+                    ps.setTimestamp(6, created);
+                    ps.setTimestamp(7, expires);
+                });
+    }
+
+    /**
+     * Переводит резервы из PENDING в CONFIRMED в одном batch
+     *
+     * @return число измененных строк для каждого элемента: 1 - подтвержден, 0 - резерв уже в другом статусе
+     */
+    public int[] confirmPendingAll(List<ReservationRow> rows) {
+        int[][] counts = jdbcTemplate.batchUpdate(
+                "UPDATE limit_reservations SET status = ? WHERE operation_id = ? AND status = ?",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setString(1, ReservationStatus.CONFIRMED.name());
+                    ps.setString(2, row.operationId());
+                    ps.setString(3, ReservationStatus.PENDING.name());
+                });
+        return counts.length == 0 ? new int[0] : counts[0];
+    }
+
+    /**
+     * Списывает подтвержденные резервы: current_limit и reserved_amount уменьшаются на сумму резерва
+     *
+     * @return число измененных строк для каждого элемента: 0 - строки лимита нет
+     */
+    public int[] applyConfirmedAll(List<ReservationRow> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(
+                "UPDATE user_limits SET current_limit = current_limit - ?, reserved_amount = reserved_amount - ?, " +
+                "version = version + 1, updated_at = ? WHERE user_id = ?",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setBigDecimal(1, Money.toDecimal(row.amount()));
+                    ps.setBigDecimal(2, Money.toDecimal(row.amount()));
+                    ps.setTimestamp(3, now);
+                    ps.setLong(4, row.userId());
+                });
+        return counts.length == 0 ? new int[0] : counts[0];
+    }
+
+    public Set<Long> findReservationUserIds(Collection<String> operationIds) {
+        return new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT DISTINCT user_id FROM limit_reservations WHERE operation_id IN (:operationIds)",
+                new MapSqlParameterSource("operationIds", operationIds),
+                Long.class));
+    }
+
+    /**
+     * Резервы по operationId с блокировкой строк до конца транзакции
+     */
+    public List<ReservationStateRow> findReservationsForUpdate(Collection<String> operationIds) {
+        return namedJdbcTemplate.query(
+                "SELECT operation_id, user_id, amount, status FROM limit_reservations " +
+                "WHERE operation_id IN (:operationIds) ORDER BY id FOR UPDATE",
+                new MapSqlParameterSource("operationIds", operationIds),
+                (rs, rowNum) -> new ReservationStateRow(
+                        rs.getString("operation_id"),
+                        rs.getLong("user_id"),
+                        Money.fromDecimal(rs.getBigDecimal("amount")),
+                        ReservationStatus.valueOf(rs.getString("status"))));
+    }
+
+    /**
+     * Меняет статус всех резервов из набора одним UPDATE
+     */
+    public int updateStatuses(Collection<String> operationIds, ReservationStatus status) {
+        return namedJdbcTemplate.update(
+                "UPDATE limit_reservations SET status = :status WHERE operation_id IN (:operationIds)",
+                new MapSqlParameterSource("operationIds", operationIds).addValue("status", status.name()));
+    }
+
+    /**
+     * Прибавляет к балансам пользователей суммарные изменения, одна строка batch на пользователя
+     *
+     * @return число измененных строк для каждого элемента: 0 - строки лимита нет
+     */
+    public int[] applyLimitDeltas(List<LimitDeltaRow> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(
+                "UPDATE user_limits SET current_limit = current_limit + ?, reserved_amount = reserved_amount + ?, " +
+                "version = version + 1, updated_at = ? WHERE user_id = ?",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setBigDecimal(1, Money.toDecimal(row.currentLimitDelta()));
+                    ps.setBigDecimal(2, Money.toDecimal(row.reservedAmountDelta()));
+                    ps.setTimestamp(3, now);
+                    ps.setLong(4, row.userId());
+                });
+        return counts.length == 0 ? new int[0] : counts[0];
+    }
+
+    /**
+     * Записывает снимки счетов леджера в user_limits одним batch: балансы вместе с номером
+     * последнего учтенного события журнала
+     */
+    public void updateLimitSnapshots(List<LimitSnapshotRow> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+                "UPDATE user_limits SET current_limit = ?, reserved_amount = ?, period_day = ?, event_seq = ?, " +
+                "version = version + 1, updated_at = ? WHERE user_id = ?",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setBigDecimal(1, Money.toDecimal(row.currentLimit()));
+                    ps.setBigDecimal(2, Money.toDecimal(row.reservedAmount()));
+                    ps.setLong(3, row.periodDay());
+                    ps.setLong(4, row.eventSeq());
+                    ps.setTimestamp(5, now);
+                    ps.setLong(6, row.userId());
+                });
+    }
+
+    /**
+     * Заменяет снимки скользящих окон пользователей: старые строки удаляются,
+     * новые вставляются одним batch. Пользователи без строк в rows остаются без снимков.
+     */
+    public void replaceVelocitySnapshots(Collection<Long> userIds, List<VelocitySnapshotRow> rows) {
+        if (!userIds.isEmpty()) {
+            namedJdbcTemplate.update(
+                    "DELETE FROM velocity_snapshots WHERE user_id IN (:userIds)",
+                    new MapSqlParameterSource("userIds", userIds));
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO velocity_snapshots (user_id, window_name, buckets, updated_at) VALUES (?, ?, ?, ?)",
+                rows,
+                rows.size(),
+                (ps, row) -> {
+                    ps.setLong(1, row.userId());
+                    ps.setString(2, row.windowName());
+                    ps.setBytes(3, row.buckets());
+                    ps.setTimestamp(4, now);
+                });
+    }
+
+    /**
+     * Строка резерва для пакетной записи, сумма в копейках
+     */
+    public record ReservationRow(Long userId, long amount, String operationId) {
+    }
+
+    /**
+     * Резерв, прочитанный под блокировкой, сумма в копейках
+     */
+    public record ReservationStateRow(String operationId, Long userId, long amount, ReservationStatus status) {
+    }
+
+    /**
+     * Изменение балансов одного пользователя, суммы в копейках
+     */
+    public record LimitDeltaRow(Long userId, long currentLimitDelta, long reservedAmountDelta) {
+    }
+
+    /**
+     * Снимок счета леджера для пакетной записи, суммы в копейках
+     */
+    public record LimitSnapshotRow(Long userId, long currentLimit, long reservedAmount, long periodDay, long eventSeq) {
+    }
+
+    /**
+     * Снимок одного окна пользователя для пакетной записи
+     */
+    public record VelocitySnapshotRow(Long userId, String windowName, byte[] buckets) {
+    }
+}
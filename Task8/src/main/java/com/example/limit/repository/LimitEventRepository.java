@@ -0,0 +1,25 @@
+package com.example.limit.repository;
+
+import com.example.limit.entity.LimitEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LimitEventRepository extends JpaRepository<LimitEvent, Long> {
+    
+    /**
+     * Хвост журнала пользователя после снимка
+     */
+    List<LimitEvent> findByUserIdAndSeqGreaterThanOrderBySeq(Long userId, long seq);
+    
+    List<LimitEvent> findByUserIdOrderBySeq(Long userId);
+    
+    /**
+     * Пользователи, у которых в журнале есть события новее снимка в user_limits
+     */
+    @Query("SELECT DISTINCT e.userId FROM LimitEvent e, UserLimit ul WHERE ul.userId = e.userId AND e.seq > ul.eventSeq")
+    List<Long> findUserIdsBehindSnapshot();
+}
@@ -1,15 +1,19 @@
 package com.example.limit.repository;
 
+import com.example.limit.dto.PendingReservationExpiry;
 import com.example.limit.entity.LimitReservation;
 import com.example.limit.entity.LimitReservation.ReservationStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,20 +22,65 @@ public interface LimitReservationRepository extends JpaRepository<LimitReservati
     
     Optional<LimitReservation> findByOperationId(String operationId);
     
+    List<LimitReservation> findByOperationIdIn(Collection<String> operationIds);
+    
     List<LimitReservation> findByUserIdAndStatus(Long userId, ReservationStatus status);
     
-    @Query("SELECT COALESCE(SUM(lr.amount), 0) FROM LimitReservation lr WHERE lr.userId = :userId AND lr.status = :status")
-    BigDecimal sumReservedAmountByUserIdAndStatus(@Param("userId") Long userId, @Param("status") ReservationStatus status);
+    long countByStatus(ReservationStatus status);
+    
+    /**
+     * Переход статуса с проверкой текущего: 0 означает, что резерв уже в другом статусе
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE LimitReservation lr SET lr.status = :newStatus " +
+           "WHERE lr.operationId = :operationId AND lr.status = :expectedStatus")
+    int transitionStatus(@Param("operationId") String operationId,
+                         @Param("expectedStatus") ReservationStatus expectedStatus,
+                         @Param("newStatus") ReservationStatus newStatus);
     
     @Modifying
-    @Query("UPDATE LimitReservation lr SET lr.status = :newStatus WHERE lr.status = :oldStatus AND lr.expiresAt < :now")
-    int expireOldReservations(@Param("oldStatus") ReservationStatus oldStatus, 
-                              @Param("newStatus") ReservationStatus newStatus, 
-                              @Param("now") LocalDateTime now);
-
+    @Query("UPDATE LimitReservation lr SET lr.status = :status WHERE lr.operationId = :operationId")
+    int updateStatusByOperationId(@Param("operationId") String operationId, @Param("status") ReservationStatus status);
+    
+    /**
+     * Истекшие резервы с блокировкой строк, чтобы параллельное подтверждение
+     * не изменило их между чтением и корректировкой reserved_amount
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT lr FROM LimitReservation lr WHERE lr.status = :status AND lr.expiresAt < :now")
+    List<LimitReservation> findExpiredForUpdate(@Param("status") ReservationStatus status,
+                                                @Param("now") LocalDateTime now);
+    
+    /**
+     * Истекшие резервы из заданного набора operationId с блокировкой строк
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT lr FROM LimitReservation lr " +
+           "WHERE lr.operationId IN :operationIds AND lr.status = :status AND lr.expiresAt < :now")
+    List<LimitReservation> findExpiredForUpdateByOperationIds(@Param("operationIds") Collection<String> operationIds,
+                                                              @Param("status") ReservationStatus status,
+                                                              @Param("now") LocalDateTime now);
+    
+    /**
+     * Страница сроков истечения резервов в статусе status с id больше afterId.
+     * Для PENDING читается из частичного индекса idx_limit_reservations_pending.
+     */
+    @Query("SELECT new com.example.limit.dto.PendingReservationExpiry(lr.id, lr.operationId, lr.expiresAt) " +
+           "FROM LimitReservation lr WHERE lr.status = :status AND lr.id > :afterId AND lr.expiresAt IS NOT NULL " +
+           "ORDER BY lr.id")
+    List<PendingReservationExpiry> findExpiriesAfter(@Param("status") ReservationStatus status,
+                                                     @Param("afterId") Long afterId,
+                                                     Pageable pageable);
+    
     @Modifying
-    @Query("UPDATE LimitReservation lr SET lr.status = :newStatus WHERE lr.status = :oldStatus")
-    int updateStatusForAllByCurrentStatus(@Param("oldStatus") ReservationStatus oldStatus,
-                                          @Param("newStatus") ReservationStatus newStatus);
+    @Query("UPDATE LimitReservation lr SET lr.status = :status WHERE lr.id IN :ids")
+    int updateStatusByIds(@Param("ids") Collection<Long> ids, @Param("status") ReservationStatus status);
+    
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE LimitReservation lr SET lr.status = :newStatus " +
+           "WHERE lr.userId IN :userIds AND lr.status = :oldStatus AND lr.createdAt <= :createdBefore")
+    int updateStatusForUsersCreatedBefore(@Param("userIds") Collection<Long> userIds,
+                                          @Param("oldStatus") ReservationStatus oldStatus,
+                                          @Param("newStatus") ReservationStatus newStatus,
+                                          @Param("createdBefore") LocalDateTime createdBefore);
 }
-
@@ -0,0 +1,22 @@
+package com.example.limit.repository;
+
+import com.example.limit.entity.LimitResetCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface LimitResetCheckpointRepository extends JpaRepository<LimitResetCheckpoint, Long> {
+    
+    List<LimitResetCheckpoint> findByResetDateOrderByWorkerIndex(LocalDate resetDate);
+    
+    @Modifying
+    @Query("UPDATE LimitResetCheckpoint c SET c.lastId = :lastId, c.completed = :completed, " +
+           "c.updatedAt = CURRENT_TIMESTAMP WHERE c.id = :id")
+    int advance(@Param("id") Long id, @Param("lastId") Long lastId, @Param("completed") boolean completed);
+}
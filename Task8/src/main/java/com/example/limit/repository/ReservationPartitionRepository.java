@@ -0,0 +1,160 @@
+package com.example.limit.repository;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.ResultSetMetaData;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Дневные партиции limit_reservations в PostgreSQL, см. миграцию V14. Партиция дня хранится
+ * в таблице limit_reservations_pYYYYMMDD. На других БД таблица не секционирована,
+ * и {@link #isPartitioned()} возвращает false.
+ */
+@Repository
+public class ReservationPartitionRepository {
+
+    private static final String TABLE = "limit_reservations";
+    private static final String PARTITION_PREFIX = TABLE + "_p";
+    private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean partitioned;
+
+    public ReservationPartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public boolean isPartitioned() {
+        Boolean result = partitioned;
+        if (result == null) {
+            String database = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            result = "PostgreSQL".equals(database) && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table pt JOIN pg_class c ON c.oid = pt.partrelid " +
+                    "WHERE c.relname = ?)", Boolean.class, TABLE));
+            partitioned = result;
+        }
+        return result;
+    }
+
+    /**
+     * Дни, за которые есть присоединенные партиции, по возрастанию. Партиция по умолчанию не входит.
+     */
+    public List<LocalDate> findPartitionDays() {
+        return jdbcTemplate.queryForList(
+                        "SELECT c.relname FROM pg_inherits i " +
+                        "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                        "WHERE p.relname = ? AND c.relname LIKE ? ORDER BY c.relname",
+                        String.class, TABLE, PARTITION_PREFIX + "%").stream()
+                .map(name -> LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_DAY))
+                .toList();
+    }
+
+    /**
+     * Дни дневных партиций, которые отсоединены, но не удалены: архивирование прервалось
+     * между DETACH и DROP. Через pg_inherits их уже не видно.
+     */
+    public List<LocalDate> findDetachedPartitionDays() {
+        return jdbcTemplate.queryForList(
+                        "SELECT c.relname FROM pg_class c " +
+                        "WHERE c.relkind = 'r' AND c.relname ~ ? AND pg_table_is_visible(c.oid) " +
+                        "AND NOT EXISTS (SELECT 1 FROM pg_inherits i WHERE i.inhrelid = c.oid) " +
+                        "ORDER BY c.relname",
+                        String.class, "^" + PARTITION_PREFIX + "[0-9]{8}$").stream()
+                .map(name -> LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_DAY))
+                .toList();
+    }
+
+    public void createPartition(LocalDate day) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(day) + " PARTITION OF " + TABLE +
+                " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+    }
+
+    public long countPending(LocalDate day) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + partitionName(day) + " WHERE status = 'PENDING'", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Отсоединяет партицию: ее строки перестают быть видны через limit_reservations
+     */
+    public void detachPartition(LocalDate day) {
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partitionName(day));
+    }
+
+    public void attachPartition(LocalDate day) {
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + partitionName(day) +
+                " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+    }
+
+    /**
+     * Пишет строки партиции в CSV (RFC 4180) с заголовком, потоково и по возрастанию id
+     */
+    public long exportCsv(LocalDate day, Writer out) {
+        long[] rows = {0};
+        jdbcTemplate.query(
+                "SELECT id, user_id, amount, status, operation_type, operation_id, created_at, expires_at FROM " +
+                partitionName(day) + " ORDER BY id",
+                resultSet -> {
+                    try {
+                        ResultSetMetaData metaData = resultSet.getMetaData();
+                        if (rows[0] == 0) {
+                            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                                out.write(i == 1 ? "" : ",");
+                                writeCsvField(out, metaData.getColumnLabel(i));
+                            }
+                            out.write("\r\n");
+                        }
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            Object value = resultSet.getObject(i);
+                            out.write(i == 1 ? "" : ",");
+                            writeCsvField(out, value == null ? "" : value.toString());
+                        }
+                        out.write("\r\n");
+                        rows[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        return rows[0];
+    }
+
+    /**
+     * Освобождает operationId строк отсоединенной партиции в limit_reservation_keys и удаляет партицию.
+     * Оба шага в одной транзакции: ключи не освобождаются без удаления строк, и наоборот.
+     */
+    @Transactional
+    public void dropDetachedPartition(LocalDate day) {
+        String partition = partitionName(day);
+        jdbcTemplate.update("DELETE FROM limit_reservation_keys k USING " + partition + " r " +
+                "WHERE k.operation_id = r.operation_id");
+        jdbcTemplate.execute("DROP TABLE " + partition);
+    }
+
+    /**
+     * Поле с запятой, кавычкой или переводом строки берется в кавычки, кавычки внутри удваиваются
+     */
+    static void writeCsvField(Writer out, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    public static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(PARTITION_DAY);
+    }
+}
@@ -1,13 +1,19 @@
 package com.example.limit.repository;
 
+import com.example.limit.dto.ReservedAmountMismatch;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
 import com.example.limit.entity.UserLimit;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -16,12 +22,119 @@ public interface UserLimitRepository extends JpaRepository<UserLimit, Long> {
     Optional<UserLimit> findByUserId(Long userId);
     
     @Modifying
-    @Query("UPDATE UserLimit ul SET ul.currentLimit = :defaultLimit, ul.updatedAt = CURRENT_TIMESTAMP")
-    int resetAllLimitsToDefault(@Param("defaultLimit") BigDecimal defaultLimit);
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = :currentLimit, ul.reservedAmount = :reservedAmount, " +
+           "ul.periodDay = :periodDay, ul.version = ul.version + 1, ul.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE ul.userId = :userId")
+    int updateBalances(@Param("userId") Long userId,
+                       @Param("currentLimit") long currentLimit,
+                       @Param("reservedAmount") long reservedAmount,
+                       @Param("periodDay") long periodDay);
+    
+    @Modifying
+    @Query("UPDATE UserLimit ul SET ul.reservedAmount = ul.reservedAmount + :delta, ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP WHERE ul.userId = :userId")
+    int addReservedAmount(@Param("userId") Long userId, @Param("delta") long delta);
+    
+    @Modifying
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = ul.currentLimit + :delta, ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP WHERE ul.userId = :userId")
+    int addCurrentLimit(@Param("userId") Long userId, @Param("delta") long delta);
+    
+    /**
+     * Атомарный резерв: 1 - зарезервировано, 0 - нет строки, строка из прошлого периода
+     * или не хватает доступного лимита
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE UserLimit ul SET ul.reservedAmount = ul.reservedAmount + :amount, ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP WHERE ul.userId = :userId AND ul.currentLimit - ul.reservedAmount >= :amount AND ul.periodDay >= :minPeriod")
+    int tryReserve(@Param("userId") Long userId, @Param("amount") long amount, @Param("minPeriod") long minPeriod);
+    
+    /**
+     * Атомарное списание: 1 - списано, 0 - нет строки, строка из прошлого периода
+     * или не хватает доступного лимита
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = ul.currentLimit - :amount, ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP WHERE ul.userId = :userId AND ul.currentLimit - ul.reservedAmount >= :amount AND ul.periodDay >= :minPeriod")
+    int tryDeduct(@Param("userId") Long userId, @Param("amount") long amount, @Param("minPeriod") long minPeriod);
+    
+    /**
+     * Начало нового периода для строки из прошлого: 1 - строка сброшена, 0 - период уже актуален
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = :defaultLimit, ul.periodDay = :periodDay, " +
+           "ul.version = ul.version + 1, ul.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE ul.userId = :userId AND ul.periodDay < :periodDay")
+    int startPeriod(@Param("userId") Long userId,
+                    @Param("periodDay") long periodDay,
+                    @Param("defaultLimit") long defaultLimit);
+    
+    @Query("SELECT ul.userId FROM UserLimit ul WHERE ul.userId IN :userIds AND ul.periodDay < :periodDay")
+    List<Long> findUserIdsWithPeriodBefore(@Param("userIds") Collection<Long> userIds,
+                                           @Param("periodDay") long periodDay);
+    
+    /**
+     * Перенос подтвержденного резерва из reserved_amount в списание current_limit
+     */
+    @Modifying
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = ul.currentLimit - :amount, " +
+           "ul.reservedAmount = ul.reservedAmount - :amount, ul.version = ul.version + 1, ul.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE ul.userId = :userId")
+    int applyConfirmed(@Param("userId") Long userId, @Param("amount") long amount);
+    
+    @Query("SELECT MIN(ul.id) FROM UserLimit ul")
+    Long findMinId();
+    
+    @Query("SELECT MAX(ul.id) FROM UserLimit ul")
+    Long findMaxId();
+    
+    /**
+     * Следующая пачка строк диапазона (afterId, rangeEnd] по возрастанию id с блокировкой.
+     * Блокировка дожидается операций, уже изменивших эти строки, поэтому сброс видит их резервы.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT ul FROM UserLimit ul WHERE ul.id > :afterId AND ul.id <= :rangeEnd ORDER BY ul.id")
+    List<UserLimit> findChunkForUpdate(@Param("afterId") Long afterId,
+                                       @Param("rangeEnd") Long rangeEnd,
+                                       Pageable pageable);
+    
+    /**
+     * Сбрасывает current_limit и пересчитывает reserved_amount по оставшимся pending-резервам.
+     * Строки, уже сброшенные за этот период, не трогаются: повторный проход того же диапазона
+     * (другой узел, возобновление) не отменяет списания, сделанные после сброса.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE UserLimit ul SET ul.currentLimit = :defaultLimit, ul.periodDay = :periodDay, " +
+           "ul.reservedAmount = (SELECT COALESCE(SUM(lr.amount), 0) FROM LimitReservation lr " +
+           "WHERE lr.userId = ul.userId AND lr.status = :status), " +
+           "ul.version = ul.version + 1, ul.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE ul.userId IN :userIds AND ul.periodDay < :periodDay")
+    int resetLimits(@Param("userIds") Collection<Long> userIds,
+                    @Param("defaultLimit") long defaultLimit,
+                    @Param("periodDay") long periodDay,
+                    @Param("status") ReservationStatus status);
+    
+    /**
+     * Пользователи, у которых reserved_amount расходится с суммой pending-резервов.
+     * Агрегат считается по колонке, поэтому суммы приводятся к BigDecimal без MoneyConverter.
+     */
+    @Query("SELECT new com.example.limit.dto.ReservedAmountMismatch(ul.userId, CAST(ul.reservedAmount AS BigDecimal), " +
+           "CAST(COALESCE(SUM(lr.amount), 0) AS BigDecimal)) " +
+           "FROM UserLimit ul LEFT JOIN LimitReservation lr ON lr.userId = ul.userId AND lr.status = :status " +
+           "GROUP BY ul.userId, ul.reservedAmount " +
+           "HAVING ul.reservedAmount <> COALESCE(SUM(lr.amount), 0)")
+    List<ReservedAmountMismatch> findReservedAmountMismatches(@Param("status") ReservationStatus status);
+    
+    @Modifying
+    @Query("UPDATE UserLimit ul SET ul.reservedAmount = (SELECT COALESCE(SUM(lr.amount), 0) FROM LimitReservation lr " +
+           "WHERE lr.userId = ul.userId AND lr.status = :status), ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP WHERE ul.userId = :userId")
+    int recalculateReservedAmount(@Param("userId") Long userId, @Param("status") ReservationStatus status);
 
     @Modifying
-    @Query("UPDATE UserLimit ul SET ul.defaultLimit = :newDefaultLimit, ul.updatedAt = CURRENT_TIMESTAMP")
-    int updateDefaultLimitForAll(@Param("newDefaultLimit") BigDecimal newDefaultLimit);
+    @Query("UPDATE UserLimit ul SET ul.defaultLimit = :newDefaultLimit, ul.version = ul.version + 1, " +
+           "ul.updatedAt = CURRENT_TIMESTAMP")
+    int updateDefaultLimitForAll(@Param("newDefaultLimit") long newDefaultLimit);
 }
 
 
@@ -0,0 +1,17 @@
+package com.example.limit.repository;
+
+import com.example.limit.entity.VelocitySnapshot;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface VelocitySnapshotRepository extends JpaRepository<VelocitySnapshot, Long> {
+    
+    @Query("SELECT s FROM VelocitySnapshot s WHERE s.id > :afterId ORDER BY s.id")
+    List<VelocitySnapshot> findPageAfter(@Param("afterId") Long afterId, Pageable pageable);
+}
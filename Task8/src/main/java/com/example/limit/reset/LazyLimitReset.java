@@ -0,0 +1,103 @@
+package com.example.limit.reset;
+
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ленивый сброс лимитов (limit.reset.strategy=lazy).
+ * <p>
+ * В user_limits.period_day хранится день (epoch day), к которому относится текущий лимит.
+ * Строка сбрасывается при первом обращении в новом дне, поэтому стоимость сброса пропорциональна
+ * числу активных пользователей, а полуночный проход по всей таблице не нужен.
+ * При стратегии cron проверки периода отключены, а сброс выполняет {@link LimitResetJob}.
+ */
+@Component
+public class LazyLimitReset {
+
+    private final UserLimitRepository userLimitRepository;
+    private final LimitReservationRepository reservationRepository;
+    private final long defaultLimitValue;
+    private final boolean enabled;
+
+    public LazyLimitReset(
+            UserLimitRepository userLimitRepository,
+            LimitReservationRepository reservationRepository,
+            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue,
+            @Value("${limit.reset.strategy:cron}") String strategy) {
+        this.userLimitRepository = userLimitRepository;
+        this.reservationRepository = reservationRepository;
+        this.defaultLimitValue = Money.fromDecimal(defaultLimitValue);
+        this.enabled = switch (strategy) {
+            case "cron" -> false;
+            case "lazy" -> true;
+            default -> throw new IllegalArgumentException("Unknown limit.reset.strategy: " + strategy);
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long currentPeriod() {
+        return LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * Минимальный period_day, при котором баланс строки актуален. При стратегии cron - любой.
+     */
+    public long minimumPeriod() {
+        return enabled ? currentPeriod() : Long.MIN_VALUE;
+    }
+
+    public boolean isStale(UserLimit userLimit) {
+        return enabled && userLimit.getPeriodDay() < currentPeriod();
+    }
+
+    /**
+     * Начинает у пользователя новый период, если строка относится к прошлому: сбрасывает лимит,
+     * отменяет pending-резервы прошлых дней и пересчитывает reserved_amount.
+     * Выполняется в транзакции вызывающего.
+     *
+     * @return true, если строка была сброшена
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean rollOver(Long userId) {
+        if (!enabled) {
+            return false;
+        }
+        LocalDate today = LocalDate.now();
+        // Условный UPDATE блокирует строку, поэтому сбросить ее сможет только одна транзакция
+        if (userLimitRepository.startPeriod(userId, today.toEpochDay(), defaultLimitValue) == 0) {
+            return false;
+        }
+        reservationRepository.updateStatusForUsersCreatedBefore(List.of(userId),
+                ReservationStatus.PENDING, ReservationStatus.CANCELLED, today.atStartOfDay());
+        userLimitRepository.recalculateReservedAmount(userId, ReservationStatus.PENDING);
+        return true;
+    }
+
+    /**
+     * Сбрасывает устаревшие строки из набора пользователей. Один запрос, если сбрасывать нечего.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void rollOverStale(Collection<Long> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        for (Long userId : userLimitRepository.findUserIdsWithPeriodBefore(userIds, currentPeriod())) {
+            rollOver(userId);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.limit.reset;
+
+import com.example.limit.cache.LimitReadCache;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.entity.LimitResetCheckpoint;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.LimitResetCheckpointRepository;
+import com.example.limit.repository.UserLimitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ежедневный сброс лимитов пачками вместо двух UPDATE на всю таблицу.
+ * <p>
+ * Диапазон id в user_limits делится между limit.reset.workers воркерами. Каждый воркер идет
+ * по своему диапазону keyset-пагинацией пачками по limit.reset.chunk-size, каждая пачка - отдельная
+ * транзакция, и после нее сохраняет чекпоинт. Между пачками воркер делает паузу limit.reset.pause-ms,
+ * чтобы не вытеснять живой трафик. После падения сброс за тот же день продолжается с чекпоинтов,
+ * а завершенный сброс повторно не выполняется.
+ * <p>
+ * Отменяются только pending-резервы, созданные до запуска сброса, поэтому резервы,
+ * сделанные пока сброс идет по таблице, сохраняются вместе со своей долей reserved_amount.
+ */
+@Component
+public class LimitResetJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(LimitResetJob.class);
+
+    private final UserLimitRepository userLimitRepository;
+    private final LimitReservationRepository reservationRepository;
+    private final LimitResetCheckpointRepository checkpointRepository;
+    private final LimitReadCache readCache;
+    private final TransactionTemplate transactionTemplate;
+    private final long defaultLimitValue;
+    private final int chunkSize;
+    private final int workers;
+    private final long pauseMillis;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    public LimitResetJob(
+            UserLimitRepository userLimitRepository,
+            LimitReservationRepository reservationRepository,
+            LimitResetCheckpointRepository checkpointRepository,
+            LimitReadCache readCache,
+            PlatformTransactionManager transactionManager,
+            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue,
+            @Value("${limit.reset.chunk-size:1000}") int chunkSize,
+            @Value("${limit.reset.workers:4}") int workers,
+            @Value("${limit.reset.pause-ms:50}") long pauseMillis) {
+        if (chunkSize <= 0 || workers <= 0 || pauseMillis < 0) {
+            throw new IllegalArgumentException("Invalid limit.reset settings");
+        }
+        this.userLimitRepository = userLimitRepository;
+        this.reservationRepository = reservationRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.readCache = readCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.defaultLimitValue = Money.fromDecimal(defaultLimitValue);
+        this.chunkSize = chunkSize;
+        this.workers = workers;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Сбрасывает лимиты за сегодняшний день и ждет завершения всех воркеров
+     */
+    public void run() {
+        run(LocalDate.now());
+    }
+
+    /**
+     * Продолжает сегодняшний сброс, если приложение упало посреди него
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        LocalDate today = LocalDate.now();
+        if (isIncomplete(today)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    run(today);
+                } catch (Exception e) {
+                    logger.error("Failed to resume limit reset for {}", today, e);
+                }
+            }, "limit-reset-resume");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Сброс за день начат (есть чекпоинты), но не все диапазоны пройдены до конца
+     */
+    public boolean isIncomplete(LocalDate resetDate) {
+        return checkpointRepository.findByResetDateOrderByWorkerIndex(resetDate).stream()
+                .anyMatch(checkpoint -> !checkpoint.isCompleted());
+    }
+
+    void run(LocalDate resetDate) {
+        runLock.lock();
+        try {
+            runLocked(resetDate);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private void runLocked(LocalDate resetDate) {
+        List<LimitResetCheckpoint> remaining = new ArrayList<>();
+        for (LimitResetCheckpoint checkpoint : checkpointsFor(resetDate)) {
+            if (!checkpoint.isCompleted()) {
+                remaining.add(checkpoint);
+            }
+        }
+        if (remaining.isEmpty()) {
+            logger.info("Limit reset for {} is already completed", resetDate);
+            return;
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, remaining.size()), r -> {
+            Thread thread = new Thread(r, "limit-reset-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Integer>> results = new ArrayList<>(remaining.size());
+            for (LimitResetCheckpoint checkpoint : remaining) {
+                results.add(executor.submit(() -> resetRange(checkpoint)));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            logger.info("Limit reset for {} completed, {} limits reset", resetDate, total);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Limit reset failed, it will resume from the last checkpoint", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Limit reset interrupted, it will resume from the last checkpoint", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Чекпоинты сброса за день. При первом запуске делит текущий диапазон id между воркерами:
+     * строки, созданные позже, уже получают лимит по умолчанию.
+     */
+    private List<LimitResetCheckpoint> checkpointsFor(LocalDate resetDate) {
+        List<LimitResetCheckpoint> checkpoints = checkpointRepository.findByResetDateOrderByWorkerIndex(resetDate);
+        if (!checkpoints.isEmpty()) {
+            return checkpoints;
+        }
+
+        Long minId = userLimitRepository.findMinId();
+        Long maxId = userLimitRepository.findMaxId();
+        if (minId == null || maxId == null) {
+            return checkpoints;
+        }
+
+        LocalDateTime startedAt = LocalDateTime.now();
+        long rangeSize = Math.max(1, (maxId - minId + workers) / workers);
+        List<LimitResetCheckpoint> created = new ArrayList<>(workers);
+        for (int worker = 0; worker < workers; worker++) {
+            long lastId = minId - 1 + worker * rangeSize;
+            if (lastId >= maxId) {
+                break;
+            }
+            long rangeEnd = worker == workers - 1 ? maxId : Math.min(lastId + rangeSize, maxId);
+            created.add(new LimitResetCheckpoint(resetDate, worker, startedAt, lastId, rangeEnd));
+        }
+        try {
+            return transactionTemplate.execute(status -> checkpointRepository.saveAll(created));
+        } catch (DataIntegrityViolationException e) {
+            // Сброс за этот день уже начал другой узел
+            return checkpointRepository.findByResetDateOrderByWorkerIndex(resetDate);
+        }
+    }
+
+    /**
+     * Проходит диапазон воркера от чекпоинта до конца, возвращает число сброшенных строк
+     */
+    private int resetRange(LimitResetCheckpoint checkpoint) throws InterruptedException {
+        long lastId = checkpoint.getLastId();
+        int reset = 0;
+        while (true) {
+            long afterId = lastId;
+            Chunk chunk = transactionTemplate.execute(status -> resetChunk(checkpoint, afterId));
+            reset += chunk.size();
+            if (chunk.last()) {
+                return reset;
+            }
+            lastId = chunk.lastId();
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+    }
+
+    private Chunk resetChunk(LimitResetCheckpoint checkpoint, long afterId) {
+        List<UserLimit> rows = userLimitRepository.findChunkForUpdate(
+                afterId, checkpoint.getRangeEnd(), PageRequest.of(0, chunkSize));
+        if (rows.isEmpty()) {
+            checkpointRepository.advance(checkpoint.getId(), afterId, true);
+            return new Chunk(afterId, 0, true);
+        }
+
+        // Строки уже заблокированы, поэтому period_day точен: строки, сброшенные за этот день другим
+        // узлом или прошлым проходом, пропускаются вместе с их резервами
+        long periodDay = checkpoint.getResetDate().toEpochDay();
+        List<Long> userIds = new ArrayList<>(rows.size());
+        for (UserLimit row : rows) {
+            if (row.getPeriodDay() < periodDay) {
+                userIds.add(row.getUserId());
+            }
+        }
+        long lastId = rows.get(rows.size() - 1).getId();
+
+        if (!userIds.isEmpty()) {
+            reservationRepository.updateStatusForUsersCreatedBefore(
+                    userIds, ReservationStatus.PENDING, ReservationStatus.CANCELLED, checkpoint.getStartedAt());
+            userLimitRepository.resetLimits(userIds, defaultLimitValue, periodDay, ReservationStatus.PENDING);
+            // Сброс идет долго, поэтому пачка не ждет общей очистки кэша в конце: записи ее
+            // пользователей сбрасываются после коммита пачки
+            for (Long userId : userIds) {
+                readCache.invalidate(userId);
+            }
+        }
+
+        boolean last = rows.size() < chunkSize || lastId >= checkpoint.getRangeEnd();
+        checkpointRepository.advance(checkpoint.getId(), lastId, last);
+        return new Chunk(lastId, userIds.size(), last);
+    }
+
+    private record Chunk(long lastId, int size, boolean last) {
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.limit.retention;
+
+import com.example.limit.repository.ReservationPartitionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Обслуживание дневных партиций limit_reservations.
+ * <p>
+ * Создает партиции на limit.retention.partitions-ahead дней вперед. При limit.retention.enabled=true
+ * партиции старше limit.retention.days дней отсоединяются, выгружаются в gzip CSV в
+ * limit.retention.archive-dir и удаляются. Партиция, в которой остались PENDING-резервы, не трогается
+ * до их истечения. Партиции, оставшиеся отсоединенными после прерванного архивирования, дорабатываются
+ * при каждом запуске. Если таблица не секционирована (H2, миграция V14 не применялась), ничего не делает.
+ */
+@Component
+public class ReservationRetentionJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationRetentionJob.class);
+
+    private final ReservationPartitionRepository partitionRepository;
+    private final boolean enabled;
+    private final int retentionDays;
+    private final Path archiveDir;
+    private final int partitionsAhead;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    public ReservationRetentionJob(
+            ReservationPartitionRepository partitionRepository,
+            @Value("${limit.retention.enabled:false}") boolean enabled,
+            @Value("${limit.retention.days:30}") int retentionDays,
+            @Value("${limit.retention.archive-dir:archive/limit-reservations}") Path archiveDir,
+            @Value("${limit.retention.partitions-ahead:7}") int partitionsAhead) {
+        if (retentionDays <= 0 || partitionsAhead < 0) {
+            throw new IllegalArgumentException("Invalid limit.retention settings");
+        }
+        this.partitionRepository = partitionRepository;
+        this.enabled = enabled;
+        this.retentionDays = retentionDays;
+        this.archiveDir = archiveDir;
+        this.partitionsAhead = partitionsAhead;
+    }
+
+    public void run() {
+        run(LocalDate.now());
+    }
+
+    /**
+     * Партиции на ближайшие дни создаются и на старте, чтобы вставки не уходили в партицию по умолчанию
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createUpcomingPartitions() {
+        try {
+            if (partitionRepository.isPartitioned()) {
+                createPartitions(LocalDate.now());
+            }
+        } catch (Exception e) {
+            logger.error("Failed to create upcoming limit_reservations partitions", e);
+        }
+    }
+
+    void run(LocalDate today) {
+        runLock.lock();
+        try {
+            runLocked(today);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private void runLocked(LocalDate today) {
+        if (!partitionRepository.isPartitioned()) {
+            logger.debug("limit_reservations is not partitioned, skipping retention");
+            return;
+        }
+        createPartitions(today);
+        if (!enabled) {
+            return;
+        }
+
+        // Архивирование, прерванное после DETACH: такие партиции не видны через findPartitionDays
+        for (LocalDate day : partitionRepository.findDetachedPartitionDays()) {
+            archive(day, true);
+        }
+
+        LocalDate oldestKept = today.minusDays(retentionDays);
+        for (LocalDate day : partitionRepository.findPartitionDays()) {
+            if (!day.isBefore(oldestKept)) {
+                break;
+            }
+            long pending = partitionRepository.countPending(day);
+            if (pending > 0) {
+                logger.warn("Partition {} still has {} pending reservations, keeping it",
+                        ReservationPartitionRepository.partitionName(day), pending);
+                continue;
+            }
+            archive(day, false);
+        }
+    }
+
+    private void createPartitions(LocalDate today) {
+        for (int i = 0; i <= partitionsAhead; i++) {
+            partitionRepository.createPartition(today.plusDays(i));
+        }
+    }
+
+    /**
+     * Отсоединяет партицию, выгружает ее и удаляет. Если выгрузка или удаление не удались, партиция
+     * присоединяется обратно; не удалось и это - она останется отсоединенной до следующего запуска.
+     */
+    private void archive(LocalDate day, boolean detached) {
+        String partition = ReservationPartitionRepository.partitionName(day);
+        if (!detached) {
+            partitionRepository.detachPartition(day);
+        }
+        long rows;
+        try {
+            rows = export(day, archiveDir.resolve(partition + ".csv.gz"));
+            partitionRepository.dropDetachedPartition(day);
+        } catch (RuntimeException e) {
+            logger.error("Failed to archive partition {}, attaching it back", partition, e);
+            attachBack(day);
+            return;
+        }
+        logger.info("Archived and dropped partition {} ({} reservations)", partition, rows);
+    }
+
+    private void attachBack(LocalDate day) {
+        try {
+            partitionRepository.attachPartition(day);
+        } catch (RuntimeException e) {
+            logger.error("Failed to attach partition {} back, it will be archived on the next run",
+                    ReservationPartitionRepository.partitionName(day), e);
+        }
+    }
+
+    private long export(LocalDate day, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            long rows;
+            try (Writer out = new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8)) {
+                rows = partitionRepository.exportCsv(day, out);
+            }
+            // Файл появляется под своим именем только целиком
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,38 +1,82 @@
 package com.example.limit.scheduler;
 
-import com.example.limit.service.LimitService;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.reset.LimitResetJob;
+import com.example.limit.retention.ReservationRetentionJob;
+import com.example.limit.service.LimitMaintenance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
+
 @Component
 public class LimitScheduler {
     
     private static final Logger logger = LoggerFactory.getLogger(LimitScheduler.class);
     
-    private final LimitService limitService;
+    private final LimitMaintenance limitService;
+    private final LazyLimitReset lazyReset;
+    private final ReservationRetentionJob retentionJob;
+    private final LimitResetJob resetJob;
+    /** День, сброс за который на этом узле упал и еще не повторен успешно */
+    private volatile LocalDate failedResetDate;
     
-    public LimitScheduler(LimitService limitService) {
+    public LimitScheduler(LimitMaintenance limitService, LazyLimitReset lazyReset,
+                          ReservationRetentionJob retentionJob, LimitResetJob resetJob) {
         this.limitService = limitService;
+        this.lazyReset = lazyReset;
+        this.retentionJob = retentionJob;
+        this.resetJob = resetJob;
     }
     
     /**
-     * Сброс лимитов каждый день в 00:00
+     * Сброс лимитов каждый день в 00:00. При limit.reset.strategy=lazy строки сбрасываются
+     * при первом обращении в новом дне, и полуночный сброс не нужен.
      */
     @Scheduled(cron = "0 0 0 * * ?")
     public void resetLimitsDaily() {
+        if (lazyReset.isEnabled()) {
+            logger.debug("Lazy limit reset is enabled, skipping midnight reset");
+            return;
+        }
         logger.info("Starting daily limit reset at midnight");
+        resetLimits(LocalDate.now());
+    }
+    
+    /**
+     * Повтор сегодняшнего сброса, если он упал на этом узле или остался с незавершенными чекпоинтами
+     * (например, узел, который его выполнял, остановился). Продолжает с чекпоинтов, уже сброшенные
+     * строки повторно не сбрасываются.
+     */
+    @Scheduled(cron = "${limit.reset.retry-cron:0 15 * * * ?}")
+    public void retryIncompleteReset() {
+        if (lazyReset.isEnabled()) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        if (!today.equals(failedResetDate) && !resetJob.isIncomplete(today)) {
+            return;
+        }
+        logger.warn("Daily limit reset for {} is incomplete, retrying", today);
+        resetLimits(today);
+    }
+    
+    private void resetLimits(LocalDate today) {
         try {
             limitService.resetAllLimits();
+            failedResetDate = null;
             logger.info("Daily limit reset completed successfully");
         } catch (Exception e) {
-            logger.error("Error during daily limit reset", e);
+            failedResetDate = today;
+            logger.error("Error during daily limit reset, it will be retried by the hourly job", e);
         }
     }
     
     /**
-     * Очистка истекших резервов каждый час
+     * Очистка истекших резервов каждый час. Основное истечение выполняет
+     * {@link com.example.limit.expiry.ReservationExpiryWheel}, здесь подбираются пропущенные им резервы.
      */
     @Scheduled(cron = "0 0 * * * ?")
     public void expireOldReservations() {
@@ -43,7 +87,17 @@ public class LimitScheduler {
             logger.error("Error during expired reservations cleanup", e);
         }
     }
+    
+    /**
+     * Обслуживание партиций limit_reservations: новые дни вперед, архивирование старых
+     */
+    @Scheduled(cron = "${limit.retention.cron:0 30 0 * * ?}")
+    public void maintainReservationPartitions() {
+        logger.debug("Maintaining limit_reservations partitions");
+        try {
+            retentionJob.run();
+        } catch (Exception e) {
+            logger.error("Error during limit_reservations partition maintenance", e);
+        }
+    }
 }
-
-
-
@@ -0,0 +1,21 @@
+package com.example.limit.service;
+
+import java.util.Collection;
+
+/**
+ * Фоновые операции над лимитами, которые запускает планировщик.
+ * Вынесены из {@link LimitServiceApi}, чтобы движок лимитов (БД или in-memory леджер)
+ * сам решал, как сбрасывать лимиты и истекать резервы.
+ */
+public interface LimitMaintenance {
+
+    void resetAllLimits();
+
+    void expireOldReservations();
+
+    /**
+     * Истекает резервы из набора, если они все еще PENDING и их срок прошел.
+     * Остальные operationId пропускаются.
+     */
+    void expireReservations(Collection<String> operationIds);
+}
@@ -1,203 +1,662 @@
 package com.example.limit.service;
 
+import com.example.limit.cache.LimitReadCache;
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
 import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.LimitReservation.OperationType;
 import com.example.limit.entity.UserLimit;
 import com.example.limit.exception.InsufficientLimitException;
 import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.exception.VelocityLimitExceededException;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.lock.UserLockStripes;
+import com.example.limit.money.Money;
 import com.example.limit.repository.LimitReservationRepository;
 import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.reset.LimitResetJob;
+import com.example.limit.velocity.VelocityLimiter;
+import com.example.limit.writebehind.ReservationWriteBehind;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+@Timed(value = "limit.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
 @Service
-public class LimitService implements LimitServiceApi {
+public class LimitService implements LimitServiceApi, LimitMaintenance {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LimitService.class);
+    
+    private static final int EXPIRE_BATCH_SIZE = 1000;
+    
+    /**
+     * Попытки изменения при конфликте версии строки user_limits
+     */
+    private static final int MAX_VERSION_ATTEMPTS = 3;
     
     private final UserLimitRepository userLimitRepository;
     private final LimitReservationRepository reservationRepository;
-    private final BigDecimal defaultLimitValue;
+    private final ReservationBatchProcessor batchProcessor;
+    private final ReservationExpiryWheel expiryWheel;
+    private final LimitResetJob limitResetJob;
+    private final LazyLimitReset lazyReset;
+    private final IdempotencyCache idempotencyCache;
+    private final VelocityLimiter velocityLimiter;
+    private final ReservationWriteBehind writeBehind;
+    private final UserLockStripes userLocks;
+    private final LimitReadCache readCache;
+    private final TransactionTemplate transactionTemplate;
+    private final long defaultLimitValue;
+    private final int batchChunkSize;
     
     public LimitService(
             UserLimitRepository userLimitRepository,
             LimitReservationRepository reservationRepository,
-            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue) {
+            ReservationBatchProcessor batchProcessor,
+            ReservationExpiryWheel expiryWheel,
+            LimitResetJob limitResetJob,
+            LazyLimitReset lazyReset,
+            IdempotencyCache idempotencyCache,
+            VelocityLimiter velocityLimiter,
+            ReservationWriteBehind writeBehind,
+            UserLockStripes userLocks,
+            LimitReadCache readCache,
+            PlatformTransactionManager transactionManager,
+            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue,
+            @Value("${limit.batch.chunk-size:1000}") int batchChunkSize) {
+        if (batchChunkSize <= 0) {
+            throw new IllegalArgumentException("limit.batch.chunk-size must be positive");
+        }
         this.userLimitRepository = userLimitRepository;
         this.reservationRepository = reservationRepository;
-        this.defaultLimitValue = defaultLimitValue;
+        this.batchProcessor = batchProcessor;
+        this.expiryWheel = expiryWheel;
+        this.limitResetJob = limitResetJob;
+        this.lazyReset = lazyReset;
+        this.idempotencyCache = idempotencyCache;
+        this.velocityLimiter = velocityLimiter;
+        this.writeBehind = writeBehind;
+        this.userLocks = userLocks;
+        this.readCache = readCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.defaultLimitValue = Money.fromDecimal(defaultLimitValue);
+        this.batchChunkSize = batchChunkSize;
     }
     
     /**
-     * Получить или создать лимит для пользователя
+     * Получить или создать лимит для пользователя.
+     * Ответ берется из {@link LimitReadCache}, при промахе существующая строка читается без транзакции
+     * записи. Транзакция открывается, только чтобы создать строку или начать новый период.
      */
-    @Transactional
     public LimitResponse getLimit(Long userId) {
-        UserLimit userLimit = userLimitRepository.findByUserId(userId)
-                .orElseGet(() -> createDefaultLimit(userId));
-        
-        BigDecimal reservedAmount = reservationRepository
-                .sumReservedAmountByUserIdAndStatus(userId, LimitReservation.ReservationStatus.PENDING);
-        
-        BigDecimal availableLimit = userLimit.getCurrentLimit().subtract(reservedAmount);
+        long period = lazyReset.currentPeriod();
+        LimitResponse cached = readCache.get(userId, period);
+        if (cached != null) {
+            return cached;
+        }
         
+        long stamp = readCache.stamp(userId);
+        UserLimit userLimit = userLimitRepository.findByUserId(userId).orElse(null);
+        if (userLimit != null && !lazyReset.isStale(userLimit)) {
+            LimitResponse response = toResponse(userLimit);
+            readCache.put(userId, period, response, stamp);
+            return response;
+        }
+        // Строка, прочитанная при создании или сбросе, в кэш не кладется: следующее чтение закэширует ее
+        return toResponse(mutate(userId, status -> {
+            UserLimit existing = userLimitRepository.findByUserId(userId).orElse(null);
+            if (existing == null) {
+                return createDefaultLimit(userId);
+            }
+            if (lazyReset.isStale(existing) && lazyReset.rollOver(userId)) {
+                return userLimitRepository.findByUserId(userId).orElseThrow();
+            }
+            return existing;
+        }));
+    }
+    
+    private static LimitResponse toResponse(UserLimit userLimit) {
         return new LimitResponse(
                 userLimit.getUserId(),
-                userLimit.getCurrentLimit(),
-                userLimit.getDefaultLimit(),
-                availableLimit,
+                Money.toDecimal(userLimit.getCurrentLimit()),
+                Money.toDecimal(userLimit.getDefaultLimit()),
+                Money.toDecimal(userLimit.getAvailableLimit()),
                 userLimit.getUpdatedAt()
         );
     }
     
     /**
-     * Резервирование лимита на время операции
+     * Резервирование лимита на время операции.
+     * Повтор с тем же operationId возвращает исходный ответ, см. {@link #idempotent}.
      */
-    @Transactional
     public ReservationResponse reserveLimit(Long userId, BigDecimal amount, String operationId) {
-        // Получаем или создаем лимит
-        UserLimit userLimit = userLimitRepository.findByUserId(userId)
-                .orElseGet(() -> createDefaultLimit(userId));
-        
-        // Проверяем, не существует ли уже резерв с таким operationId
-        final String finalOperationId;
-        if (operationId != null && !operationId.isEmpty()) {
-            reservationRepository.findByOperationId(operationId)
-                    .ifPresent(r -> {
-                        throw new IllegalArgumentException("Reservation with operationId " + operationId + " already exists");
-                    });
-            finalOperationId = operationId;
-        } else {
-            finalOperationId = UUID.randomUUID().toString();
+        long amountCents = Money.fromDecimal(amount);
+        if (operationId == null || operationId.isEmpty()) {
+            return withinVelocity(userId, amountCents,
+                    () -> reserveNow(userId, amountCents, UUID.randomUUID().toString()));
         }
-        
-        // Вычисляем доступный лимит (текущий минус все pending резервы)
-        BigDecimal reservedAmount = reservationRepository
-                .sumReservedAmountByUserIdAndStatus(userId, LimitReservation.ReservationStatus.PENDING);
-        
-        BigDecimal availableLimit = userLimit.getCurrentLimit().subtract(reservedAmount);
-        
-        if (availableLimit.compareTo(amount) < 0) {
-            throw new InsufficientLimitException(
-                    String.format("Insufficient limit. Available: %s, Requested: %s", availableLimit, amount)
-            );
+        return idempotent(OperationType.RESERVE, userId, amount, amountCents, operationId,
+                () -> reserveNow(userId, amountCents, operationId));
+    }
+    
+    /**
+     * Резерв в своей транзакции или, при limit.write-behind.enabled, в ближайшем групповом коммите
+     */
+    private ReservationResponse reserveNow(Long userId, long amount, String operationId) {
+        if (writeBehind.isEnabled()) {
+            try {
+                return writeBehind.reserve(userId, amount, operationId);
+            } finally {
+                readCache.invalidate(userId);
+            }
         }
+        return mutate(userId, status -> reserve(userId, amount, operationId));
+    }
+    
+    private ReservationResponse reserve(Long userId, long amount, String operationId) {
+        // Резервируем одним условным UPDATE: доступный лимит проверяет сама БД
+        applyWithinAvailable(userId, amount, userLimitRepository::tryReserve);
         
-        // Создаем резерв
-        LimitReservation reservation = new LimitReservation(userId, amount, finalOperationId);
+        // Создаем резерв. Дубликат operationId отклонит уникальное ограничение
+        LimitReservation reservation = new LimitReservation(userId, amount, operationId);
         reservation.setExpiresAt(LocalDateTime.now().plusHours(1)); // Резерв действителен 1 час
         reservation = reservationRepository.save(reservation);
+        expiryWheel.schedule(operationId, reservation.getExpiresAt());
         
         return new ReservationResponse(reservation);
     }
     
     /**
-     * Подтверждение операции - списание лимита
+     * Пакетное резервирование. Элементы группируются по пользователю и обрабатываются
+     * пачками по limit.batch.chunk-size, каждая пачка - одна транзакция с JDBC batch.
+     * Если пачка падает целиком, ее элементы повторяются по одному, чтобы ошибка
+     * одного элемента не отменяла остальные.
+     * <p>
+     * Повтор operationId с теми же пользователем и суммой, как и в reserveLimit, получает исходный
+     * резерв и не проходит пределы скорости: уже сохраненный резерв берется из кэша идемпотентности
+     * или из БД, повтор внутри пакета получает результат первого элемента.
+     */
+    @Override
+    public List<ReservationBatchResult> reserveBatch(List<ReservationBatchItem> items) {
+        // Стабильная сортировка: резервы одного пользователя идут подряд и в исходном порядке,
+        // а строки user_limits блокируются в одном порядке во всех пачках
+        Integer[] order = new Integer[items.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> items.get(i).userId()));
+        
+        ReservationBatchResult[] results = new ReservationBatchResult[items.size()];
+        Map<String, ReservationResponse> originals = findOriginals(items);
+        Map<String, Integer> firstIndexes = new HashMap<>();
+        Map<Integer, Integer> repeats = new LinkedHashMap<>();
+        List<Integer> pending = new ArrayList<>(order.length);
+        for (int index : order) {
+            ReservationBatchItem item = items.get(index);
+            String operationId = item.operationId();
+            if (operationId == null || operationId.isEmpty()) {
+                pending.add(index);
+            } else if (originals.containsKey(operationId)) {
+                results[index] = replay(item, originals.get(operationId));
+            } else {
+                Integer first = firstIndexes.putIfAbsent(operationId, index);
+                if (first != null) {
+                    repeats.put(index, first);
+                } else {
+                    pending.add(index);
+                }
+            }
+        }
+        
+        for (int from = 0; from < pending.size(); from += batchChunkSize) {
+            int to = Math.min(from + batchChunkSize, pending.size());
+            List<ReservationBatchItem> chunk = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                chunk.add(items.get(pending.get(i)));
+            }
+            
+            List<ReservationBatchResult> chunkResults;
+            try {
+                chunkResults = reserveChunk(chunk);
+            } finally {
+                for (ReservationBatchItem item : chunk) {
+                    readCache.invalidate(item.userId());
+                }
+            }
+            for (int i = from; i < to; i++) {
+                results[pending.get(i)] = chunkResults.get(i - from);
+            }
+        }
+        repeats.forEach((index, first) -> results[index] = repeat(items.get(index), results[first]));
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Исходные ответы по operationId элементов: из кэша идемпотентности, а при промахе - из БД
+     */
+    private Map<String, ReservationResponse> findOriginals(List<ReservationBatchItem> items) {
+        Map<String, ReservationResponse> originals = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (ReservationBatchItem item : items) {
+            String operationId = item.operationId();
+            if (operationId == null || operationId.isEmpty() || originals.containsKey(operationId)) {
+                continue;
+            }
+            ReservationResponse cached = idempotencyCache.get(operationId);
+            if (cached != null) {
+                originals.put(operationId, cached);
+            } else {
+                misses.add(operationId);
+            }
+        }
+        for (int from = 0; from < misses.size(); from += batchChunkSize) {
+            List<String> chunk = misses.subList(from, Math.min(from + batchChunkSize, misses.size()));
+            for (LimitReservation existing : reservationRepository.findByOperationIdIn(new HashSet<>(chunk))) {
+                ReservationResponse original = new ReservationResponse(existing);
+                originals.put(existing.getOperationId(), original);
+                idempotencyCache.put(existing.getOperationId(), original);
+            }
+        }
+        return originals;
+    }
+    
+    private static ReservationBatchResult replay(ReservationBatchItem item, ReservationResponse original) {
+        try {
+            IdempotencyCache.replay(original, OperationType.RESERVE, item.userId(), item.amount());
+            return ReservationBatchResult.reserved(item, original.getOperationId());
+        } catch (IllegalArgumentException e) {
+            return ReservationBatchResult.rejected(item, original.getOperationId(),
+                    ReservationBatchResult.Outcome.DUPLICATE_OPERATION, e.getMessage());
+        }
+    }
+    
+    /**
+     * Повтор operationId внутри пакета получает исход первого элемента, если совпадают пользователь и сумма
+     */
+    private static ReservationBatchResult repeat(ReservationBatchItem item, ReservationBatchResult first) {
+        if (first.userId().equals(item.userId()) && first.amount().compareTo(item.amount()) == 0) {
+            return new ReservationBatchResult(item.userId(), first.operationId(), item.amount(),
+                    first.outcome(), first.message());
+        }
+        return ReservationBatchResult.rejected(item, item.operationId(),
+                ReservationBatchResult.Outcome.DUPLICATE_OPERATION,
+                "Reservation with operationId " + item.operationId() + " already exists");
+    }
+    
+    /**
+     * Каждый элемент, как и одиночный reserveLimit, сначала проходит пределы скорости. Элементы сверх
+     * предела в пачку не попадают, а разрешения отклоненных пачкой элементов снимаются с окон.
+     */
+    private List<ReservationBatchResult> reserveChunk(List<ReservationBatchItem> chunk) {
+        ReservationBatchResult[] results = new ReservationBatchResult[chunk.size()];
+        VelocityLimiter.Permit[] permits = new VelocityLimiter.Permit[chunk.size()];
+        List<ReservationBatchItem> admitted = new ArrayList<>(chunk.size());
+        List<Integer> admittedIndexes = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            ReservationBatchItem item = chunk.get(i);
+            try {
+                permits[i] = velocityLimiter.acquire(item.userId(), Money.fromDecimal(item.amount()));
+            } catch (VelocityLimitExceededException e) {
+                results[i] = ReservationBatchResult.failed(item, e);
+                continue;
+            } catch (IllegalArgumentException e) {
+                // Сумму отклонит пачка, как и без пределов скорости
+            }
+            admitted.add(item);
+            admittedIndexes.add(i);
+        }
+        
+        List<ReservationBatchResult> admittedResults = List.of();
+        try {
+            if (!admitted.isEmpty()) {
+                admittedResults = reserveAdmitted(admitted);
+            }
+        } catch (RuntimeException e) {
+            for (VelocityLimiter.Permit permit : permits) {
+                if (permit != null) {
+                    velocityLimiter.release(permit);
+                }
+            }
+            throw e;
+        }
+        for (int a = 0; a < admittedResults.size(); a++) {
+            int index = admittedIndexes.get(a);
+            ReservationBatchResult result = admittedResults.get(a);
+            results[index] = result;
+            if (result.outcome() != ReservationBatchResult.Outcome.RESERVED && permits[index] != null) {
+                velocityLimiter.release(permits[index]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    private List<ReservationBatchResult> reserveAdmitted(List<ReservationBatchItem> chunk) {
+        try {
+            return batchProcessor.reserveChunk(chunk);
+        } catch (DataAccessException e) {
+            logger.warn("Batch reservation of {} items failed, retrying item by item", chunk.size(), e);
+        }
+        
+        List<ReservationBatchResult> results = new ArrayList<>(chunk.size());
+        for (ReservationBatchItem item : chunk) {
+            try {
+                results.add(batchProcessor.reserveChunk(List.of(item)).get(0));
+            } catch (RuntimeException e) {
+                results.add(ReservationBatchResult.failed(item, e));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Подтверждение операции - списание лимита.
+     * При limit.write-behind.enabled подтверждение пишется в ближайшем групповом коммите.
      */
-    @Transactional
     public void confirmOperation(String operationId) {
-        LimitReservation reservation = reservationRepository.findByOperationId(operationId)
-                .orElseThrow(() -> new ReservationNotFoundException("Reservation not found for operationId: " + operationId));
+        LimitReservation reservation = findReservation(operationId);
+        if (writeBehind.isEnabled()) {
+            try {
+                writeBehind.confirm(reservation);
+            } finally {
+                readCache.invalidate(reservation.getUserId());
+            }
+            return;
+        }
+        mutate(reservation.getUserId(), status -> {
+            confirm(reservation);
+            return null;
+        });
+    }
+    
+    private void confirm(LimitReservation reservation) {
+        String operationId = reservation.getOperationId();
+        // При ленивом сбросе резерв прошлого дня отменяется вместе со сбросом строки
+        lazyReset.rollOver(reservation.getUserId());
         
-        if (reservation.getStatus() != LimitReservation.ReservationStatus.PENDING) {
+        // Статус меняется только из PENDING, поэтому параллельное подтверждение не спишет лимит дважды
+        if (reservationRepository.transitionStatus(operationId,
+                LimitReservation.ReservationStatus.PENDING, LimitReservation.ReservationStatus.CONFIRMED) == 0) {
             throw new IllegalStateException("Reservation is not in PENDING status");
         }
         
-        // Получаем лимит пользователя
-        UserLimit userLimit = userLimitRepository.findByUserId(reservation.getUserId())
-                .orElseThrow(() -> new IllegalStateException("User limit not found"));
-        
         // Списываем лимит. На этапе резервирования уже была проверка доступного лимита,
         // поэтому при подтверждении повторная проверка не требуется.
-        userLimit.setCurrentLimit(userLimit.getCurrentLimit().subtract(reservation.getAmount()));
-        userLimitRepository.save(userLimit);
-        
-        // Обновляем статус резерва
-        reservation.setStatus(LimitReservation.ReservationStatus.CONFIRMED);
-        reservationRepository.save(reservation);
+        if (userLimitRepository.applyConfirmed(reservation.getUserId(), reservation.getAmount()) == 0) {
+            throw new IllegalStateException("User limit not found");
+        }
     }
     
     /**
      * Отмена операции - освобождение резерва
      */
-    @Transactional
     public void cancelOperation(String operationId) {
-        LimitReservation reservation = reservationRepository.findByOperationId(operationId)
-                .orElseThrow(() -> new ReservationNotFoundException("Reservation not found for operationId: " + operationId));
+        mutate(findReservation(operationId).getUserId(), status -> {
+            cancel(operationId);
+            return null;
+        });
+    }
+    
+    private void cancel(String operationId) {
+        LimitReservation reservation = findReservation(operationId);
+        if (lazyReset.rollOver(reservation.getUserId())) {
+            reservation = findReservation(operationId);
+        }
+        LimitReservation.ReservationStatus status = reservation.getStatus();
         
-        if (reservation.getStatus() == LimitReservation.ReservationStatus.CONFIRMED) {
-            // Если операция уже подтверждена, нужно восстановить лимит
-            restoreLimit(reservation.getUserId(), reservation.getAmount());
+        if (reservationRepository.transitionStatus(operationId, status,
+                LimitReservation.ReservationStatus.CANCELLED) == 0) {
+            throw new IllegalStateException("Reservation was modified concurrently");
         }
         
-        reservation.setStatus(LimitReservation.ReservationStatus.CANCELLED);
-        reservationRepository.save(reservation);
+        if (status == LimitReservation.ReservationStatus.CONFIRMED) {
+            // Если операция уже подтверждена, нужно восстановить лимит
+            addCurrentLimit(reservation.getUserId(), reservation.getAmount());
+        } else if (status == LimitReservation.ReservationStatus.PENDING) {
+            // Pending резерв больше не блокирует лимит
+            userLimitRepository.addReservedAmount(reservation.getUserId(), Money.negate(reservation.getAmount()));
+        }
+    }
+    
+    /**
+     * Пакетное подтверждение пачками по limit.batch.chunk-size, каждая пачка - одна транзакция
+     * с set-based обновлением статусов и одним изменением баланса на пользователя
+     */
+    @Override
+    public List<OperationBatchResult> confirmBatch(List<String> operationIds) {
+        return settleBatch(operationIds, batchProcessor::confirmChunk);
+    }
+    
+    /**
+     * Пакетная отмена пачками по limit.batch.chunk-size, см. {@link #confirmBatch}
+     */
+    @Override
+    public List<OperationBatchResult> cancelBatch(List<String> operationIds) {
+        return settleBatch(operationIds, batchProcessor::cancelChunk);
+    }
+    
+    /**
+     * Если пачка падает целиком, ее operationId повторяются по одному, чтобы ошибка
+     * одного не отменяла остальные
+     */
+    private List<OperationBatchResult> settleBatch(List<String> operationIds,
+                                                   Function<List<String>, List<OperationBatchResult>> chunkAction) {
+        List<OperationBatchResult> results = new ArrayList<>(operationIds.size());
+        for (int from = 0; from < operationIds.size(); from += batchChunkSize) {
+            List<String> chunk = operationIds.subList(from, Math.min(from + batchChunkSize, operationIds.size()));
+            List<OperationBatchResult> chunkResults;
+            try {
+                chunkResults = chunkAction.apply(chunk);
+            } catch (DataAccessException | IllegalStateException e) {
+                logger.warn("Batch settlement of {} operations failed, retrying one by one", chunk.size(), e);
+                chunkResults = new ArrayList<>(chunk.size());
+                for (String operationId : chunk) {
+                    try {
+                        chunkResults.add(chunkAction.apply(List.of(operationId)).get(0));
+                    } catch (RuntimeException itemError) {
+                        chunkResults.add(OperationBatchResult.failed(operationId, itemError));
+                    }
+                }
+            }
+            for (OperationBatchResult result : chunkResults) {
+                if (result.userId() != null) {
+                    readCache.invalidate(result.userId());
+                }
+            }
+            results.addAll(chunkResults);
+        }
+        return results;
     }
     
     /**
      * Восстановление лимита после неуспешной операции
      */
-    @Transactional
     public void restoreLimit(Long userId, BigDecimal amount) {
-        UserLimit userLimit = userLimitRepository.findByUserId(userId)
-                .orElseThrow(() -> new IllegalStateException("User limit not found"));
-        
-        userLimit.setCurrentLimit(userLimit.getCurrentLimit().add(amount));
-        userLimitRepository.save(userLimit);
+        long amountCents = Money.fromDecimal(amount);
+        mutate(userId, status -> {
+            lazyReset.rollOver(userId);
+            addCurrentLimit(userId, amountCents);
+            return null;
+        });
+    }
+    
+    private void addCurrentLimit(Long userId, long amount) {
+        if (userLimitRepository.addCurrentLimit(userId, amount) == 0) {
+            throw new IllegalStateException("User limit not found");
+        }
     }
     
     /**
-     * Прямое списание лимита (без резервирования)
+     * Прямое списание лимита (без резервирования).
+     * С operationId списание идемпотентно: сохраняется подтвержденная запись в limit_reservations,
+     * а повтор не списывает лимит второй раз.
      */
-    @Transactional
-    public void deductLimit(Long userId, BigDecimal amount) {
-        UserLimit userLimit = userLimitRepository.findByUserId(userId)
-                .orElseGet(() -> createDefaultLimit(userId));
-        
-        BigDecimal reservedAmount = reservationRepository
-                .sumReservedAmountByUserIdAndStatus(userId, LimitReservation.ReservationStatus.PENDING);
-        
-        BigDecimal availableLimit = userLimit.getCurrentLimit().subtract(reservedAmount);
-        
-        if (availableLimit.compareTo(amount) < 0) {
-            throw new InsufficientLimitException(
-                    String.format("Insufficient limit. Available: %s, Requested: %s", availableLimit, amount)
-            );
+    public void deductLimit(Long userId, BigDecimal amount, String operationId) {
+        long amountCents = Money.fromDecimal(amount);
+        if (operationId == null || operationId.isEmpty()) {
+            withinVelocity(userId, amountCents, () -> mutate(userId, status -> {
+                applyWithinAvailable(userId, amountCents, userLimitRepository::tryDeduct);
+                return null;
+            }));
+            return;
+        }
+        idempotent(OperationType.DEDUCT, userId, amount, amountCents, operationId, () -> mutate(userId, status -> {
+            applyWithinAvailable(userId, amountCents, userLimitRepository::tryDeduct);
+            LimitReservation deduction = new LimitReservation(userId, amountCents, operationId);
+            deduction.setStatus(LimitReservation.ReservationStatus.CONFIRMED);
+            deduction.setOperationType(OperationType.DEDUCT);
+            return new ReservationResponse(reservationRepository.save(deduction));
+        }));
+    }
+    
+    /**
+     * Выполняет операцию с ключом идемпотентности. Повтор, найденный в кэше, возвращает исходный
+     * ответ без обращения к БД, если совпадают вид операции, пользователь и сумма. При промахе выполняется операция (она сама открывает транзакцию), а дубликат
+     * отклоняет уникальное ограничение на operation_id: тогда исходный ответ читается из БД.
+     * Повторы не учитываются в скользящих окнах.
+     */
+    private ReservationResponse idempotent(OperationType kind, Long userId, BigDecimal amount,
+                                           long amountCents, String operationId,
+                                           Supplier<ReservationResponse> operation) {
+        ReservationResponse cached = idempotencyCache.get(operationId);
+        if (cached != null) {
+            return IdempotencyCache.replay(cached, kind, userId, amount);
         }
         
-        userLimit.setCurrentLimit(userLimit.getCurrentLimit().subtract(amount));
-        userLimitRepository.save(userLimit);
+        ReservationResponse response;
+        try {
+            response = withinVelocity(userId, amountCents, operation);
+        } catch (DataIntegrityViolationException e) {
+            LimitReservation existing = reservationRepository.findByOperationId(operationId)
+                    .orElseThrow(() -> e);
+            response = IdempotencyCache.replay(new ReservationResponse(existing), kind, userId, amount);
+        }
+        idempotencyCache.put(operationId, response);
+        return response;
     }
     
     /**
-     * Сброс всех лимитов до дефолтного значения
+     * Проверяет пределы скользящих окон и выполняет операцию. Если операция не выполнилась,
+     * она снимается с окон.
      */
-    @Transactional
+    private <T> T withinVelocity(Long userId, long amount, Supplier<T> operation) {
+        VelocityLimiter.Permit permit = velocityLimiter.acquire(userId, amount);
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            velocityLimiter.release(permit);
+            throw e;
+        }
+    }
+    
+    /**
+     * Изменение лимита одного пользователя: под блокировкой его полосы, в своей транзакции.
+     * Конфликт версии строки user_limits повторяется до MAX_VERSION_ATTEMPTS раз.
+     * После транзакции запись пользователя в кэше чтения сбрасывается.
+     */
+    private <T> T mutate(Long userId, TransactionCallback<T> action) {
+        return userLocks.withLock(userId, () -> {
+            try {
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        return transactionTemplate.execute(action);
+                    } catch (OptimisticLockingFailureException e) {
+                        if (attempt >= MAX_VERSION_ATTEMPTS) {
+                            throw e;
+                        }
+                        logger.debug("User limit {} was changed concurrently, retrying (attempt {})", userId, attempt);
+                    }
+                }
+            } finally {
+                readCache.invalidate(userId);
+            }
+        });
+    }
+    
+    /**
+     * Сброс всех лимитов пачками с чекпоинтами, см. {@link LimitResetJob}
+     */
+    @Override
     public void resetAllLimits() {
-        userLimitRepository.resetAllLimitsToDefault(defaultLimitValue);
-        
-        // Отменяем все pending резервы одним bulk-запросом
-        reservationRepository.updateStatusForAllByCurrentStatus(
-                LimitReservation.ReservationStatus.PENDING,
-                LimitReservation.ReservationStatus.CANCELLED
-        );
+        try {
+            limitResetJob.run();
+        } finally {
+            readCache.clear();
+        }
     }
     
     /**
      * Очистка истекших резервов
      */
+    @Override
     @Transactional
     public void expireOldReservations() {
-        LocalDateTime now = LocalDateTime.now();
-        reservationRepository.expireOldReservations(
-                LimitReservation.ReservationStatus.PENDING,
-                LimitReservation.ReservationStatus.EXPIRED,
-                now
-        );
+        expire(reservationRepository.findExpiredForUpdate(
+                LimitReservation.ReservationStatus.PENDING, LocalDateTime.now()));
+    }
+    
+    /**
+     * Истечение конкретных резервов, срок которых наступил на колесе таймеров
+     */
+    @Override
+    @Transactional
+    public void expireReservations(Collection<String> operationIds) {
+        if (operationIds.isEmpty()) {
+            return;
+        }
+        expire(reservationRepository.findExpiredForUpdateByOperationIds(
+                operationIds, LimitReservation.ReservationStatus.PENDING, LocalDateTime.now()));
+    }
+    
+    private void expire(List<LimitReservation> expired) {
+        if (expired.isEmpty()) {
+            return;
+        }
+        
+        // Освобождаем reserved_amount одним UPDATE на пользователя
+        Map<Long, Long> releasedByUser = new HashMap<>();
+        List<Long> ids = new ArrayList<>(expired.size());
+        for (LimitReservation reservation : expired) {
+            releasedByUser.merge(reservation.getUserId(), reservation.getAmount(), Money::add);
+            ids.add(reservation.getId());
+        }
+        releasedByUser.forEach((userId, released) -> {
+            userLimitRepository.addReservedAmount(userId, Money.negate(released));
+            readCache.invalidate(userId);
+        });
+        
+        for (int from = 0; from < ids.size(); from += EXPIRE_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + EXPIRE_BATCH_SIZE, ids.size()));
+            reservationRepository.updateStatusByIds(batch, LimitReservation.ReservationStatus.EXPIRED);
+        }
     }
     
     /**
@@ -205,7 +664,45 @@ public class LimitService implements LimitServiceApi {
      */
     @Transactional
     public void updateDefaultLimit(BigDecimal newDefaultLimit) {
-        userLimitRepository.updateDefaultLimitForAll(newDefaultLimit);
+        userLimitRepository.updateDefaultLimitForAll(Money.fromDecimal(newDefaultLimit));
+        readCache.clear();
+    }
+    
+    /**
+     * Выполняет условный UPDATE, который проходит только при достаточном доступном лимите.
+     * Строка читается только если UPDATE ничего не изменил: чтобы создать лимит
+     * новому пользователю или сообщить доступную сумму в ошибке.
+     */
+    private void applyWithinAvailable(Long userId, long amount, ConditionalLimitUpdate update) {
+        long minPeriod = lazyReset.minimumPeriod();
+        if (update.apply(userId, amount, minPeriod) > 0) {
+            return;
+        }
+        
+        UserLimit userLimit = userLimitRepository.findByUserId(userId).orElse(null);
+        if (userLimit == null) {
+            userLimit = createDefaultLimit(userId);
+            if (update.apply(userId, amount, minPeriod) > 0) {
+                return;
+            }
+        } else if (lazyReset.isStale(userLimit)) {
+            // Первое обращение в новом периоде: сбрасываем строку и повторяем
+            lazyReset.rollOver(userId);
+            if (update.apply(userId, amount, lazyReset.minimumPeriod()) > 0) {
+                return;
+            }
+            userLimit = userLimitRepository.findByUserId(userId).orElseThrow();
+        }
+        
+        throw new InsufficientLimitException(
+                String.format("Insufficient limit. Available: %s, Requested: %s",
+                        Money.toDecimal(userLimit.getAvailableLimit()), Money.toDecimal(amount))
+        );
+    }
+    
+    private LimitReservation findReservation(String operationId) {
+        return reservationRepository.findByOperationId(operationId)
+                .orElseThrow(() -> new ReservationNotFoundException("Reservation not found for operationId: " + operationId));
     }
     
     /**
@@ -215,5 +712,9 @@ public class LimitService implements LimitServiceApi {
         UserLimit userLimit = new UserLimit(userId, defaultLimitValue, defaultLimitValue);
         return userLimitRepository.save(userLimit);
     }
+    
+    @FunctionalInterface
+    private interface ConditionalLimitUpdate {
+        int apply(Long userId, long amount, long minPeriod);
+    }
 }
-
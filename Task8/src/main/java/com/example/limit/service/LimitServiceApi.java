@@ -1,9 +1,13 @@
 package com.example.limit.service;
 
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 /**
  * Публичный контракт сервиса лимитов.
@@ -16,13 +20,37 @@ public interface LimitServiceApi {
 
     ReservationResponse reserveLimit(Long userId, BigDecimal amount, String operationId);
 
+    /**
+     * Резервирует несколько элементов за один вызов. Результаты возвращаются в порядке элементов,
+     * отказ по одному элементу не влияет на остальные.
+     */
+    List<ReservationBatchResult> reserveBatch(List<ReservationBatchItem> items);
+
     void confirmOperation(String operationId);
 
     void cancelOperation(String operationId);
 
+    /**
+     * Подтверждает резервы по списку operationId. Результаты возвращаются в порядке списка,
+     * отказ по одному operationId не влияет на остальные.
+     */
+    List<OperationBatchResult> confirmBatch(List<String> operationIds);
+
+    /**
+     * Отменяет резервы по списку operationId. Результаты возвращаются в порядке списка.
+     */
+    List<OperationBatchResult> cancelBatch(List<String> operationIds);
+
     void restoreLimit(Long userId, BigDecimal amount);
 
-    void deductLimit(Long userId, BigDecimal amount);
+    /**
+     * Прямое списание. Повтор с тем же operationId не списывает лимит второй раз.
+     */
+    void deductLimit(Long userId, BigDecimal amount, String operationId);
+
+    default void deductLimit(Long userId, BigDecimal amount) {
+        deductLimit(userId, amount, null);
+    }
 }
 
 
@@ -0,0 +1,255 @@
+package com.example.limit.service;
+
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
+import com.example.limit.dto.ReservationBatchResult.Outcome;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.entity.LimitReservation.ReservationStatus;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitBatchRepository.LimitDeltaRow;
+import com.example.limit.repository.LimitBatchRepository.ReservationRow;
+import com.example.limit.repository.LimitBatchRepository.ReservationStateRow;
+import com.example.limit.reset.LazyLimitReset;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Резервирует, подтверждает или отменяет пачку элементов в одной транзакции: каждый шаг выполняется
+ * одним запросом или одним JDBC batch на всю пачку.
+ */
+@Component
+public class ReservationBatchProcessor {
+
+    private final LimitBatchRepository batchRepository;
+    private final ReservationExpiryWheel expiryWheel;
+    private final LazyLimitReset lazyReset;
+    private final long defaultLimitValue;
+
+    public ReservationBatchProcessor(
+            LimitBatchRepository batchRepository,
+            ReservationExpiryWheel expiryWheel,
+            LazyLimitReset lazyReset,
+            @Value("${limit.default-value:100000.00}") BigDecimal defaultLimitValue) {
+        this.batchRepository = batchRepository;
+        this.expiryWheel = expiryWheel;
+        this.lazyReset = lazyReset;
+        this.defaultLimitValue = Money.fromDecimal(defaultLimitValue);
+    }
+
+    /**
+     * Резервирует элементы пачки. Результаты возвращаются в порядке элементов.
+     * Нехватка лимита или повторный operationId отклоняют только свой элемент.
+     * Повторы, совпадающие с исходным резервом, {@link LimitService#reserveBatch} отвечает до пачки.
+     */
+    @Transactional
+    public List<ReservationBatchResult> reserveChunk(List<ReservationBatchItem> items) {
+        ReservationBatchResult[] results = new ReservationBatchResult[items.size()];
+
+        // Повторные operationId: уже сохраненные в БД и встреченные ранее в этой же пачке
+        Set<String> providedIds = new HashSet<>();
+        for (ReservationBatchItem item : items) {
+            if (hasOperationId(item)) {
+                providedIds.add(item.operationId());
+            }
+        }
+        Set<String> takenIds = providedIds.isEmpty()
+                ? new HashSet<>()
+                : batchRepository.findExistingOperationIds(providedIds);
+
+        List<ReservationRow> rows = new ArrayList<>(items.size());
+        List<Integer> rowIndexes = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ReservationBatchItem item = items.get(i);
+            String operationId = hasOperationId(item) ? item.operationId() : UUID.randomUUID().toString();
+            if (!takenIds.add(operationId)) {
+                results[i] = ReservationBatchResult.rejected(item, operationId, Outcome.DUPLICATE_OPERATION,
+                        "Reservation with operationId " + operationId + " already exists");
+                continue;
+            }
+            long amount;
+            try {
+                amount = Money.fromDecimal(item.amount());
+            } catch (IllegalArgumentException e) {
+                results[i] = ReservationBatchResult.rejected(item, operationId, Outcome.FAILED, e.getMessage());
+                continue;
+            }
+            rows.add(new ReservationRow(item.userId(), amount, operationId));
+            rowIndexes.add(i);
+        }
+
+        if (!rows.isEmpty()) {
+            prepareLimits(rows);
+
+            int[] counts = batchRepository.tryReserveAll(rows, lazyReset.minimumPeriod());
+            List<ReservationRow> reserved = new ArrayList<>(rows.size());
+            for (int r = 0; r < rows.size(); r++) {
+                ReservationRow row = rows.get(r);
+                int index = rowIndexes.get(r);
+                if (counts[r] > 0) {
+                    reserved.add(row);
+                    results[index] = ReservationBatchResult.reserved(items.get(index), row.operationId());
+                } else {
+                    results[index] = ReservationBatchResult.rejected(items.get(index), row.operationId(),
+                            Outcome.INSUFFICIENT_LIMIT,
+                            String.format("Insufficient limit. Requested: %s", Money.toDecimal(row.amount())));
+                }
+            }
+
+            if (!reserved.isEmpty()) {
+                LocalDateTime now = LocalDateTime.now();
+                LocalDateTime expiresAt = now.plusHours(1); // Резерв действителен 1 час
+                batchRepository.insertPendingReservations(reserved, now, expiresAt);
+                for (ReservationRow row : reserved) {
+                    expiryWheel.schedule(row.operationId(), expiresAt);
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Подтверждает pending-резервы пачки. Статусы меняются одним UPDATE, а списание с лимита
+     * суммируется по пользователю и применяется одной строкой batch на пользователя.
+     * Результаты возвращаются в порядке operationId, повтор operationId в пачке - NOT_PENDING.
+     */
+    @Transactional
+    public List<OperationBatchResult> confirmChunk(List<String> operationIds) {
+        Map<String, ReservationStateRow> reservations = lockReservations(operationIds);
+        OperationBatchResult[] results = new OperationBatchResult[operationIds.size()];
+        Set<String> confirmed = new LinkedHashSet<>();
+        Map<Long, Long> deducted = new TreeMap<>();
+        for (int i = 0; i < results.length; i++) {
+            String operationId = operationIds.get(i);
+            ReservationStateRow reservation = reservations.get(operationId);
+            if (reservation == null) {
+                results[i] = OperationBatchResult.notFound(operationId);
+            } else if (reservation.status() != ReservationStatus.PENDING || !confirmed.add(operationId)) {
+                results[i] = OperationBatchResult.notPending(operationId, reservation.userId());
+            } else {
+                deducted.merge(reservation.userId(), reservation.amount(), Money::add);
+                results[i] = OperationBatchResult.applied(operationId, reservation.userId(),
+                        OperationBatchResult.Outcome.CONFIRMED);
+            }
+        }
+
+        if (!confirmed.isEmpty()) {
+            batchRepository.updateStatuses(confirmed, ReservationStatus.CONFIRMED);
+            List<LimitDeltaRow> deltas = new ArrayList<>(deducted.size());
+            deducted.forEach((userId, amount) ->
+                    deltas.add(new LimitDeltaRow(userId, Money.negate(amount), Money.negate(amount))));
+            applyDeltas(deltas);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Отменяет резервы пачки: pending-резерв освобождает reserved_amount, подтвержденный возвращает
+     * лимит, остальные только меняют статус, как при одиночной отмене. Изменения балансов суммируются
+     * по пользователю. Результаты возвращаются в порядке operationId.
+     */
+    @Transactional
+    public List<OperationBatchResult> cancelChunk(List<String> operationIds) {
+        Map<String, ReservationStateRow> reservations = lockReservations(operationIds);
+        OperationBatchResult[] results = new OperationBatchResult[operationIds.size()];
+        Set<String> cancelled = new LinkedHashSet<>();
+        Map<Long, long[]> changes = new TreeMap<>();
+        for (int i = 0; i < results.length; i++) {
+            String operationId = operationIds.get(i);
+            ReservationStateRow reservation = reservations.get(operationId);
+            if (reservation == null) {
+                results[i] = OperationBatchResult.notFound(operationId);
+                continue;
+            }
+            // Повтор в пачке видит резерв уже отмененным и балансы не меняет
+            if (cancelled.add(operationId)) {
+                long[] change = changes.computeIfAbsent(reservation.userId(), userId -> new long[2]);
+                if (reservation.status() == ReservationStatus.CONFIRMED) {
+                    change[0] = Money.add(change[0], reservation.amount());
+                } else if (reservation.status() == ReservationStatus.PENDING) {
+                    change[1] = Money.subtract(change[1], reservation.amount());
+                }
+            }
+            results[i] = OperationBatchResult.applied(operationId, reservation.userId(),
+                    OperationBatchResult.Outcome.CANCELLED);
+        }
+
+        if (!cancelled.isEmpty()) {
+            batchRepository.updateStatuses(cancelled, ReservationStatus.CANCELLED);
+            List<LimitDeltaRow> deltas = new ArrayList<>(changes.size());
+            changes.forEach((userId, change) -> {
+                if (change[0] != 0 || change[1] != 0) {
+                    deltas.add(new LimitDeltaRow(userId, change[0], change[1]));
+                }
+            });
+            applyDeltas(deltas);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Блокирует резервы пачки. При ленивом сбросе сначала начинает новый период у их пользователей,
+     * отменяя резервы прошлых дней: как и при одиночном подтверждении, до блокировки резервов.
+     */
+    private Map<String, ReservationStateRow> lockReservations(List<String> operationIds) {
+        Set<String> distinct = new LinkedHashSet<>(operationIds);
+        if (lazyReset.isEnabled()) {
+            lazyReset.rollOverStale(batchRepository.findReservationUserIds(distinct));
+        }
+        Map<String, ReservationStateRow> reservations = new HashMap<>();
+        for (ReservationStateRow row : batchRepository.findReservationsForUpdate(distinct)) {
+            reservations.put(row.operationId(), row);
+        }
+        return reservations;
+    }
+
+    /**
+     * Строки user_limits обновляются в порядке userId, как при пакетном резервировании
+     */
+    private void applyDeltas(List<LimitDeltaRow> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        for (int count : batchRepository.applyLimitDeltas(deltas)) {
+            if (count == 0) {
+                throw new IllegalStateException("User limit not found");
+            }
+        }
+    }
+
+    /**
+     * Создает недостающие строки user_limits и при ленивом сбросе начинает новый период у устаревших
+     */
+    private void prepareLimits(List<ReservationRow> rows) {
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (ReservationRow row : rows) {
+            userIds.add(row.userId());
+        }
+        Set<Long> existing = batchRepository.findExistingUserIds(userIds);
+        lazyReset.rollOverStale(existing);
+        userIds.removeAll(existing);
+        if (!userIds.isEmpty()) {
+            batchRepository.insertDefaultLimits(userIds, defaultLimitValue);
+        }
+    }
+
+    private static boolean hasOperationId(ReservationBatchItem item) {
+        return item.operationId() != null && !item.operationId().isEmpty();
+    }
+}
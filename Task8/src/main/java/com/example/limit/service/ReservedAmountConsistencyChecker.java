@@ -0,0 +1,57 @@
+package com.example.limit.service;
+
+import com.example.limit.cache.LimitReadCache;
+import com.example.limit.dto.ReservedAmountMismatch;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.repository.UserLimitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Проверка денормализованного user_limits.reserved_amount против суммы pending-резервов.
+ * Запускается по требованию, на горячем пути не используется.
+ */
+@Component
+public class ReservedAmountConsistencyChecker {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ReservedAmountConsistencyChecker.class);
+    
+    private final UserLimitRepository userLimitRepository;
+    private final LimitReadCache readCache;
+    
+    public ReservedAmountConsistencyChecker(UserLimitRepository userLimitRepository, LimitReadCache readCache) {
+        this.userLimitRepository = userLimitRepository;
+        this.readCache = readCache;
+    }
+    
+    /**
+     * Найти пользователей, у которых reserved_amount не совпадает с агрегатом по limit_reservations
+     */
+    @Transactional(readOnly = true)
+    public List<ReservedAmountMismatch> check() {
+        List<ReservedAmountMismatch> mismatches = userLimitRepository
+                .findReservedAmountMismatches(LimitReservation.ReservationStatus.PENDING);
+        if (!mismatches.isEmpty()) {
+            logger.warn("Found {} user limits with inconsistent reserved_amount", mismatches.size());
+        }
+        return mismatches;
+    }
+    
+    /**
+     * Пересчитать reserved_amount по агрегату для всех найденных расхождений
+     */
+    @Transactional
+    public List<ReservedAmountMismatch> repair() {
+        List<ReservedAmountMismatch> mismatches = check();
+        for (ReservedAmountMismatch mismatch : mismatches) {
+            userLimitRepository.recalculateReservedAmount(
+                    mismatch.userId(), LimitReservation.ReservationStatus.PENDING);
+            readCache.invalidate(mismatch.userId());
+        }
+        return mismatches;
+    }
+}
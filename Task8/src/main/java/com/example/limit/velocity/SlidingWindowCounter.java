@@ -0,0 +1,137 @@
+package com.example.limit.velocity;
+
+import com.example.limit.money.Money;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Скользящее окно на кольцевом буфере бакетов: число операций и сумма за последние
+ * buckets * bucketMillis миллисекунд. Итоги окна хранятся отдельно, поэтому проверка - O(1),
+ * а сдвиг окна очищает не больше buckets ячеек. Не потокобезопасен: доступ синхронизирует
+ * {@link UserVelocity}.
+ */
+final class SlidingWindowCounter {
+
+    /**
+     * Бакет в снимке: номер бакета, число операций и сумма
+     */
+    static final int ENCODED_BUCKET_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final long bucketMillis;
+    private final long[] bucketIds;
+    private final int[] operations;
+    private final long[] amounts;
+    private int totalOperations;
+    private long totalAmount;
+    private long headBucket = Long.MIN_VALUE;
+
+    SlidingWindowCounter(VelocityWindow window) {
+        this.bucketMillis = window.bucketMillis();
+        this.bucketIds = new long[window.buckets()];
+        this.operations = new int[window.buckets()];
+        this.amounts = new long[window.buckets()];
+    }
+
+    /**
+     * Сдвигает окно к моменту now, выбрасывая бакеты, которые из него вышли
+     */
+    void advance(long nowMillis) {
+        long bucket = bucketOf(nowMillis);
+        if (bucket <= headBucket) {
+            return;
+        }
+        int size = bucketIds.length;
+        long steps = headBucket == Long.MIN_VALUE ? size : Math.min(bucket - headBucket, size);
+        for (long b = bucket - steps + 1; b <= bucket; b++) {
+            int slot = slot(b);
+            totalOperations -= operations[slot];
+            totalAmount -= amounts[slot];
+            bucketIds[slot] = b;
+            operations[slot] = 0;
+            amounts[slot] = 0;
+        }
+        headBucket = bucket;
+    }
+
+    /**
+     * Поместится ли еще одна операция на amount в пределы окна
+     */
+    boolean fits(long amount, VelocityWindow window) {
+        return (window.maxOperations() == 0 || totalOperations < window.maxOperations())
+                && (window.maxAmount() == 0 || Money.add(totalAmount, amount) <= window.maxAmount());
+    }
+
+    /**
+     * Учитывает операцию в бакете момента atMillis. Окно должно быть сдвинуто к этому моменту.
+     */
+    void add(long atMillis, int count, long amount) {
+        long bucket = bucketOf(atMillis);
+        if (!isLive(bucket)) {
+            return;
+        }
+        int slot = slot(bucket);
+        operations[slot] += count;
+        amounts[slot] = Money.add(amounts[slot], amount);
+        totalOperations += count;
+        totalAmount = Money.add(totalAmount, amount);
+    }
+
+    /**
+     * Снимает операцию, если ее бакет еще в окне
+     */
+    void remove(long atMillis, long amount) {
+        long bucket = bucketOf(atMillis);
+        if (!isLive(bucket)) {
+            return;
+        }
+        int slot = slot(bucket);
+        operations[slot]--;
+        amounts[slot] -= amount;
+        totalOperations--;
+        totalAmount -= amount;
+    }
+
+    boolean isEmpty() {
+        return totalOperations == 0;
+    }
+
+    /**
+     * Непустые бакеты окна для снимка в БД
+     */
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(bucketIds.length * ENCODED_BUCKET_BYTES);
+        for (int slot = 0; slot < bucketIds.length; slot++) {
+            if (operations[slot] != 0) {
+                buffer.putLong(bucketIds[slot]).putInt(operations[slot]).putLong(amounts[slot]);
+            }
+        }
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip().get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Добавляет бакеты из снимка. Бакеты, вышедшие из окна или из будущего, пропускаются.
+     */
+    void restore(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        while (buffer.remaining() >= ENCODED_BUCKET_BYTES) {
+            long bucket = buffer.getLong();
+            int count = buffer.getInt();
+            long amount = buffer.getLong();
+            add(bucket * bucketMillis, count, amount);
+        }
+    }
+
+    private boolean isLive(long bucket) {
+        return bucket <= headBucket && bucket > headBucket - bucketIds.length;
+    }
+
+    private long bucketOf(long millis) {
+        return Math.floorDiv(millis, bucketMillis);
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) bucketIds.length);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.limit.velocity;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Скользящие окна одного пользователя, по счетчику на каждое включенное окно.
+ * Все методы выполняются под замком объекта: операции одного пользователя идут по очереди.
+ */
+final class UserVelocity {
+
+    /**
+     * Результат {@link #tryAcquire}: операция учтена
+     */
+    static final int ACQUIRED = -1;
+
+    /**
+     * Результат {@link #tryAcquire}: объект уже убран из карты, нужно взять новый
+     */
+    static final int RETIRED = -2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final SlidingWindowCounter[] counters;
+    private boolean dirty;
+    private boolean retired;
+
+    UserVelocity(VelocityWindow[] windows) {
+        this.counters = new SlidingWindowCounter[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            counters[i] = new SlidingWindowCounter(windows[i]);
+        }
+    }
+
+    /**
+     * Учитывает операцию во всех окнах, если она помещается в каждое.
+     *
+     * @return {@link #ACQUIRED}, {@link #RETIRED} или индекс окна, предел которого превышен
+     */
+    int tryAcquire(VelocityWindow[] windows, long nowMillis, long amount) {
+        lock.lock();
+        try {
+            if (retired) {
+                return RETIRED;
+            }
+            for (int i = 0; i < counters.length; i++) {
+                counters[i].advance(nowMillis);
+                if (!counters[i].fits(amount, windows[i])) {
+                    return i;
+                }
+            }
+            for (SlidingWindowCounter counter : counters) {
+                counter.add(nowMillis, 1, amount);
+            }
+            dirty = true;
+            return ACQUIRED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Снимает операцию, учтенную в момент atMillis: сама операция не выполнилась
+     */
+    void release(long atMillis, long amount) {
+        lock.lock();
+        try {
+            for (SlidingWindowCounter counter : counters) {
+                counter.remove(atMillis, amount);
+            }
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void restore(int window, long nowMillis, byte[] encoded) {
+        lock.lock();
+        try {
+            counters[window].advance(nowMillis);
+            counters[window].restore(encoded);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Снимок окон, изменившихся с прошлого снимка. Пустой пользователь помечается убранным,
+     * и его снимок возвращается пустым, чтобы удалить строки из БД.
+     *
+     * @return бакеты каждого окна или null, если снимать нечего
+     */
+    byte[][] snapshot(long nowMillis) {
+        lock.lock();
+        try {
+            boolean empty = true;
+            for (SlidingWindowCounter counter : counters) {
+                counter.advance(nowMillis);
+                empty &= counter.isEmpty();
+            }
+            if (empty) {
+                retired = true;
+                return new byte[0][];
+            }
+            if (!dirty) {
+                return null;
+            }
+            dirty = false;
+            byte[][] encoded = new byte[counters.length][];
+            for (int i = 0; i < counters.length; i++) {
+                encoded[i] = counters[i].encode();
+            }
+            return encoded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void markDirty() {
+        lock.lock();
+        try {
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
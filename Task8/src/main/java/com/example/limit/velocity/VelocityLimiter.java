@@ -0,0 +1,249 @@
+package com.example.limit.velocity;
+
+import com.example.limit.entity.VelocitySnapshot;
+import com.example.limit.exception.VelocityLimitExceededException;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitBatchRepository.VelocitySnapshotRow;
+import com.example.limit.repository.VelocitySnapshotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Пределы скорости операций пользователя на скользящих окнах, дополнительно к дневному лимиту:
+ * не больше N операций и не больше суммы X за последнюю минуту и за последний час.
+ * <p>
+ * Окна считаются в памяти на кольцевых буферах бакетов ({@link SlidingWindowCounter}),
+ * поэтому проверка - O(1) и не обращается к limit_reservations. Операция, которая не выполнилась
+ * после проверки, снимается с окон через {@link #release}. Измененные окна периодически
+ * (limit.velocity.snapshot-ms) пишутся в velocity_snapshots и восстанавливаются при старте,
+ * поэтому перезапуск не обнуляет счетчики. Окна без пределов не ведутся.
+ */
+@Component
+public class VelocityLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(VelocityLimiter.class);
+
+    private static final int SNAPSHOT_CHUNK_SIZE = 1000;
+
+    /**
+     * Разрешение, когда ни одно окно не включено
+     */
+    private static final Permit NONE = new Permit(null, 0, 0);
+
+    private final VelocityWindow[] windows;
+    private final LimitBatchRepository batchRepository;
+    private final VelocitySnapshotRepository snapshotRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final LongSupplier clock;
+    private final Map<Long, UserVelocity> velocities = new ConcurrentHashMap<>();
+
+    @Autowired
+    public VelocityLimiter(
+            LimitBatchRepository batchRepository,
+            VelocitySnapshotRepository snapshotRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${limit.velocity.minute.max-operations:0}") int minuteMaxOperations,
+            @Value("${limit.velocity.minute.max-amount:0}") BigDecimal minuteMaxAmount,
+            @Value("${limit.velocity.minute.buckets:60}") int minuteBuckets,
+            @Value("${limit.velocity.hour.max-operations:0}") int hourMaxOperations,
+            @Value("${limit.velocity.hour.max-amount:0}") BigDecimal hourMaxAmount,
+            @Value("${limit.velocity.hour.buckets:60}") int hourBuckets) {
+        this(List.of(
+                        new VelocityWindow("minute", Duration.ofMinutes(1), minuteBuckets,
+                                minuteMaxOperations, Money.fromDecimal(minuteMaxAmount)),
+                        new VelocityWindow("hour", Duration.ofHours(1), hourBuckets,
+                                hourMaxOperations, Money.fromDecimal(hourMaxAmount))),
+                batchRepository, snapshotRepository, transactionManager, System::currentTimeMillis);
+    }
+
+    public VelocityLimiter(List<VelocityWindow> windows,
+                           LimitBatchRepository batchRepository,
+                           VelocitySnapshotRepository snapshotRepository,
+                           PlatformTransactionManager transactionManager,
+                           LongSupplier clock) {
+        this.windows = windows.stream().filter(VelocityWindow::isEnabled).toArray(VelocityWindow[]::new);
+        this.batchRepository = batchRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return windows.length > 0;
+    }
+
+    /**
+     * Учитывает операцию на amount копеек во всех окнах пользователя.
+     *
+     * @return разрешение, по которому операцию можно снять, если она не выполнится
+     * @throws VelocityLimitExceededException если операция не помещается хотя бы в одно окно
+     */
+    public Permit acquire(Long userId, long amount) {
+        if (windows.length == 0) {
+            return NONE;
+        }
+        long now = clock.getAsLong();
+        while (true) {
+            UserVelocity velocity = velocities.computeIfAbsent(userId, id -> new UserVelocity(windows));
+            int result = velocity.tryAcquire(windows, now, amount);
+            if (result == UserVelocity.ACQUIRED) {
+                return new Permit(userId, amount, now);
+            }
+            if (result != UserVelocity.RETIRED) {
+                throw exceeded(windows[result]);
+            }
+            // Пустые окна пользователя только что убраны снимком, берем новые
+            velocities.remove(userId, velocity);
+        }
+    }
+
+    /**
+     * Снимает с окон операцию, которая не выполнилась
+     */
+    public void release(Permit permit) {
+        if (permit == NONE) {
+            return;
+        }
+        UserVelocity velocity = velocities.get(permit.userId);
+        if (velocity != null) {
+            velocity.release(permit.atMillis, permit.amount);
+        }
+    }
+
+    /**
+     * Восстанавливает окна из последних снимков, постранично по id
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restore() {
+        if (windows.length == 0) {
+            return;
+        }
+        try {
+            long now = clock.getAsLong();
+            long afterId = 0;
+            int loaded = 0;
+            List<VelocitySnapshot> page;
+            do {
+                page = snapshotRepository.findPageAfter(afterId, PageRequest.of(0, SNAPSHOT_CHUNK_SIZE));
+                for (VelocitySnapshot snapshot : page) {
+                    int window = indexOf(snapshot.getWindowName());
+                    if (window >= 0) {
+                        velocities.computeIfAbsent(snapshot.getUserId(), id -> new UserVelocity(windows))
+                                .restore(window, now, snapshot.getBuckets());
+                    }
+                    afterId = snapshot.getId();
+                }
+                loaded += page.size();
+            } while (page.size() == SNAPSHOT_CHUNK_SIZE);
+            logger.info("Velocity windows restored from {} snapshots", loaded);
+        } catch (Exception e) {
+            logger.error("Failed to restore velocity windows, counting from zero", e);
+        }
+    }
+
+    /**
+     * Пишет окна, изменившиеся с прошлого снимка, и убирает из памяти пользователей с пустыми окнами
+     */
+    @Scheduled(fixedDelayString = "${limit.velocity.snapshot-ms:10000}")
+    public void snapshot() {
+        if (windows.length == 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        List<Long> userIds = new ArrayList<>();
+        List<VelocitySnapshotRow> rows = new ArrayList<>();
+        for (Map.Entry<Long, UserVelocity> entry : velocities.entrySet()) {
+            Long userId = entry.getKey();
+            UserVelocity velocity = entry.getValue();
+            byte[][] encoded = velocity.snapshot(now);
+            if (encoded == null) {
+                continue;
+            }
+            if (encoded.length == 0) {
+                velocities.remove(userId, velocity);
+            }
+            userIds.add(userId);
+            for (int i = 0; i < encoded.length; i++) {
+                rows.add(new VelocitySnapshotRow(userId, windows[i].name(), encoded[i]));
+            }
+            if (userIds.size() >= SNAPSHOT_CHUNK_SIZE) {
+                write(userIds, rows);
+                userIds = new ArrayList<>();
+                rows = new ArrayList<>();
+            }
+        }
+        if (!userIds.isEmpty()) {
+            write(userIds, rows);
+        }
+    }
+
+    private void write(List<Long> userIds, List<VelocitySnapshotRow> rows) {
+        try {
+            transactionTemplate.executeWithoutResult(
+                    status -> batchRepository.replaceVelocitySnapshots(userIds, rows));
+        } catch (Exception e) {
+            logger.warn("Failed to snapshot velocity windows of {} users, retrying on the next run",
+                    userIds.size(), e);
+            for (Long userId : userIds) {
+                UserVelocity velocity = velocities.get(userId);
+                if (velocity != null) {
+                    velocity.markDirty();
+                }
+            }
+        }
+    }
+
+    private int indexOf(String windowName) {
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i].name().equals(windowName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static VelocityLimitExceededException exceeded(VelocityWindow window) {
+        List<String> limits = new ArrayList<>(2);
+        if (window.maxOperations() > 0) {
+            limits.add(window.maxOperations() + " operations");
+        }
+        if (window.maxAmount() > 0) {
+            limits.add(Money.toDecimal(window.maxAmount()).toPlainString());
+        }
+        return new VelocityLimitExceededException(
+                "Velocity limit exceeded: at most " + String.join(" and ", limits) + " per " + window.name());
+    }
+
+    /**
+     * Учтенная операция: пользователь, сумма и момент, в бакет которого она попала
+     */
+    public static final class Permit {
+        private final Long userId;
+        private final long amount;
+        private final long atMillis;
+
+        private Permit(Long userId, long amount, long atMillis) {
+            this.userId = userId;
+            this.amount = amount;
+            this.atMillis = atMillis;
+        }
+    }
+}
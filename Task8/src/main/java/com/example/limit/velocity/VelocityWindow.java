@@ -0,0 +1,33 @@
+package com.example.limit.velocity;
+
+import java.time.Duration;
+
+/**
+ * Настройки одного скользящего окна: длительность, число бакетов и пределы.
+ * Нулевой предел не проверяется.
+ *
+ * @param name          имя окна в настройках и в таблице снимков (minute, hour)
+ * @param length        длина окна
+ * @param buckets       на сколько бакетов делится окно: точность скольжения - length / buckets
+ * @param maxOperations максимум операций за окно
+ * @param maxAmount     максимум суммы за окно в копейках
+ */
+public record VelocityWindow(String name, Duration length, int buckets, int maxOperations, long maxAmount) {
+
+    static final int MAX_BUCKETS = 1000;
+
+    public VelocityWindow {
+        if (buckets <= 0 || buckets > MAX_BUCKETS || maxOperations < 0 || maxAmount < 0
+                || length.toMillis() % buckets != 0) {
+            throw new IllegalArgumentException("Invalid limit.velocity." + name + " settings");
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxOperations > 0 || maxAmount > 0;
+    }
+
+    long bucketMillis() {
+        return length.toMillis() / buckets;
+    }
+}
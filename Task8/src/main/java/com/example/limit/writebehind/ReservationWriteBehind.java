@@ -0,0 +1,328 @@
+package com.example.limit.writebehind;
+
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.exception.VelocityLimitExceededException;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitBatchRepository.ReservationRow;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.service.ReservationBatchProcessor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Групповой коммит резервов и подтверждений: записи из параллельных вызовов копятся в очереди,
+ * и один поток пишет их пачкой - один JDBC batch на шаг и один коммит на пачку.
+ * <p>
+ * Пачка закрывается через limit.write-behind.max-delay-ms после первой записи или при
+ * limit.write-behind.max-batch записях. Вызывающий ждет коммита своей пачки, поэтому ответ
+ * по-прежнему означает, что изменение уже в БД. Если пачка падает целиком, ее записи
+ * повторяются по одной, каждая в своей транзакции.
+ */
+@Component
+public class ReservationWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationWriteBehind.class);
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final ReservationBatchProcessor batchProcessor;
+    private final LimitBatchRepository batchRepository;
+    private final LimitReservationRepository reservationRepository;
+    private final LazyLimitReset lazyReset;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private Thread flusher;
+
+    public ReservationWriteBehind(
+            ReservationBatchProcessor batchProcessor,
+            LimitBatchRepository batchRepository,
+            LimitReservationRepository reservationRepository,
+            LazyLimitReset lazyReset,
+            PlatformTransactionManager transactionManager,
+            @Value("${limit.write-behind.enabled:false}") boolean enabled,
+            @Value("${limit.write-behind.max-delay-ms:2}") long maxDelayMillis,
+            @Value("${limit.write-behind.max-batch:500}") int maxBatch) {
+        if (maxDelayMillis < 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("limit.write-behind.max-delay-ms must not be negative " +
+                    "and limit.write-behind.max-batch must be positive");
+        }
+        this.batchProcessor = batchProcessor;
+        this.batchRepository = batchRepository;
+        this.reservationRepository = reservationRepository;
+        this.lazyReset = lazyReset;
+        this.transactionTemplate = enabled ? new TransactionTemplate(transactionManager) : null;
+        this.enabled = enabled;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxBatch = maxBatch;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::run, "limit-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Дописывает уже принятые записи и останавливает поток. Записи, поставленные позже, отклоняются.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        Write write;
+        while ((write = queue.poll()) != null) {
+            write.result().completeExceptionally(new IllegalStateException("Limit write-behind is stopped"));
+        }
+    }
+
+    /**
+     * Резервирует amount копеек в ближайшей пачке и ждет ее коммита.
+     *
+     * @throws InsufficientLimitException если доступного лимита не хватает
+     * @throws DataIntegrityViolationException если резерв с таким operationId уже есть
+     */
+    public ReservationResponse reserve(Long userId, long amount, String operationId) {
+        return submit(new Write(Kind.RESERVE, new ReservationRow(userId, amount, operationId)));
+    }
+
+    /**
+     * Подтверждает pending-резерв в ближайшей пачке и ждет ее коммита.
+     *
+     * @throws IllegalStateException если резерв уже не в статусе PENDING
+     */
+    public void confirm(LimitReservation reservation) {
+        submit(new Write(Kind.CONFIRM,
+                new ReservationRow(reservation.getUserId(), reservation.getAmount(), reservation.getOperationId())));
+    }
+
+    private ReservationResponse submit(Write write) {
+        if (!running) {
+            throw new IllegalStateException("Limit write-behind is stopped");
+        }
+        queue.add(write);
+        try {
+            return write.result().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            // Запись останется в очереди и может быть закоммичена позже
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for group commit", e);
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Limit write-behind failed to flush {} writes", batch.size(), e);
+                for (Write write : batch) {
+                    write.result().completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        try {
+            commit(batch);
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result().completeExceptionally(e);
+                return;
+            }
+            logger.warn("Group commit of {} writes failed, retrying write by write", batch.size(), e);
+        }
+
+        for (Write write : batch) {
+            try {
+                commit(List.of(write));
+            } catch (RuntimeException e) {
+                write.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Пишет пачку в одной транзакции и только после коммита отвечает вызывающим
+     */
+    private void commit(List<Write> batch) {
+        Map<Write, Object> outcomes = transactionTemplate.execute(status -> {
+            Map<Write, Object> result = new HashMap<>();
+            List<Write> reserves = new ArrayList<>(batch.size());
+            List<Write> confirms = new ArrayList<>(batch.size());
+            for (Write write : batch) {
+                (write.kind() == Kind.RESERVE ? reserves : confirms).add(write);
+            }
+            if (!reserves.isEmpty()) {
+                reserveAll(reserves, result);
+            }
+            if (!confirms.isEmpty()) {
+                confirmAll(confirms, result);
+            }
+            return result;
+        });
+
+        for (Write write : batch) {
+            Object outcome = outcomes.get(write);
+            if (outcome instanceof RuntimeException e) {
+                write.result().completeExceptionally(e);
+            } else {
+                write.result().complete((ReservationResponse) outcome);
+            }
+        }
+    }
+
+    private void reserveAll(List<Write> reserves, Map<Write, Object> outcomes) {
+        // Строки user_limits блокируются в порядке userId, как в пакетном резервировании
+        reserves.sort(Comparator.comparing(write -> write.row().userId()));
+        List<ReservationBatchItem> items = new ArrayList<>(reserves.size());
+        for (Write write : reserves) {
+            ReservationRow row = write.row();
+            items.add(new ReservationBatchItem(row.userId(), Money.toDecimal(row.amount()), row.operationId()));
+        }
+
+        List<ReservationBatchResult> results = batchProcessor.reserveChunk(items);
+        List<String> reserved = new ArrayList<>(results.size());
+        for (ReservationBatchResult result : results) {
+            if (result.outcome() == ReservationBatchResult.Outcome.RESERVED) {
+                reserved.add(result.operationId());
+            }
+        }
+        Map<String, LimitReservation> saved = new HashMap<>();
+        if (!reserved.isEmpty()) {
+            for (LimitReservation reservation : reservationRepository.findByOperationIdIn(reserved)) {
+                saved.put(reservation.getOperationId(), reservation);
+            }
+        }
+
+        for (int i = 0; i < reserves.size(); i++) {
+            ReservationBatchResult result = results.get(i);
+            outcomes.put(reserves.get(i), switch (result.outcome()) {
+                case RESERVED -> new ReservationResponse(saved.get(result.operationId()));
+                case INSUFFICIENT_LIMIT -> new InsufficientLimitException(result.message());
+                case DUPLICATE_OPERATION -> new DataIntegrityViolationException(result.message());
+                case VELOCITY_LIMIT_EXCEEDED -> new VelocityLimitExceededException(result.message());
+                case FAILED -> new IllegalArgumentException(result.message());
+            });
+        }
+    }
+
+    private void confirmAll(List<Write> confirms, Map<Write, Object> outcomes) {
+        // При ленивом сбросе резервы прошлого дня отменяются вместе со сбросом строки
+        Set<Long> userIds = new LinkedHashSet<>();
+        List<ReservationRow> rows = new ArrayList<>(confirms.size());
+        for (Write write : confirms) {
+            userIds.add(write.row().userId());
+            rows.add(write.row());
+        }
+        lazyReset.rollOverStale(userIds);
+
+        // Статус меняется только из PENDING, поэтому повтор в той же пачке не спишет лимит дважды
+        int[] counts = batchRepository.confirmPendingAll(rows);
+        List<ReservationRow> confirmed = new ArrayList<>(rows.size());
+        for (int i = 0; i < confirms.size(); i++) {
+            if (counts[i] > 0) {
+                confirmed.add(rows.get(i));
+                outcomes.put(confirms.get(i), null);
+            } else {
+                outcomes.put(confirms.get(i), new IllegalStateException("Reservation is not in PENDING status"));
+            }
+        }
+
+        int[] applied = batchRepository.applyConfirmedAll(confirmed);
+        for (int i = 0; i < applied.length; i++) {
+            if (applied[i] == 0) {
+                // Откатываем пачку: при повторе по одной ошибку получит только эта запись
+                throw new IllegalStateException("User limit not found");
+            }
+        }
+    }
+
+    private enum Kind {
+        RESERVE,
+        CONFIRM
+    }
+
+    /**
+     * Запись в очереди. Подтверждение завершается с null.
+     */
+    private record Write(Kind kind, ReservationRow row, CompletableFuture<ReservationResponse> result) {
+
+        Write(Kind kind, ReservationRow row) {
+            this(kind, row, new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.payment.cache;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.exception.ProductNotFoundException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш ответов продуктового сервиса: продукт по productId и список продуктов по userId.
+ * <p>
+ * У продукта два срока. Владелец, номер счета и тип меняются редко и помнятся
+ * payment.product-cache.ownership-ttl; баланс отдается только в пределах payment.product-cache.balance-ttl.
+ * После истечения баланса запись еще отвечает на {@link #owner}, чтобы чужой продукт отклонялся без
+ * вызова сервиса. Списки содержат балансы и живут balance-ttl. Ответ 404 запоминается на
+ * payment.product-cache.not-found-ttl и повторяется как ProductNotFoundException (негативное кэширование).
+ * <p>
+ * Размер каждой карты ограничен payment.product-cache.max-size, вытеснение в порядке добавления,
+ * как в IdempotencyCache. Попадания, промахи и вытеснения публикуются как cache.gets, cache.evictions
+ * и cache.size с тегом cache.
+ */
+@Component
+public class ProductCache implements MeterBinder {
+
+    private final Store<Long, ProductEntry> products;
+    private final Store<Long, ListEntry> lists;
+    private final LongAdder negativeHits = new LongAdder();
+    private final boolean enabled;
+    private final long ownershipTtlNanos;
+    private final long balanceTtlNanos;
+    private final long notFoundTtlNanos;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public ProductCache(
+            @Value("${payment.product-cache.enabled:true}") boolean enabled,
+            @Value("${payment.product-cache.max-size:100000}") int maxSize,
+            @Value("${payment.product-cache.ownership-ttl:PT10M}") Duration ownershipTtl,
+            @Value("${payment.product-cache.balance-ttl:PT5S}") Duration balanceTtl,
+            @Value("${payment.product-cache.not-found-ttl:PT10S}") Duration notFoundTtl) {
+        this(enabled, maxSize, ownershipTtl, balanceTtl, notFoundTtl, System::nanoTime);
+    }
+
+    ProductCache(boolean enabled, int maxSize, Duration ownershipTtl, Duration balanceTtl, Duration notFoundTtl,
+                 LongSupplier nanoClock) {
+        if (maxSize <= 0 || !isPositive(ownershipTtl) || !isPositive(balanceTtl) || !isPositive(notFoundTtl)
+                || balanceTtl.compareTo(ownershipTtl) > 0) {
+            throw new IllegalArgumentException("Invalid payment.product-cache settings");
+        }
+        this.products = new Store<>(maxSize);
+        this.lists = new Store<>(maxSize);
+        this.enabled = enabled;
+        this.ownershipTtlNanos = ownershipTtl.toNanos();
+        this.balanceTtlNanos = balanceTtl.toNanos();
+        this.notFoundTtlNanos = notFoundTtl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Продукт со свежим балансом или null
+     *
+     * @throws ProductNotFoundException если сервис недавно ответил 404 на этот productId
+     */
+    public ProductResponse get(Long productId) {
+        long now = nanoClock.getAsLong();
+        ProductEntry entry = products.get(productId, now);
+        if (entry != null && entry.product == null) {
+            negativeHits.increment();
+            throw new ProductNotFoundException(entry.notFoundMessage);
+        }
+        if (entry == null || entry.balanceExpiresAtNanos - now <= 0) {
+            products.misses.increment();
+            return null;
+        }
+        products.hits.increment();
+        return entry.product;
+    }
+
+    /**
+     * Владелец продукта, пока он не старше ownership-ttl, иначе null. Не учитывается в статистике:
+     * вызывается после промаха {@link #get}.
+     */
+    public Long owner(Long productId) {
+        ProductEntry entry = products.get(productId, nanoClock.getAsLong());
+        return entry == null || entry.product == null ? null : entry.product.userId();
+    }
+
+    public void put(ProductResponse product) {
+        if (!enabled) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        products.put(product.id(), new ProductEntry(product.id(), product, null,
+                now + balanceTtlNanos, now + ownershipTtlNanos), now);
+    }
+
+    public void putNotFound(Long productId, String message) {
+        if (!enabled) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        products.put(productId, new ProductEntry(productId, null, message, now, now + notFoundTtlNanos), now);
+    }
+
+    /**
+     * Продукты пользователя не старше balance-ttl или null
+     */
+    public List<ProductResponse> getProducts(Long userId) {
+        ListEntry entry = lists.get(userId, nanoClock.getAsLong());
+        if (entry == null) {
+            lists.misses.increment();
+            return null;
+        }
+        lists.hits.increment();
+        return entry.products;
+    }
+
+    /**
+     * Запоминает список и каждый продукт из него
+     */
+    public void putProducts(Long userId, List<ProductResponse> userProducts) {
+        if (!enabled) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        lists.put(userId, new ListEntry(userId, List.copyOf(userProducts), now + balanceTtlNanos), now);
+        for (ProductResponse product : userProducts) {
+            put(product);
+        }
+    }
+
+    public void clear() {
+        products.clear();
+        lists.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        products.bindTo(registry, "products");
+        lists.bindTo(registry, "user-products");
+        FunctionCounter.builder("cache.gets", negativeHits, LongAdder::sum)
+                .tag("cache", "products")
+                .tag("result", "not-found")
+                .description("Product lookups answered by a cached 404")
+                .register(registry);
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return !duration.isNegative() && !duration.isZero();
+    }
+
+    private interface Expiring<K> {
+        K key();
+
+        long expiresAtNanos();
+    }
+
+    /**
+     * Карта с вытеснением в порядке добавления и счетчиками для метрик. Продукт перезаписывается при каждом
+     * обновлении баланса, а старые узлы очереди живут до ownership-ttl, поэтому очередь ограничена
+     * двумя max-size: сверх этого голова снимается, даже если еще не истекла.
+     */
+    private static final class Store<K, E extends Expiring<K>> {
+
+        private final ConcurrentHashMap<K, E> entries = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedQueue<E> insertionOrder = new ConcurrentLinkedQueue<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final int maxSize;
+
+        private Store(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        E get(K key, long now) {
+            E entry = entries.get(key);
+            return entry == null || entry.expiresAtNanos() - now <= 0 ? null : entry;
+        }
+
+        void put(K key, E entry, long now) {
+            entries.put(key, entry);
+            insertionOrder.add(entry);
+            queued.incrementAndGet();
+            E head;
+            while ((head = insertionOrder.peek()) != null
+                    && (head.expiresAtNanos() - now <= 0 || entries.size() > maxSize || queued.get() > 2 * maxSize)) {
+                if (insertionOrder.remove(head)) {
+                    queued.decrementAndGet();
+                    if (entries.remove(head.key(), head)) {
+                        evictions.increment();
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            entries.clear();
+            insertionOrder.clear();
+            queued.set(0);
+        }
+
+        void bindTo(MeterRegistry registry, String name) {
+            FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                    .tag("cache", name).tag("result", "hit")
+                    .description("Product service answers served from the cache")
+                    .register(registry);
+            FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                    .tag("cache", name).tag("result", "miss")
+                    .description("Product lookups that went to the product service")
+                    .register(registry);
+            FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+                    .tag("cache", name)
+                    .description("Entries removed because they expired or the cache was full")
+                    .register(registry);
+            Gauge.builder("cache.size", entries, ConcurrentHashMap::size)
+                    .tag("cache", name)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * product == null - запомненный 404
+     */
+    private record ProductEntry(Long key, ProductResponse product, String notFoundMessage,
+                                long balanceExpiresAtNanos, long expiresAtNanos) implements Expiring<Long> {
+    }
+
+    private record ListEntry(Long key, List<ProductResponse> products, long expiresAtNanos) implements Expiring<Long> {
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.payment.client;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.exception.ProductServiceIntegrationException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Неблокирующий вариант {@link ProductServiceClient} на HttpClient.sendAsync: поток не ждет ответа,
+ * результат приходит в CompletableFuture. Ответы с ошибкой разбирает тот же
+ * {@link ProductServiceResponseErrorHandler}, поэтому исключения те же, что у RestTemplate;
+ * сетевые ошибки и таймауты, как и у RestTemplate, приходят как ResourceAccessException.
+ * Одновременные запросы с одним ключом объединяются так же, как в ProductServiceClient.
+ */
+@Timed(value = "product.client.async", histogram = true, percentiles = {0.5, 0.95, 0.99})
+@Component
+public class AsyncProductServiceClient implements MeterBinder {
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final ProductServiceResponseErrorHandler errorHandler;
+    private final String baseUrl;
+    private final Duration readTimeout;
+    private final SingleFlight<Long, List<ProductResponse>> userProductsFlights = new SingleFlight<>();
+    private final SingleFlight<Long, ProductResponse> productFlights = new SingleFlight<>();
+
+    public AsyncProductServiceClient(HttpClient productServiceHttpClient,
+                                     ObjectMapper objectMapper,
+                                     ProductServiceResponseErrorHandler errorHandler,
+                                     @Value("${payment.product-service.base-url}") String baseUrl,
+                                     @Value("${payment.product-service.async.read-timeout:PT5S}") Duration readTimeout) {
+        this.httpClient = productServiceHttpClient;
+        this.objectMapper = objectMapper;
+        this.errorHandler = errorHandler;
+        this.baseUrl = baseUrl;
+        this.readTimeout = readTimeout;
+    }
+
+    public CompletableFuture<List<ProductResponse>> getProductsForUser(Long userId) {
+        return userProductsFlights.executeAsync(userId, () -> fetchProductsForUser(userId));
+    }
+
+    public CompletableFuture<ProductResponse> getProductById(Long productId) {
+        return productFlights.executeAsync(productId, () -> fetchProductById(productId));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        userProductsFlights.bindTo(registry, "async", "user-products");
+        productFlights.bindTo(registry, "async", "product");
+    }
+
+    private CompletableFuture<List<ProductResponse>> fetchProductsForUser(Long userId) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/api/v1/users/{userId}/products")
+                .buildAndExpand(userId)
+                .toUri();
+        return get(uri, ProductResponse[].class).thenApply(body -> body == null || body.length == 0
+                ? Collections.emptyList()
+                : Arrays.asList(body));
+    }
+
+    private CompletableFuture<ProductResponse> fetchProductById(Long productId) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/api/v1/products/{productId}")
+                .buildAndExpand(productId)
+                .toUri();
+        return get(uri, ProductResponse.class).thenApply(product -> {
+            if (product == null) {
+                throw new ProductServiceIntegrationException("Product service returned empty body for product %d"
+                        .formatted(productId));
+            }
+            return product;
+        });
+    }
+
+    private <T> CompletableFuture<T> get(URI uri, Class<T> type) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw transportError(uri, error);
+                    }
+                    return read(response, type);
+                });
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, Class<T> type) {
+        try {
+            BufferedResponse clientResponse = new BufferedResponse(response);
+            if (errorHandler.hasError(clientResponse)) {
+                errorHandler.handleError(clientResponse);
+            }
+            byte[] body = response.body();
+            return body.length == 0 ? null : objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static RuntimeException transportError(URI uri, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof IOException ioException) {
+            return new ResourceAccessException("I/O error on GET request for \"%s\": %s"
+                    .formatted(uri, cause.getMessage()), ioException);
+        }
+        return cause instanceof RuntimeException runtimeException ? runtimeException : new CompletionException(cause);
+    }
+
+    /**
+     * Прочитанный ответ HttpClient в виде ClientHttpResponse для ResponseErrorHandler
+     */
+    private static final class BufferedResponse implements ClientHttpResponse {
+
+        private final HttpResponse<byte[]> response;
+
+        BufferedResponse(HttpResponse<byte[]> response) {
+            this.response = response;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.statusCode());
+        }
+
+        @Override
+        public String getStatusText() {
+            return "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            HttpHeaders headers = new HttpHeaders();
+            response.headers().map().forEach(headers::addAll);
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(response.body());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.payment.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Склейка одиночных запросов в пакетный. Первый вызывающий открывает пакет и, если в этот момент
+ * выполняется другой запрос, ждет window или заполнения до maxSize, затем сам выполняет запрос за всех,
+ * кто успел присоединиться, и раздает результаты. Без параллельных запросов ключ уходит сразу
+ * одиночным запросом, поэтому без нагрузки поведение не меняется и window не тратится.
+ * Отдельного потока нет: лидер ждет window на условии замка пакета.
+ */
+final class MicroBatcher<K, V> {
+
+    private final Function<K, V> singleCall;
+    private final Function<List<K>, Map<K, V>> batchCall;
+    private final Function<K, RuntimeException> missing;
+    private final long windowNanos;
+    private final int maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition filled = lock.newCondition();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedKeys = new LongAdder();
+    private Batch<K, V> open;
+    /** Вызовы load, которые еще не получили результат; изменяется только под lock */
+    private int active;
+
+    /**
+     * @param missing исключение для ключа, которого нет в ответе пакетного запроса
+     */
+    MicroBatcher(Function<K, V> singleCall, Function<List<K>, Map<K, V>> batchCall,
+                 Function<K, RuntimeException> missing, Duration window, int maxSize) {
+        if (window.isNegative() || maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid micro-batch settings");
+        }
+        this.singleCall = singleCall;
+        this.batchCall = batchCall;
+        this.missing = missing;
+        this.windowNanos = window.toNanos();
+        this.maxSize = maxSize;
+    }
+
+    V load(K key) {
+        Batch<K, V> batch;
+        CompletableFuture<V> result;
+        boolean leader;
+        lock.lock();
+        try {
+            active++;
+            leader = open == null;
+            if (leader) {
+                open = new Batch<>();
+            }
+            batch = open;
+            result = batch.results.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (batch.results.size() >= maxSize) {
+                open = null;
+                filled.signal();
+            }
+            if (leader) {
+                awaitWindow(batch);
+            }
+        } catch (RuntimeException | Error e) {
+            active--;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (leader) {
+                dispatch(batch);
+            }
+            return await(result);
+        } finally {
+            lock.lock();
+            try {
+                active--;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void bindTo(MeterRegistry registry, String operation) {
+        FunctionCounter.builder("product.client.batches", batches, LongAdder::sum)
+                .tag("operation", operation)
+                .description("Requests sent to the product service by the micro-batcher")
+                .register(registry);
+        FunctionCounter.builder("product.client.batched.lookups", batchedKeys, LongAdder::sum)
+                .tag("operation", operation)
+                .description("Single lookups served by those requests")
+                .register(registry);
+    }
+
+    /**
+     * Вызывается под lock. Ждать есть смысл, только пока выполняется другой запрос: за это время
+     * накопятся ключи. Прерывание не бросает пакет: запрос уходит сразу, чтобы ожидающие не зависли.
+     */
+    private void awaitWindow(Batch<K, V> batch) {
+        long remaining = active > 1 ? windowNanos : 0;
+        try {
+            while (open == batch && remaining > 0) {
+                remaining = filled.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (open == batch) {
+            open = null;
+        }
+    }
+
+    private void dispatch(Batch<K, V> batch) {
+        Map<K, CompletableFuture<V>> results = batch.results;
+        batches.increment();
+        batchedKeys.add(results.size());
+        try {
+            if (results.size() == 1) {
+                Map.Entry<K, CompletableFuture<V>> only = results.entrySet().iterator().next();
+                only.getValue().complete(singleCall.apply(only.getKey()));
+                return;
+            }
+            Map<K, V> loaded = batchCall.apply(new ArrayList<>(results.keySet()));
+            results.forEach((key, result) -> {
+                V value = loaded.get(key);
+                if (value != null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(missing.apply(key));
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            results.values().forEach(result -> result.completeExceptionally(e));
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ключи и ожидающие результаты одного пакета; изменяется только под lock до закрытия пакета
+     */
+    private static final class Batch<K, V> {
+        private final Map<K, CompletableFuture<V>> results = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.payment.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Фабрика запросов RestTemplate на пуле соединений Apache HttpClient 5 с keep-alive HTTP/1.1.
+ * Соединения переиспользуются между вызовами; простаивающие дольше idleTimeout закрываются фоновым потоком,
+ * а любое соединение живет не дольше timeToLive, чтобы запросы перераспределялись по новым экземплярам сервиса.
+ * <p>
+ * Как MeterBinder публикует httpcomponents.httpclient.pool.* (занятые, свободные, ожидающие соединения)
+ * и таймер httpcomponents.httpclient.pool.acquire - время ожидания соединения из пула.
+ * Клиент закрывается вместе с контекстом (DisposableBean родителя).
+ */
+public class PooledClientHttpRequestFactory extends HttpComponentsClientHttpRequestFactory implements MeterBinder {
+
+    /**
+     * @param maxPerRoute    соединений на один хост:порт
+     * @param maxTotal       соединений всего
+     * @param acquireTimeout сколько ждать свободного соединения, когда пул исчерпан
+     */
+    public record Settings(
+            int maxPerRoute,
+            int maxTotal,
+            Duration connectTimeout,
+            Duration readTimeout,
+            Duration acquireTimeout,
+            Duration idleTimeout,
+            Duration timeToLive
+    ) {
+    }
+
+    private final String name;
+    private final TimedConnectionManager connectionManager;
+
+    /**
+     * @param name тег httpclient у метрик
+     */
+    public PooledClientHttpRequestFactory(String name, Settings settings) {
+        this(name, settings, new TimedConnectionManager());
+    }
+
+    private PooledClientHttpRequestFactory(String name, Settings settings, TimedConnectionManager connectionManager) {
+        super(createClient(settings, connectionManager));
+        this.name = name;
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, name).bindTo(registry);
+        connectionManager.acquireTimer = Timer.builder("httpcomponents.httpclient.pool.acquire")
+                .description("Time spent waiting for a pooled connection")
+                .tag("httpclient", name)
+                .register(registry);
+    }
+
+    private static CloseableHttpClient createClient(Settings settings, PoolingHttpClientConnectionManager connectionManager) {
+        if (settings.maxPerRoute() <= 0 || settings.maxTotal() < settings.maxPerRoute()) {
+            throw new IllegalArgumentException("Invalid HTTP connection pool size: " + settings);
+        }
+        connectionManager.setMaxTotal(settings.maxTotal());
+        connectionManager.setDefaultMaxPerRoute(settings.maxPerRoute());
+        connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(settings.connectTimeout()))
+                .setSocketTimeout(Timeout.of(settings.readTimeout()))
+                .setTimeToLive(TimeValue.of(settings.timeToLive()))
+                .build());
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(settings.acquireTimeout()))
+                        .build())
+                .disableCookieManagement()
+                .disableContentCompression()
+                .disableAuthCaching()
+                .evictIdleConnections(TimeValue.of(settings.idleTimeout()))
+                .evictExpiredConnections()
+                .build();
+    }
+
+    /**
+     * Замеряет ожидание соединения: lease только ставит запрос в очередь пула, ждет get
+     */
+    private static final class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private volatile Timer acquireTimer;
+
+        @Override
+        public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+            LeaseRequest lease = super.lease(id, route, requestTimeout, state);
+            Timer timer = acquireTimer;
+            if (timer == null) {
+                return lease;
+            }
+            return new LeaseRequest() {
+                @Override
+                public ConnectionEndpoint get(Timeout timeout)
+                        throws InterruptedException, ExecutionException, TimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return lease.get(timeout);
+                    } finally {
+                        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return lease.cancel();
+                }
+            };
+        }
+    }
+}
@@ -1,30 +1,92 @@
 package com.example.payment.client;
 
 import com.example.dto.ProductResponse;
+import com.example.payment.exception.ProductNotFoundException;
 import com.example.payment.exception.ProductServiceIntegrationException;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+/**
+ * Одновременные запросы одного продукта или продуктов одного пользователя объединяются
+ * ({@link SingleFlight}): в сервис уходит один HTTP-запрос, его ответ или исключение получают все.
+ * Одновременные запросы разных продуктов склеиваются ({@link MicroBatcher}) в GET /api/v1/products?ids=...,
+ * если payment.product-service.batch.enabled.
+ */
+@Timed(value = "product.client", histogram = true, percentiles = {0.5, 0.95, 0.99})
 @Component
-public class ProductServiceClient {
+public class ProductServiceClient implements MeterBinder {
 
     private final RestTemplate restTemplate;
     private final String baseUrl;
+    private final SingleFlight<Long, List<ProductResponse>> userProductsFlights = new SingleFlight<>();
+    private final SingleFlight<Long, ProductResponse> productFlights = new SingleFlight<>();
+    private final MicroBatcher<Long, ProductResponse> productBatcher;
+    private final int batchMaxSize;
 
     public ProductServiceClient(RestTemplate restTemplate,
-                                @Value("${payment.product-service.base-url}") String baseUrl) {
+                                @Value("${payment.product-service.base-url}") String baseUrl,
+                                @Value("${payment.product-service.batch.enabled:false}") boolean batchEnabled,
+                                @Value("${payment.product-service.batch.window:PT0.002S}") Duration batchWindow,
+                                @Value("${payment.product-service.batch.max-size:100}") int batchMaxSize) {
         this.restTemplate = restTemplate;
         this.baseUrl = baseUrl;
+        this.batchMaxSize = batchMaxSize;
+        this.productBatcher = batchEnabled
+                ? new MicroBatcher<>(this::fetchProductById, this::fetchProductsByIds, ProductServiceClient::missingProduct,
+                batchWindow, batchMaxSize)
+                : null;
     }
 
     public List<ProductResponse> getProductsForUser(Long userId) {
+        return userProductsFlights.execute(userId, () -> fetchProductsForUser(userId));
+    }
+
+    public ProductResponse getProductById(Long productId) {
+        return productFlights.execute(productId, () -> productBatcher != null
+                ? productBatcher.load(productId)
+                : fetchProductById(productId));
+    }
+
+    /**
+     * Продукты по списку id, частями не больше payment.product-service.batch.max-size.
+     * Ненайденные id в результат не попадают.
+     */
+    public List<ProductResponse> getProductsByIds(Collection<Long> productIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(productIds));
+        List<ProductResponse> products = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += batchMaxSize) {
+            products.addAll(fetchProductsByIds(ids.subList(from, Math.min(from + batchMaxSize, ids.size()))).values());
+        }
+        return products;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        userProductsFlights.bindTo(registry, "blocking", "user-products");
+        productFlights.bindTo(registry, "blocking", "product");
+        if (productBatcher != null) {
+            productBatcher.bindTo(registry, "product");
+        }
+    }
+
+    private List<ProductResponse> fetchProductsForUser(Long userId) {
         URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
                 .path("/api/v1/users/{userId}/products")
                 .buildAndExpand(userId)
@@ -36,7 +98,7 @@ public class ProductServiceClient {
         return Arrays.asList(body);
     }
 
-    public ProductResponse getProductById(Long productId) {
+    private ProductResponse fetchProductById(Long productId) {
         URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
                 .path("/api/v1/products/{productId}")
                 .buildAndExpand(productId)
@@ -48,6 +110,24 @@ public class ProductServiceClient {
         }
         return product;
     }
-}
 
+    private Map<Long, ProductResponse> fetchProductsByIds(List<Long> productIds) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/api/v1/products")
+                .queryParam("ids", productIds.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .build()
+                .toUri();
+        ProductResponse[] body = restTemplate.getForObject(uri, ProductResponse[].class);
+        Map<Long, ProductResponse> products = new LinkedHashMap<>();
+        if (body != null) {
+            for (ProductResponse product : body) {
+                products.put(product.id(), product);
+            }
+        }
+        return products;
+    }
 
+    private static ProductNotFoundException missingProduct(Long productId) {
+        return new ProductNotFoundException("Product service has no product %d".formatted(productId));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.payment.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одновременных запросов с одним ключом: первый вызывающий выполняет запрос, остальные
+ * ждут его результат или исключение. Ключ снимается с учета до того, как результат виден ожидающим,
+ * поэтому следующий вызов всегда идет за свежим ответом. Запись удаляется при любом исходе
+ * запроса, включая таймаут клиента: ожидающие ждут не дольше, чем таймауты самого запроса.
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Блокирующий вариант: ожидающие получают то же исключение, что и выполнивший запрос
+     */
+    V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+        try {
+            V result = call.get();
+            inFlight.remove(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Неблокирующий вариант: каждый вызывающий получает свою копию общего CompletableFuture,
+     * поэтому отмена одной копии не затрагивает остальных
+     */
+    CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+        try {
+            call.get().whenComplete((result, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                } else {
+                    flight.complete(result);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight.copy();
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    void bindTo(MeterRegistry registry, String client, String operation) {
+        FunctionCounter.builder("product.client.coalesced", coalesced, LongAdder::sum)
+                .tag("client", client)
+                .tag("operation", operation)
+                .description("Product service calls that joined an identical request already in flight")
+                .register(registry);
+        Gauge.builder("product.client.in.flight", inFlight, ConcurrentHashMap::size)
+                .tag("client", client)
+                .tag("operation", operation)
+                .description("Distinct product service requests currently in flight")
+                .register(registry);
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
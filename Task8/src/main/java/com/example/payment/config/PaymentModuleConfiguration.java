@@ -1,33 +1,73 @@
 package com.example.payment.config;
 
+import com.example.payment.client.PooledClientHttpRequestFactory;
 import com.example.payment.client.ProductServiceResponseErrorHandler;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
 import java.time.Duration;
 
 @Configuration
 public class PaymentModuleConfiguration {
 
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(5);
+
     @Bean
     public ProductServiceResponseErrorHandler productServiceResponseErrorHandler() {
         return new ProductServiceResponseErrorHandler();
     }
 
+    @Bean
+    @ConditionalOnProperty(name = "payment.product-service.pool.enabled", havingValue = "true", matchIfMissing = true)
+    public PooledClientHttpRequestFactory productServiceRequestFactory(
+            @Value("${payment.product-service.pool.max-per-route:50}") int maxPerRoute,
+            @Value("${payment.product-service.pool.max-total:200}") int maxTotal,
+            @Value("${payment.product-service.pool.acquire-timeout:PT1S}") Duration acquireTimeout,
+            @Value("${payment.product-service.pool.idle-timeout:PT30S}") Duration idleTimeout,
+            @Value("${payment.product-service.pool.time-to-live:PT5M}") Duration timeToLive) {
+        return new PooledClientHttpRequestFactory("product-service", new PooledClientHttpRequestFactory.Settings(
+                maxPerRoute, maxTotal, CONNECT_TIMEOUT, READ_TIMEOUT, acquireTimeout, idleTimeout, timeToLive));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "payment.product-service.pool.enabled", havingValue = "false")
+    public SimpleClientHttpRequestFactory productServiceSimpleRequestFactory() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(CONNECT_TIMEOUT);
+        requestFactory.setReadTimeout(READ_TIMEOUT);
+        return requestFactory;
+    }
+
+    /**
+     * HttpClient AsyncProductServiceClient: ответы ждет один поток-селектор, поэтому тысячи одновременных
+     * вызовов не занимают по потоку каждый
+     */
+    @Bean
+    public HttpClient productServiceHttpClient(
+            @Value("${payment.product-service.async.http-version:HTTP_1_1}") HttpClient.Version version) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
     @Bean
     public RestTemplate paymentRestTemplate(RestTemplateBuilder builder,
                                             ProductServiceResponseErrorHandler errorHandler,
+                                            ClientHttpRequestFactory productServiceRequestFactory,
                                             @Value("${payment.product-service.base-url}") String baseUrl) {
         return builder
-                .setConnectTimeout(Duration.ofSeconds(3))
-                .setReadTimeout(Duration.ofSeconds(5))
+                .requestFactory(() -> productServiceRequestFactory)
                 .rootUri(baseUrl)
                 .errorHandler(errorHandler)
                 .build();
     }
 }
-
-
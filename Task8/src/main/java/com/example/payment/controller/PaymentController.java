@@ -6,6 +6,7 @@ import com.example.payment.dto.PaymentResponse;
 import com.example.payment.service.PaymentService;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -15,6 +16,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Validated
 @RestController
@@ -22,19 +24,30 @@ import java.util.List;
 public class PaymentController {
 
     private final PaymentService paymentService;
-
-    public PaymentController(PaymentService paymentService) {
+    private final boolean async;
+
+    /**
+     * @param async ответы отдаются асинхронно: поток Tomcat освобождается, пока идет вызов продуктового сервиса.
+     *              false - вызов блокирует поток запроса
+     */
+    public PaymentController(PaymentService paymentService,
+                             @Value("${payment.async.enabled:true}") boolean async) {
         this.paymentService = paymentService;
+        this.async = async;
     }
 
     @GetMapping("/users/{userId}/products")
-    public List<ProductResponse> getUserProducts(@PathVariable @Min(1) Long userId) {
-        return paymentService.getProductsForUser(userId);
+    public CompletableFuture<List<ProductResponse>> getUserProducts(@PathVariable @Min(1) Long userId) {
+        return async
+                ? paymentService.getProductsForUserAsync(userId)
+                : CompletableFuture.completedFuture(paymentService.getProductsForUser(userId));
     }
 
     @PostMapping("/execute")
-    public PaymentResponse executePayment(@Valid @RequestBody PaymentRequest request) {
-        return paymentService.executePayment(request);
+    public CompletableFuture<PaymentResponse> executePayment(@Valid @RequestBody PaymentRequest request) {
+        return async
+                ? paymentService.executePaymentAsync(request)
+                : CompletableFuture.completedFuture(paymentService.executePayment(request));
     }
 }
 
@@ -1,38 +1,118 @@
 package com.example.payment.service;
 
 import com.example.dto.ProductResponse;
+import com.example.payment.cache.ProductCache;
+import com.example.payment.client.AsyncProductServiceClient;
 import com.example.payment.client.ProductServiceClient;
 import com.example.payment.dto.PaymentRequest;
 import com.example.payment.dto.PaymentResponse;
 import com.example.payment.dto.PaymentStatus;
 import com.example.payment.exception.InsufficientFundsException;
+import com.example.payment.exception.PaymentModuleException;
+import com.example.payment.exception.ProductNotFoundException;
 import com.example.payment.exception.ProductOwnershipException;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+@Timed(value = "payment.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
 @Service
 public class PaymentService {
 
     private final ProductServiceClient productServiceClient;
+    private final AsyncProductServiceClient asyncProductServiceClient;
+    private final ProductCache productCache;
 
-    public PaymentService(ProductServiceClient productServiceClient) {
+    public PaymentService(ProductServiceClient productServiceClient,
+                          AsyncProductServiceClient asyncProductServiceClient,
+                          ProductCache productCache) {
         this.productServiceClient = productServiceClient;
+        this.asyncProductServiceClient = asyncProductServiceClient;
+        this.productCache = productCache;
     }
 
     public List<ProductResponse> getProductsForUser(Long userId) {
-        return productServiceClient.getProductsForUser(userId);
+        List<ProductResponse> cached = productCache.getProducts(userId);
+        if (cached != null) {
+            return cached;
+        }
+        List<ProductResponse> products = productServiceClient.getProductsForUser(userId);
+        productCache.putProducts(userId, products);
+        return products;
+    }
+
+    public CompletableFuture<List<ProductResponse>> getProductsForUserAsync(Long userId) {
+        List<ProductResponse> cached = productCache.getProducts(userId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return asyncProductServiceClient.getProductsForUser(userId)
+                .thenApply(products -> {
+                    productCache.putProducts(userId, products);
+                    return products;
+                });
     }
 
     public PaymentResponse executePayment(PaymentRequest request) {
-        ProductResponse product = productServiceClient.getProductById(request.productId());
+        ProductResponse product = cachedProduct(request);
+        if (product == null) {
+            try {
+                product = productServiceClient.getProductById(request.productId());
+            } catch (ProductNotFoundException e) {
+                productCache.putNotFound(request.productId(), e.getMessage());
+                throw e;
+            }
+            productCache.put(product);
+        }
+        return pay(product, request);
+    }
 
-        if (!Objects.equals(product.userId(), request.userId())) {
-            throw new ProductOwnershipException("Product %d does not belong to user %d"
-                    .formatted(product.id(), request.userId()));
+    /**
+     * То же, что {@link #executePayment}, но поток не ждет продуктовый сервис: проверки выполняются,
+     * когда придет продукт, а их исключения завершают future
+     */
+    public CompletableFuture<PaymentResponse> executePaymentAsync(PaymentRequest request) {
+        ProductResponse cached;
+        try {
+            cached = cachedProduct(request);
+        } catch (PaymentModuleException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<ProductResponse> product = cached != null
+                ? CompletableFuture.completedFuture(cached)
+                : asyncProductServiceClient.getProductById(request.productId())
+                        .whenComplete((loaded, error) -> {
+                            if (loaded != null) {
+                                productCache.put(loaded);
+                            } else if (unwrap(error) instanceof ProductNotFoundException notFound) {
+                                productCache.putNotFound(request.productId(), notFound.getMessage());
+                            }
+                        });
+        return product.thenApply(loaded -> pay(loaded, request));
+    }
+
+    /**
+     * Продукт из кэша со свежим балансом или null. Запомненный 404 и владелец, отличный от плательщика,
+     * отклоняют платеж без вызова продуктового сервиса.
+     */
+    private ProductResponse cachedProduct(PaymentRequest request) {
+        ProductResponse product = productCache.get(request.productId());
+        if (product == null) {
+            Long owner = productCache.owner(request.productId());
+            if (owner != null) {
+                checkOwner(request.productId(), owner, request);
+            }
         }
+        return product;
+    }
+
+    private PaymentResponse pay(ProductResponse product, PaymentRequest request) {
+        checkOwner(product.id(), product.userId(), request);
 
         validateAmount(product.balance(), request.amount(), product.id());
 
@@ -47,6 +127,17 @@ public class PaymentService {
         );
     }
 
+    private void checkOwner(Long productId, Long ownerId, PaymentRequest request) {
+        if (!Objects.equals(ownerId, request.userId())) {
+            throw new ProductOwnershipException("Product %d does not belong to user %d"
+                    .formatted(productId, request.userId()));
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
     private void validateAmount(BigDecimal balance, BigDecimal amount, Long productId) {
         if (amount.signum() <= 0) {
             throw new InsufficientFundsException("Payment amount must be greater than zero");
@@ -2,7 +2,10 @@ package com.example.repository;
 
 import com.example.product.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -10,6 +13,12 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     List<Product> findByUserId(Long userId);
 
     boolean existsByAccountNumber(String accountNumber);
+
+    /**
+     * Продукты по списку id одним запросом; пользователь подгружается тем же JOIN, без запроса на продукт
+     */
+    @Query("SELECT p FROM Product p JOIN FETCH p.user WHERE p.id IN :ids")
+    List<Product> findAllWithUserByIdIn(@Param("ids") Collection<Long> ids);
 }
 
 
@@ -5,13 +5,16 @@ import com.example.product.Product;
 import com.example.product.ProductType;
 import com.example.repository.ProductRepository;
 import com.example.repository.UserRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+@Timed(value = "product.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
 @Service
 public class ProductService {
 
@@ -51,6 +54,11 @@ public class ProductService {
     public Optional<Product> getProductById(Long productId) {
         return productRepository.findById(productId);
     }
+
+    @Transactional(readOnly = true)
+    public List<Product> getProductsByIds(Collection<Long> productIds) {
+        return productRepository.findAllWithUserByIdIn(productIds);
+    }
 }
 
 
@@ -0,0 +1,93 @@
+package com.example.controller;
+
+import com.example.User;
+import com.example.product.Product;
+import com.example.product.ProductType;
+import com.example.service.ProductService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ProductController.class)
+class ProductControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ProductService productService;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetProductsByIds_DeduplicatesIdsAndSkipsMissing() throws Exception {
+        // Given - продукта 3 нет
+        User user = new User(7L, "alice");
+        when(productService.getProductsByIds(any())).thenReturn(List.of(
+                new Product(1L, "40817810000000000001", new BigDecimal("100.00"), ProductType.ACCOUNT, user),
+                new Product(2L, "40817810000000000002", new BigDecimal("200.00"), ProductType.CARD, user)));
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/products").param("ids", "1,2,3,1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[0].userId").value(7))
+                .andExpect(jsonPath("$[1].productType").value("CARD"));
+
+        ArgumentCaptor<Collection<Long>> ids = ArgumentCaptor.forClass(Collection.class);
+        verify(productService).getProductsByIds(ids.capture());
+        assertThat(ids.getValue()).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void testGetProductsByIds_AcceptsUpTo100Ids() throws Exception {
+        // Given
+        when(productService.getProductsByIds(any())).thenReturn(List.of());
+
+        // When/Then
+        mockMvc.perform(get("/api/v1/products").param("ids", ids(100)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void testGetProductsByIds_MoreThan100Ids_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/v1/products").param("ids", ids(101)))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(productService);
+    }
+
+    @Test
+    void testGetProductsByIds_EmptyMissingOrInvalidIds_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/api/v1/products").param("ids", ""))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/products"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/products").param("ids", "1,abc"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(productService);
+    }
+
+    private static String ids(int count) {
+        return LongStream.rangeClosed(1, count)
+                .mapToObj(Long::toString)
+                .collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.limit.cache;
+
+import com.example.limit.dto.LimitResponse;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LimitReadCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void testEntryServedWithinTtlAndPeriod() {
+        // Given
+        LimitReadCache cache = new LimitReadCache(true, Duration.ofNanos(100), 10, clock::get);
+        LimitResponse response = response(1L);
+        cache.put(1L, 20L, response, cache.stamp(1L));
+
+        // When/Then - запись прошлого периода не отдается
+        assertSame(response, cache.get(1L, 20L));
+        assertNull(cache.get(1L, 21L));
+        clock.set(100);
+        assertNull(cache.get(1L, 20L));
+    }
+
+    @Test
+    void testInvalidateBetweenReadAndPut_ResponseNotCached() {
+        // Given - чтение из БД началось до изменения
+        LimitReadCache cache = new LimitReadCache(true, Duration.ofMinutes(1), 10, clock::get);
+        long stamp = cache.stamp(1L);
+
+        // When - изменение закоммичено и сбросило запись, затем чтение кладет свой ответ
+        cache.invalidate(1L);
+        cache.put(1L, 20L, response(1L), stamp);
+
+        // Then
+        assertNull(cache.get(1L, 20L));
+        cache.put(1L, 20L, response(1L), cache.stamp(1L));
+        assertNotNull(cache.get(1L, 20L));
+    }
+
+    @Test
+    void testEvictsOldestWhenFull() {
+        // Given
+        LimitReadCache cache = new LimitReadCache(true, Duration.ofMinutes(1), 2, clock::get);
+
+        // When
+        for (long userId = 1; userId <= 3; userId++) {
+            cache.put(userId, 20L, response(userId), cache.stamp(userId));
+        }
+
+        // Then
+        assertEquals(2, cache.size());
+        assertNull(cache.get(1L, 20L));
+        assertNotNull(cache.get(3L, 20L));
+    }
+
+    @Test
+    void testDisabled_NothingCached() {
+        LimitReadCache cache = new LimitReadCache(false, Duration.ofMinutes(1), 10, clock::get);
+
+        cache.put(1L, 20L, response(1L), cache.stamp(1L));
+
+        assertNull(cache.get(1L, 20L));
+    }
+
+    private static LimitResponse response(Long userId) {
+        BigDecimal limit = new BigDecimal("100.00");
+        return new LimitResponse(userId, limit, limit, limit, null);
+    }
+}
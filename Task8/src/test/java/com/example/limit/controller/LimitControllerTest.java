@@ -3,6 +3,10 @@ package com.example.limit.controller;
 import com.example.limit.dto.ConfirmOperationRequest;
 import com.example.limit.dto.LimitRequest;
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchRequest;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
 import com.example.limit.exception.InsufficientLimitException;
 import com.example.limit.exception.ReservationNotFoundException;
@@ -17,6 +21,9 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -146,8 +153,8 @@ class LimitControllerTest {
     @Test
     void testDeductLimit() throws Exception {
         // Given
-        LimitRequest request = new LimitRequest(new BigDecimal("1000.00"), null);
-        doNothing().when(limitService).deductLimit(USER_ID, request.getAmount());
+        LimitRequest request = new LimitRequest(new BigDecimal("1000.00"), "deduct-op");
+        doNothing().when(limitService).deductLimit(USER_ID, request.getAmount(), "deduct-op");
         
         // When/Then
         mockMvc.perform(post("/api/limits/{userId}/deduct", USER_ID)
@@ -155,7 +162,7 @@ class LimitControllerTest {
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isOk());
         
-        verify(limitService).deductLimit(USER_ID, request.getAmount());
+        verify(limitService).deductLimit(USER_ID, request.getAmount(), "deduct-op");
     }
     
     @Test
@@ -171,7 +178,89 @@ class LimitControllerTest {
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isNotFound());
     }
+    
+    @Test
+    void testReserveBatch() throws Exception {
+        // Given
+        ReservationBatchItem reserved = new ReservationBatchItem(USER_ID, new BigDecimal("1000.00"), "op-1");
+        ReservationBatchItem rejected = new ReservationBatchItem(2L, new BigDecimal("200000.00"), "op-2");
+        ReservationBatchRequest request = new ReservationBatchRequest(List.of(reserved, rejected));
+        
+        when(limitService.reserveBatch(request.items())).thenReturn(List.of(
+                ReservationBatchResult.reserved(reserved, "op-1"),
+                ReservationBatchResult.rejected(rejected, "op-2",
+                        ReservationBatchResult.Outcome.INSUFFICIENT_LIMIT, "Insufficient limit")));
+        
+        // When/Then
+        mockMvc.perform(post("/api/limits/reserve:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("RESERVED"))
+                .andExpect(jsonPath("$[1].outcome").value("INSUFFICIENT_LIMIT"));
+    }
+    
+    @Test
+    void testReserveBatch_EmptyItems() throws Exception {
+        mockMvc.perform(post("/api/limits/reserve:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"items\": []}"))
+                .andExpect(status().isBadRequest());
+        
+        verify(limitService, never()).reserveBatch(any());
+    }
+    
+    @Test
+    void testConfirmBatch() throws Exception {
+        // Given
+        when(limitService.confirmBatch(List.of("op-1", "op-2"))).thenReturn(List.of(
+                OperationBatchResult.applied("op-1", USER_ID, OperationBatchResult.Outcome.CONFIRMED),
+                OperationBatchResult.notFound("op-2")));
+        
+        // When/Then
+        mockMvc.perform(post("/api/limits/confirm:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operationIds\": [\"op-1\", \"op-2\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("CONFIRMED"))
+                .andExpect(jsonPath("$[0].userId").value(USER_ID))
+                .andExpect(jsonPath("$[1].outcome").value("NOT_FOUND"));
+    }
+    
+    @Test
+    void testConfirmBatch_AppliedInChunksAsParsed() throws Exception {
+        // Given - chunk-size по умолчанию 1000
+        when(limitService.confirmBatch(any())).thenAnswer(invocation -> {
+            List<String> chunk = invocation.getArgument(0);
+            return chunk.stream().map(OperationBatchResult::notFound).toList();
+        });
+        String ids = IntStream.range(0, 1001)
+                .mapToObj(i -> "\"op-" + i + "\"")
+                .collect(Collectors.joining(","));
+        
+        // When/Then
+        mockMvc.perform(post("/api/limits/confirm:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operationIds\": [" + ids + "]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1001))
+                .andExpect(jsonPath("$[1000].operationId").value("op-1000"));
+        
+        verify(limitService).confirmBatch(argThat(chunk -> chunk.size() == 1000 && chunk.get(0).equals("op-0")));
+        verify(limitService).confirmBatch(List.of("op-1000"));
+    }
+    
+    @Test
+    void testCancelBatch_MalformedBody() throws Exception {
+        mockMvc.perform(post("/api/limits/cancel:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operationIds\": [\"op-1\", 42]}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/limits/cancel:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operationIds\": [\"op-1\""))
+                .andExpect(status().isBadRequest());
+        
+        verify(limitService, never()).cancelBatch(any());
+    }
 }
-
-
-
@@ -0,0 +1,83 @@
+package com.example.limit.expiry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalTimingWheelTest {
+
+    private static final long TICK = 1000;
+
+    @Test
+    void testFiresOnDeadlineTick() {
+        // Given
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 8, 3, 0);
+        wheel.add("a", 3_000);
+        wheel.add("b", 2_500);
+        List<String> fired = new ArrayList<>();
+
+        // When/Then - срок округляется вверх до тика, раньше срока элемент не срабатывает
+        wheel.advanceTo(2_999, fired::add);
+        assertEquals(List.of(), fired);
+
+        wheel.advanceTo(3_000, fired::add);
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testCascadesFromUpperLevelsAndOverflow() {
+        // Given - уровни покрывают 8, 64 и 512 тиков, дальше - overflow
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(TICK, 8, 3, 0);
+        long[] deadlines = {5, 9, 63, 64, 100, 511, 513, 2_000};
+        for (long deadline : deadlines) {
+            wheel.add(deadline, deadline * TICK);
+        }
+
+        // When - продвигаемся по одному тику и запоминаем, на каком тике сработал элемент
+        List<Long> fired = new ArrayList<>();
+        for (long tick = 1; tick <= 2_000; tick++) {
+            long now = tick;
+            wheel.advanceTo(tick * TICK, deadline -> {
+                assertEquals(deadline.longValue(), now);
+                fired.add(deadline);
+            });
+        }
+
+        // Then
+        assertEquals(List.of(5L, 9L, 63L, 64L, 100L, 511L, 513L, 2_000L), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testPastDeadlineFiresOnNextAdvance() {
+        // Given
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 8, 3, 10_000);
+        wheel.add("overdue", 5_000);
+        List<String> fired = new ArrayList<>();
+
+        // When
+        wheel.advanceTo(10_000, fired::add);
+
+        // Then
+        assertEquals(List.of("overdue"), fired);
+    }
+
+    @Test
+    void testCatchUpAfterLongPause() {
+        // Given
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 8, 2, 0);
+        wheel.add("near", 10_000);
+        wheel.add("far", 300_000);
+        List<String> fired = new ArrayList<>();
+
+        // When - поток колеса долго не тикал
+        wheel.advanceTo(1_000_000, fired::add);
+
+        // Then
+        assertEquals(List.of("near", "far"), fired);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.limit.idempotency;
+
+import com.example.limit.dto.ReservationResponse;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.limit.entity.LimitReservation.OperationType.DEDUCT;
+import static com.example.limit.entity.LimitReservation.OperationType.RESERVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void testEntryExpiresAfterTtl() {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(Duration.ofNanos(100), 10, clock::get);
+        ReservationResponse response = response(1L, "10.00", "op-1");
+        cache.put("op-1", response);
+
+        // When/Then
+        clock.set(99);
+        assertSame(response, cache.get("op-1"));
+        clock.set(100);
+        assertNull(cache.get("op-1"));
+
+        // Истекшая запись удаляется при следующем put
+        cache.put("op-2", response(1L, "10.00", "op-2"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testEvictsOldestWhenFull() {
+        // Given
+        IdempotencyCache cache = new IdempotencyCache(Duration.ofMinutes(10), 2, clock::get);
+
+        // When
+        cache.put("op-1", response(1L, "10.00", "op-1"));
+        cache.put("op-2", response(1L, "10.00", "op-2"));
+        cache.put("op-1", response(1L, "10.00", "op-1"));
+        cache.put("op-3", response(1L, "10.00", "op-3"));
+
+        // Then - повторный put обновляет запись, вытесняется самая старая
+        assertEquals(2, cache.size());
+        assertNull(cache.get("op-2"));
+        assertNotNull(cache.get("op-1"));
+        assertNotNull(cache.get("op-3"));
+    }
+
+    @Test
+    void testReplay_RejectsDifferentRequest() {
+        ReservationResponse original = response(1L, "10.00", "op-1");
+
+        assertSame(original, IdempotencyCache.replay(original, DEDUCT, 1L, new BigDecimal("10")));
+        assertThrows(IllegalArgumentException.class, () ->
+                IdempotencyCache.replay(original, DEDUCT, 2L, new BigDecimal("10.00")));
+        assertThrows(IllegalArgumentException.class, () ->
+                IdempotencyCache.replay(original, DEDUCT, 1L, new BigDecimal("11.00")));
+    }
+
+    @Test
+    void testReplay_RejectsDifferentKindOfOperation() {
+        ReservationResponse deduction = response(1L, "10.00", "op-1");
+        ReservationResponse reservation = response(1L, "10.00", "op-2");
+        reservation.setOperationType(RESERVE.name());
+
+        assertSame(reservation, IdempotencyCache.replay(reservation, RESERVE, 1L, new BigDecimal("10.00")));
+        assertThrows(IllegalArgumentException.class, () ->
+                IdempotencyCache.replay(reservation, DEDUCT, 1L, new BigDecimal("10.00")));
+        assertThrows(IllegalArgumentException.class, () ->
+                IdempotencyCache.replay(deduction, RESERVE, 1L, new BigDecimal("10.00")));
+    }
+
+    private static ReservationResponse response(Long userId, String amount, String operationId) {
+        ReservationResponse response = new ReservationResponse();
+        response.setUserId(userId);
+        response.setAmount(new BigDecimal(amount));
+        response.setOperationId(operationId);
+        response.setOperationType(DEDUCT.name());
+        return response;
+    }
+}
@@ -1,14 +1,25 @@
 package com.example.limit.integration;
 
+import com.example.limit.cache.LimitReadCache;
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
+import com.example.limit.dto.ReservedAmountMismatch;
 import com.example.limit.entity.LimitReservation;
 import com.example.limit.entity.UserLimit;
 import com.example.limit.exception.InsufficientLimitException;
 import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.metrics.LimitMetrics;
 import com.example.limit.repository.LimitReservationRepository;
 import com.example.limit.repository.UserLimitRepository;
 import com.example.limit.service.LimitService;
+import com.example.limit.service.ReservedAmountConsistencyChecker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,7 +29,15 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,6 +45,7 @@ import static org.junit.jupiter.api.Assertions.*;
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
 @TestPropertySource(properties = {
         "limit.default-value=100000.00",
+        "limit.expiry.tick-ms=100",
         "spring.datasource.url=jdbc:h2:mem:testdb",
         "spring.datasource.driver-class-name=org.h2.Driver",
         "spring.jpa.hibernate.ddl-auto=create-drop",
@@ -43,6 +63,24 @@ class LimitServiceIntegrationTest {
     @Autowired
     private LimitReservationRepository reservationRepository;
     
+    @Autowired
+    private ReservedAmountConsistencyChecker consistencyChecker;
+    
+    @Autowired
+    private ReservationExpiryWheel expiryWheel;
+    
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+    
+    @Autowired
+    private LimitReadCache readCache;
+    
+    @Autowired
+    private LimitMetrics limitMetrics;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
     private static final Long USER_ID = 1L;
     private static final Long NEW_USER_ID = 999L;
     
@@ -50,6 +88,8 @@ class LimitServiceIntegrationTest {
     void setUp() {
         reservationRepository.deleteAll();
         userLimitRepository.deleteAll();
+        idempotencyCache.clear();
+        readCache.clear();
     }
     
     @Test
@@ -135,6 +175,87 @@ class LimitServiceIntegrationTest {
                 limitService.reserveLimit(USER_ID, amount, "op-789"));
     }
     
+    @Test
+    void testMetrics_TimerTaggedByOutcome() {
+        // Given
+        double failedBefore = reserveTimerCount("InsufficientLimitException");
+        double succeededBefore = reserveTimerCount("none");
+        
+        // When
+        limitService.reserveLimit(USER_ID, new BigDecimal("100.00"), "metrics-op");
+        assertThrows(InsufficientLimitException.class, () ->
+                limitService.reserveLimit(USER_ID, new BigDecimal("200000.00"), "metrics-op-2"));
+        limitMetrics.refreshPendingReservations();
+        
+        // Then
+        assertEquals(succeededBefore + 1, reserveTimerCount("none"));
+        assertEquals(failedBefore + 1, reserveTimerCount("InsufficientLimitException"));
+        assertEquals(1.0, meterRegistry.get("limit.reservations.pending").gauge().value());
+    }
+    
+    private double reserveTimerCount(String exception) {
+        Timer timer = meterRegistry.find("limit.service")
+                .tags("method", "reserveLimit", "exception", exception)
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+    
+    @Test
+    void testReserveLimit_Retry_ReturnsOriginalReservation() {
+        // Given
+        BigDecimal amount = new BigDecimal("3000.00");
+        ReservationResponse original = limitService.reserveLimit(USER_ID, amount, "retry-op");
+        
+        // When - повтор из кэша и повтор после его очистки, через уникальное ограничение
+        ReservationResponse cached = limitService.reserveLimit(USER_ID, amount, "retry-op");
+        idempotencyCache.clear();
+        ReservationResponse stored = limitService.reserveLimit(USER_ID, amount, "retry-op");
+        
+        // Then
+        assertEquals(original.getReservationId(), cached.getReservationId());
+        assertEquals(original.getReservationId(), stored.getReservationId());
+        assertEquals(new BigDecimal("97000.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.reserveLimit(NEW_USER_ID, amount, "retry-op"));
+    }
+    
+    @Test
+    void testDeductLimit_RetryWithOperationId_DeductsOnce() {
+        // When
+        limitService.deductLimit(USER_ID, new BigDecimal("2500.00"), "deduct-op");
+        limitService.deductLimit(USER_ID, new BigDecimal("2500.00"), "deduct-op");
+        idempotencyCache.clear();
+        limitService.deductLimit(USER_ID, new BigDecimal("2500.00"), "deduct-op");
+        
+        // Then
+        assertEquals(new BigDecimal("97500.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+        LimitReservation deduction = reservationRepository.findByOperationId("deduct-op").orElseThrow();
+        assertEquals(LimitReservation.ReservationStatus.CONFIRMED, deduction.getStatus());
+    }
+    
+    @Test
+    void testDeductLimit_WithReservationOperationId_IsRejected() {
+        // Given
+        BigDecimal amount = new BigDecimal("3000.00");
+        limitService.reserveLimit(USER_ID, amount, "reserve-then-deduct");
+        limitService.deductLimit(USER_ID, amount, "deduct-then-reserve");
+        
+        // When/Then - тот же ключ и та же сумма, но другой вид операции: и из кэша, и из БД
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.deductLimit(USER_ID, amount, "reserve-then-deduct"));
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.reserveLimit(USER_ID, amount, "deduct-then-reserve"));
+        idempotencyCache.clear();
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.deductLimit(USER_ID, amount, "reserve-then-deduct"));
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.reserveLimit(USER_ID, amount, "deduct-then-reserve"));
+        
+        LimitResponse limit = limitService.getLimit(USER_ID);
+        assertEquals(new BigDecimal("97000.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("94000.00"), limit.getAvailableLimit());
+    }
+    
     @Test
     void testRestoreLimit_AfterDeduction() {
         // Given
@@ -207,6 +328,10 @@ class LimitServiceIntegrationTest {
         
         LimitResponse limitBeforeReset = limitService.getLimit(USER_ID);
         assertEquals(new BigDecimal("50000.00"), limitBeforeReset.getCurrentLimit());
+        // Строка относится к вчерашнему дню, как при запуске сброса в полночь
+        UserLimit userLimit = userLimitRepository.findByUserId(USER_ID).orElseThrow();
+        userLimit.setPeriodDay(LocalDate.now().minusDays(1).toEpochDay());
+        userLimitRepository.save(userLimit);
         
         // When
         limitService.resetAllLimits();
@@ -227,5 +352,243 @@ class LimitServiceIntegrationTest {
         assertThrows(ReservationNotFoundException.class, () -> 
                 limitService.confirmOperation("non-existent-op"));
     }
-}
+    
+    @Test
+    void testExpireOldReservations_ReleasesReservedAmount() {
+        // Given
+        limitService.reserveLimit(USER_ID, new BigDecimal("3000.00"), "op-expired");
+        limitService.reserveLimit(USER_ID, new BigDecimal("2000.00"), "op-alive");
+        
+        LimitReservation expired = reservationRepository.findByOperationId("op-expired").orElseThrow();
+        expired.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        reservationRepository.save(expired);
+        
+        // When
+        limitService.expireOldReservations();
+        
+        // Then
+        LimitResponse limit = limitService.getLimit(USER_ID);
+        assertEquals(new BigDecimal("98000.00"), limit.getAvailableLimit());
+        assertEquals(LimitReservation.ReservationStatus.EXPIRED,
+                reservationRepository.findByOperationId("op-expired").orElseThrow().getStatus());
+        assertTrue(consistencyChecker.check().isEmpty());
+    }
+    
+    @Test
+    void testExpiryWheel_ExpiresReservationShortlyAfterDeadline() throws Exception {
+        // Given
+        limitService.reserveLimit(USER_ID, new BigDecimal("3000.00"), "op-wheel");
+        LimitReservation reservation = reservationRepository.findByOperationId("op-wheel").orElseThrow();
+        LocalDateTime expiresAt = LocalDateTime.now().plusNanos(300_000_000);
+        reservation.setExpiresAt(expiresAt);
+        reservationRepository.save(reservation);
+        
+        // When
+        expiryWheel.schedule("op-wheel", expiresAt);
+        
+        // Then - резерв истекает без ежечасной очистки
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (reservationRepository.findByOperationId("op-wheel").orElseThrow().getStatus()
+                == LimitReservation.ReservationStatus.PENDING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(LimitReservation.ReservationStatus.EXPIRED,
+                reservationRepository.findByOperationId("op-wheel").orElseThrow().getStatus());
+        assertEquals(new BigDecimal("100000.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+    }
+    
+    @Test
+    void testConsistencyChecker_FindsAndRepairsMismatch() {
+        // Given
+        limitService.reserveLimit(USER_ID, new BigDecimal("1500.00"), "op-check");
+        UserLimit userLimit = userLimitRepository.findByUserId(USER_ID).orElseThrow();
+        userLimit.setReservedAmount(1_000L);
+        userLimitRepository.save(userLimit);
+        
+        // When
+        List<ReservedAmountMismatch> mismatches = consistencyChecker.check();
+        
+        // Then
+        assertEquals(1, mismatches.size());
+        assertEquals(USER_ID, mismatches.get(0).userId());
+        assertEquals(0, new BigDecimal("1500.00").compareTo(mismatches.get(0).pendingTotal()));
+        assertEquals(0, new BigDecimal("10.00").compareTo(mismatches.get(0).reservedAmount()));
+        
+        // When - расхождение уже закэшировано чтением
+        assertEquals(new BigDecimal("99990.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+        consistencyChecker.repair();
+        
+        // Then
+        assertTrue(consistencyChecker.check().isEmpty());
+        assertEquals(new BigDecimal("98500.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+    }
+    
+    @Test
+    void testConcurrentDeducts_NeverOverdraw() throws Exception {
+        // Given
+        limitService.getLimit(USER_ID);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        
+        // When - 20 списаний по 10000 при лимите 100000
+        for (int i = 0; i < 20; i++) {
+            results.add(executor.submit(() -> {
+                try {
+                    limitService.deductLimit(USER_ID, new BigDecimal("10000.00"));
+                    return true;
+                } catch (InsufficientLimitException e) {
+                    return false;
+                }
+            }));
+        }
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(30, TimeUnit.SECONDS)) {
+                succeeded++;
+            }
+        }
+        executor.shutdown();
+        
+        // Then
+        assertEquals(10, succeeded);
+        assertEquals(new BigDecimal("0.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+    }
+    
+    @Test
+    void testConcurrentMutationsOnOneUser_NoLostUpdates() throws Exception {
+        // Given
+        limitService.getLimit(USER_ID);
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        List<Future<?>> results = new ArrayList<>();
+        
+        // When - 64 потока по 20 раз: резерв с подтверждением, списание и восстановление по 1.00
+        for (int t = 0; t < 64; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    String operationId = "stress-" + thread + "-" + i;
+                    limitService.reserveLimit(USER_ID, new BigDecimal("1.00"), operationId);
+                    limitService.confirmOperation(operationId);
+                    limitService.deductLimit(USER_ID, new BigDecimal("1.00"));
+                    limitService.restoreLimit(USER_ID, new BigDecimal("1.00"));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(120, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        
+        // Then - каждое изменение учтено ровно один раз. Это заслуга условных UPDATE, а не полос
+        // UserLockStripes: их очередность проверяет LimitServiceTest
+        UserLimit userLimit = userLimitRepository.findByUserId(USER_ID).orElseThrow();
+        assertEquals(10_000_000L - 64 * 20 * 100L, userLimit.getCurrentLimit());
+        assertEquals(0L, userLimit.getReservedAmount());
+        assertEquals(64 * 20, reservationRepository.countByStatus(LimitReservation.ReservationStatus.CONFIRMED));
+        assertTrue(consistencyChecker.check().isEmpty());
+    }
+    
+    @Test
+    void testReserveBatch_MixedOutcomes() {
+        // Given
+        limitService.reserveLimit(USER_ID, new BigDecimal("1000.00"), "batch-existing");
+        List<ReservationBatchItem> items = List.of(
+                new ReservationBatchItem(USER_ID, new BigDecimal("60000.00"), "batch-1"),
+                new ReservationBatchItem(NEW_USER_ID, new BigDecimal("5000.00"), null),
+                new ReservationBatchItem(USER_ID, new BigDecimal("50000.00"), "batch-2"),
+                new ReservationBatchItem(USER_ID, new BigDecimal("10.00"), "batch-existing"),
+                new ReservationBatchItem(NEW_USER_ID, new BigDecimal("10.00"), "batch-1"),
+                new ReservationBatchItem(USER_ID, new BigDecimal("39000.00"), "batch-3")
+        );
+        
+        // When
+        List<ReservationBatchResult> results = limitService.reserveBatch(items);
+        
+        // Then - результаты в порядке элементов, отказ одного элемента не влияет на остальные
+        assertEquals(6, results.size());
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(0).outcome());
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(1).outcome());
+        assertNotNull(results.get(1).operationId());
+        assertEquals(ReservationBatchResult.Outcome.INSUFFICIENT_LIMIT, results.get(2).outcome());
+        assertEquals(ReservationBatchResult.Outcome.DUPLICATE_OPERATION, results.get(3).outcome());
+        assertEquals(ReservationBatchResult.Outcome.DUPLICATE_OPERATION, results.get(4).outcome());
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(5).outcome());
+        
+        assertEquals(new BigDecimal("0.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+        assertEquals(new BigDecimal("95000.00"), limitService.getLimit(NEW_USER_ID).getAvailableLimit());
+        assertEquals(4, reservationRepository.findByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING).size()
+                + reservationRepository.findByUserIdAndStatus(NEW_USER_ID, LimitReservation.ReservationStatus.PENDING).size());
+        
+        // Зарезервированные пакетом операции подтверждаются обычным способом
+        limitService.confirmOperation("batch-1");
+        assertEquals(new BigDecimal("40000.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+    }
+
+    @Test
+    void testReserveBatch_RepeatedOperationIdReplaysOriginalReservation() {
+        // Given - исходный резерв есть только в БД
+        limitService.reserveLimit(USER_ID, new BigDecimal("1000.00"), "batch-replay-stored");
+        idempotencyCache.clear();
+        List<ReservationBatchItem> items = List.of(
+                new ReservationBatchItem(USER_ID, new BigDecimal("1000.00"), "batch-replay-stored"),
+                new ReservationBatchItem(USER_ID, new BigDecimal("2000.00"), "batch-replay-new"),
+                new ReservationBatchItem(USER_ID, new BigDecimal("2000.00"), "batch-replay-new"),
+                new ReservationBatchItem(USER_ID, new BigDecimal("1.00"), "batch-replay-stored")
+        );
+
+        // When
+        List<ReservationBatchResult> results = limitService.reserveBatch(items);
+        List<ReservationBatchResult> retried = limitService.reserveBatch(items.subList(0, 3));
 
+        // Then - повторы с теми же пользователем и суммой получают исходный резерв, лимит списан один раз
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(0).outcome());
+        assertEquals("batch-replay-stored", results.get(0).operationId());
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(1).outcome());
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(2).outcome());
+        assertEquals("batch-replay-new", results.get(2).operationId());
+        assertEquals(ReservationBatchResult.Outcome.DUPLICATE_OPERATION, results.get(3).outcome());
+        assertTrue(retried.stream().allMatch(result -> result.outcome() == ReservationBatchResult.Outcome.RESERVED));
+
+        assertEquals(new BigDecimal("97000.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+        assertEquals(2, reservationRepository.findByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING).size());
+    }
+
+    @Test
+    void testConfirmAndCancelBatch_PerOperationOutcomes() {
+        // Given
+        limitService.reserveLimit(USER_ID, new BigDecimal("100.00"), "settle-1");
+        limitService.reserveLimit(USER_ID, new BigDecimal("200.00"), "settle-2");
+        limitService.reserveLimit(NEW_USER_ID, new BigDecimal("300.00"), "settle-3");
+        limitService.reserveLimit(NEW_USER_ID, new BigDecimal("400.00"), "settle-4");
+        limitService.confirmOperation("settle-2");
+        
+        // When
+        List<OperationBatchResult> confirmed = limitService.confirmBatch(
+                List.of("settle-1", "settle-missing", "settle-2", "settle-3", "settle-1"));
+        
+        // Then - результаты в порядке operationId, баланс списан один раз на резерв
+        assertEquals(List.of(OperationBatchResult.Outcome.CONFIRMED, OperationBatchResult.Outcome.NOT_FOUND,
+                        OperationBatchResult.Outcome.NOT_PENDING, OperationBatchResult.Outcome.CONFIRMED,
+                        OperationBatchResult.Outcome.NOT_PENDING),
+                confirmed.stream().map(OperationBatchResult::outcome).toList());
+        assertEquals(NEW_USER_ID, confirmed.get(3).userId());
+        assertEquals(new BigDecimal("99700.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+        assertEquals(new BigDecimal("99700.00"), limitService.getLimit(NEW_USER_ID).getCurrentLimit());
+        assertEquals(new BigDecimal("99300.00"), limitService.getLimit(NEW_USER_ID).getAvailableLimit());
+        
+        // When - подтвержденный резерв возвращает лимит, pending освобождает резерв
+        List<OperationBatchResult> cancelled = limitService.cancelBatch(
+                List.of("settle-1", "settle-4", "settle-missing"));
+        
+        // Then
+        assertEquals(List.of(OperationBatchResult.Outcome.CANCELLED, OperationBatchResult.Outcome.CANCELLED,
+                        OperationBatchResult.Outcome.NOT_FOUND),
+                cancelled.stream().map(OperationBatchResult::outcome).toList());
+        assertEquals(new BigDecimal("99800.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+        assertEquals(new BigDecimal("99700.00"), limitService.getLimit(NEW_USER_ID).getAvailableLimit());
+        assertEquals(LimitReservation.ReservationStatus.CANCELLED,
+                reservationRepository.findByOperationId("settle-4").orElseThrow().getStatus());
+        assertTrue(consistencyChecker.check().isEmpty());
+    }
+}
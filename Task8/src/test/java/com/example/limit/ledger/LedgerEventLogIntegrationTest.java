@@ -0,0 +1,146 @@
+package com.example.limit.ledger;
+
+import com.example.limit.dto.LimitResponse;
+import com.example.limit.entity.LimitEvent;
+import com.example.limit.entity.LimitEvent.EventType;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitEventRepository;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.service.LimitService;
+import com.example.limit.velocity.VelocityLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.engine=ledger",
+        "limit.ledger.partitions=4",
+        "limit.ledger.event-log.enabled=true",
+        "limit.ledger.event-log.snapshot-ms=3600000",
+        "spring.datasource.url=jdbc:h2:mem:ledgereventsdb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class LedgerEventLogIntegrationTest {
+
+    @Autowired
+    private LedgerLimitService ledger;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    @Autowired
+    private LimitEventRepository eventRepository;
+
+    @Autowired
+    private LimitBatchRepository batchRepository;
+
+    @Autowired
+    private LimitService databaseEngine;
+
+    @Autowired
+    private ReservationExpiryWheel expiryWheel;
+
+    @Autowired
+    private LazyLimitReset lazyReset;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        // Каждый тест работает со своими пользователями, поэтому леджер не сбрасываем
+        ledger.flush();
+    }
+
+    @Test
+    void testOperations_AppendedToLog_BalancesWrittenBySnapshot() {
+        // Given
+        Long userId = 1L;
+        ledger.reserveLimit(userId, new BigDecimal("100.00"), "event-op-1");
+        ledger.confirmOperation("event-op-1");
+        ledger.reserveLimit(userId, new BigDecimal("50.00"), "event-op-2");
+        ledger.cancelOperation("event-op-2");
+        ledger.restoreLimit(userId, new BigDecimal("10.00"));
+        ledger.deductLimit(userId, new BigDecimal("20.00"));
+        ledger.flush();
+
+        // Then - операции в журнале по порядку, user_limits на них не перезаписывался
+        List<LimitEvent> events = eventRepository.findByUserIdOrderBySeq(userId);
+        assertEquals(List.of(EventType.RESERVE, EventType.CONFIRM, EventType.RESERVE, EventType.CANCEL,
+                EventType.RESTORE, EventType.DEDUCT), events.stream().map(LimitEvent::getType).toList());
+        assertEquals(6, events.get(5).getSeq());
+        assertEquals(10_000_000L, userLimitRepository.findByUserId(userId).orElseThrow().getCurrentLimit());
+
+        // When
+        ledger.snapshot();
+        ledger.flush();
+
+        // Then
+        UserLimit snapshot = userLimitRepository.findByUserId(userId).orElseThrow();
+        assertEquals(9_989_000L, snapshot.getCurrentLimit());
+        assertEquals(0L, snapshot.getReservedAmount());
+        assertEquals(6, snapshot.getEventSeq());
+    }
+
+    @Test
+    void testColdNode_RebuildsAccountFromSnapshotAndTail() throws InterruptedException {
+        // Given - снимок после подтверждения, затем хвост без снимка
+        Long userId = 2L;
+        ledger.reserveLimit(userId, new BigDecimal("300.00"), "event-op-3");
+        ledger.confirmOperation("event-op-3");
+        ledger.snapshot();
+        ledger.deductLimit(userId, new BigDecimal("200.00"));
+        ledger.reserveLimit(userId, new BigDecimal("40.00"), "event-op-4");
+        ledger.flush();
+        assertEquals(2, userLimitRepository.findByUserId(userId).orElseThrow().getEventSeq());
+
+        // When - новый узел с пустой памятью
+        LedgerLimitService coldNode = new LedgerLimitService(userLimitRepository, reservationRepository,
+                databaseEngine, expiryWheel, lazyReset, new IdempotencyCache(Duration.ofMinutes(10), 100),
+                new VelocityLimiter(List.of(), null, null, null, System::currentTimeMillis),
+                eventRepository, batchRepository, transactionManager, new BigDecimal("100000.00"), 2, true,
+                5, Duration.ofMillis(100), Duration.ofSeconds(2));
+        try {
+            coldNode.warmUp();
+            LimitResponse limit = coldNode.getLimit(userId);
+
+            // Then
+            assertEquals(new BigDecimal("99500.00"), limit.getCurrentLimit());
+            assertEquals(new BigDecimal("99460.00"), limit.getAvailableLimit());
+
+            coldNode.snapshot();
+            coldNode.flush();
+            UserLimit snapshot = userLimitRepository.findByUserId(userId).orElseThrow();
+            assertEquals(9_950_000L, snapshot.getCurrentLimit());
+            assertEquals(4_000L, snapshot.getReservedAmount());
+            assertEquals(4, snapshot.getEventSeq());
+        } finally {
+            coldNode.shutdown();
+        }
+    }
+}
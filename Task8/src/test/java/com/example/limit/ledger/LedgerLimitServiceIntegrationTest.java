@@ -0,0 +1,195 @@
+package com.example.limit.ledger;
+
+import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.OperationBatchResult;
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.service.LimitServiceApi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.engine=ledger",
+        "limit.ledger.partitions=4",
+        "spring.datasource.url=jdbc:h2:mem:ledgerdb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class LedgerLimitServiceIntegrationTest {
+
+    @Autowired
+    private LimitServiceApi limitService;
+
+    @Autowired
+    private LedgerLimitService ledger;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    private static final Long USER_ID = 1L;
+
+    @BeforeEach
+    void setUp() {
+        // Каждый тест работает со своими пользователями, поэтому леджер не сбрасываем
+        ledger.flush();
+    }
+
+    @Test
+    void testLedgerIsPrimaryEngine() {
+        assertSame(ledger, limitService);
+    }
+
+    @Test
+    void testReserveAndConfirm_PersistedAsynchronously() {
+        // When
+        ReservationResponse reservation = limitService.reserveLimit(USER_ID, new BigDecimal("5000.00"), "ledger-op-1");
+
+        // Then - решение принято в памяти
+        assertEquals("PENDING", reservation.getStatus());
+        assertEquals(new BigDecimal("95000.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+
+        // When
+        limitService.confirmOperation("ledger-op-1");
+        ledger.flush();
+
+        // Then - изменения дошли до БД
+        LimitResponse limit = limitService.getLimit(USER_ID);
+        assertEquals(new BigDecimal("95000.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("95000.00"), limit.getAvailableLimit());
+
+        UserLimit stored = userLimitRepository.findByUserId(USER_ID).orElseThrow();
+        assertEquals(9_500_000L, stored.getCurrentLimit());
+        Optional<LimitReservation> storedReservation = reservationRepository.findByOperationId("ledger-op-1");
+        assertTrue(storedReservation.isPresent());
+        assertEquals(LimitReservation.ReservationStatus.CONFIRMED, storedReservation.get().getStatus());
+    }
+
+    @Test
+    void testCancelAfterConfirm_BeforeFlush_RestoresLimit() {
+        // Given
+        Long userId = 2L;
+        limitService.reserveLimit(userId, new BigDecimal("1000.00"), "ledger-op-2");
+        limitService.confirmOperation("ledger-op-2");
+
+        // When - отмена приходит раньше, чем подтверждение записано в БД
+        limitService.cancelOperation("ledger-op-2");
+        ledger.flush();
+
+        // Then
+        assertEquals(new BigDecimal("100000.00"), limitService.getLimit(userId).getCurrentLimit());
+        assertEquals(LimitReservation.ReservationStatus.CANCELLED,
+                reservationRepository.findByOperationId("ledger-op-2").orElseThrow().getStatus());
+    }
+
+    @Test
+    void testConfirmBatch_PerOperationOutcomes() {
+        // Given
+        Long userId = 7L;
+        limitService.reserveLimit(userId, new BigDecimal("100.00"), "ledger-settle-1");
+        limitService.reserveLimit(userId, new BigDecimal("200.00"), "ledger-settle-2");
+
+        // When
+        List<OperationBatchResult> results = limitService.confirmBatch(
+                List.of("ledger-settle-1", "ledger-settle-missing", "ledger-settle-1", "ledger-settle-2"));
+
+        // Then
+        assertEquals(List.of(OperationBatchResult.Outcome.CONFIRMED, OperationBatchResult.Outcome.NOT_FOUND,
+                        OperationBatchResult.Outcome.NOT_PENDING, OperationBatchResult.Outcome.CONFIRMED),
+                results.stream().map(OperationBatchResult::outcome).toList());
+        assertEquals(new BigDecimal("99700.00"), limitService.getLimit(userId).getCurrentLimit());
+    }
+
+    @Test
+    void testInsufficientLimit() {
+        assertThrows(InsufficientLimitException.class, () ->
+                limitService.reserveLimit(3L, new BigDecimal("200000.00"), "ledger-op-3"));
+        assertThrows(InsufficientLimitException.class, () ->
+                limitService.deductLimit(3L, new BigDecimal("200000.00")));
+    }
+
+    @Test
+    void testDuplicateOperationId() {
+        limitService.reserveLimit(4L, new BigDecimal("10.00"), "ledger-op-4");
+
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.reserveLimit(5L, new BigDecimal("10.00"), "ledger-op-4"));
+    }
+
+    @Test
+    void testDeductWithReservationOperationId_IsRejected() {
+        Long userId = 8L;
+        BigDecimal amount = new BigDecimal("10.00");
+        limitService.reserveLimit(userId, amount, "ledger-op-8");
+
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.deductLimit(userId, amount, "ledger-op-8"));
+        assertEquals(new BigDecimal("100000.00"), limitService.getLimit(userId).getCurrentLimit());
+    }
+
+    @Test
+    void testConfirmOperation_ReservationNotFound() {
+        assertThrows(ReservationNotFoundException.class, () ->
+                limitService.confirmOperation("ledger-non-existent-op"));
+    }
+
+    @Test
+    void testAccountLoadedFromExistingRows() {
+        // Given - состояние, записанное в обход леджера
+        Long userId = 6L;
+        userLimitRepository.save(new UserLimit(userId, 50_000L, 10_000_000L));
+        LimitReservation pending = new LimitReservation(userId, 20_000L, "ledger-op-6");
+        reservationRepository.save(pending);
+
+        // When
+        LimitResponse limit = limitService.getLimit(userId);
+
+        // Then
+        assertEquals(new BigDecimal("500.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("300.00"), limit.getAvailableLimit());
+        assertThrows(InsufficientLimitException.class, () ->
+                limitService.deductLimit(userId, new BigDecimal("300.01")));
+    }
+
+    @Test
+    void testResetAllLimits() {
+        // Given
+        Long userId = 7L;
+        limitService.deductLimit(userId, new BigDecimal("50000.00"));
+        limitService.reserveLimit(userId, new BigDecimal("20000.00"), "ledger-op-7");
+
+        // When
+        ledger.resetAllLimits();
+        ledger.flush();
+
+        // Then
+        LimitResponse limit = limitService.getLimit(userId);
+        assertEquals(new BigDecimal("100000.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("100000.00"), limit.getAvailableLimit());
+        assertEquals(LimitReservation.ReservationStatus.CANCELLED,
+                reservationRepository.findByOperationId("ledger-op-7").orElseThrow().getStatus());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.limit.ledger;
+
+import com.example.limit.entity.UserLimit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class LedgerPartitionTest {
+
+    private final LedgerPartition partition = new LedgerPartition(0, 3, Duration.ofMillis(1), Duration.ofMillis(4));
+    private final List<String> applied = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        partition.shutdown();
+    }
+
+    @Test
+    void testFailedWriteIsRetriedBeforeTheNextOne() {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> succeeded = new CopyOnWriteArrayList<>();
+
+        partition.persist(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("database is down");
+            }
+            applied.add("first");
+        }, () -> succeeded.add("first"));
+        partition.persist(() -> applied.add("second"), () -> succeeded.add("second"));
+        partition.flush();
+
+        assertEquals(List.of("first", "second"), applied);
+        assertEquals(List.of("first", "second"), succeeded);
+        assertEquals(2, partition.failedWrites());
+        assertEquals(0, partition.droppedWrites());
+    }
+
+    @Test
+    void testExhaustedWriteDropsQueuedWritesAndReloadsAccounts() throws InterruptedException {
+        partition.call(() -> {
+            partition.putAccount(new LedgerAccount(new UserLimit(1L, 100_000L, 100_000L)));
+            return null;
+        });
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> succeeded = new CopyOnWriteArrayList<>();
+
+        partition.persist(() -> await(release), () -> { });
+        partition.persist(() -> {
+            throw new IllegalStateException("database is down");
+        }, () -> succeeded.add("failing"));
+        partition.persist(() -> applied.add("stale"), () -> succeeded.add("stale"));
+        release.countDown();
+        partition.flush();
+
+        // Сброс счетов стоит в очереди партиции за решениями, принятыми до потери записи
+        assertAccountsReloaded();
+        assertThat(applied).isEmpty();
+        assertThat(succeeded).isEmpty();
+        assertEquals(3, partition.failedWrites());
+        assertEquals(2, partition.droppedWrites());
+
+        partition.call(() -> {
+            partition.persist(() -> applied.add("fresh"), () -> { });
+            return null;
+        });
+        partition.flush();
+        assertEquals(List.of("fresh"), applied);
+    }
+
+    @Test
+    void testDecisionsAreRejectedWhileThePartitionReloads() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        partition.execute(() -> {
+            blocked.countDown();
+            await(release);
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        partition.persist(() -> {
+            throw new IllegalStateException("database is down");
+        }, () -> { });
+        partition.flush();
+
+        assertThrows(IllegalStateException.class, () -> partition.call(() -> "decision"));
+        release.countDown();
+        assertAccountsReloaded();
+        assertEquals("decision", partition.call(() -> "decision"));
+    }
+
+    private void assertAccountsReloaded() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            try {
+                assertNull(partition.call(() -> partition.getAccount(1L)));
+                assertEquals(0, partition.accountCount());
+                return;
+            } catch (IllegalStateException e) {
+                Thread.sleep(5);
+            }
+        }
+        fail("partition did not finish reloading");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
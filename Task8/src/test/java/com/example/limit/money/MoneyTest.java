@@ -0,0 +1,39 @@
+package com.example.limit.money;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoneyTest {
+
+    @Test
+    void testFromDecimal_ConvertsToMinorUnits() {
+        assertEquals(150_000L, Money.fromDecimal(new BigDecimal("1500")));
+        assertEquals(150_000L, Money.fromDecimal(new BigDecimal("1500.00")));
+        assertEquals(1L, Money.fromDecimal(new BigDecimal("0.010")));
+        assertEquals(-250L, Money.fromDecimal(new BigDecimal("-2.5")));
+    }
+
+    @Test
+    void testFromDecimal_RejectsFractionsOfMinorUnit() {
+        assertThrows(IllegalArgumentException.class, () -> Money.fromDecimal(new BigDecimal("0.001")));
+        assertThrows(IllegalArgumentException.class, () -> Money.fromDecimal(new BigDecimal("1E+18")));
+    }
+
+    @Test
+    void testToDecimal_KeepsScale() {
+        assertEquals(new BigDecimal("1500.00"), Money.toDecimal(150_000L));
+        assertEquals(new BigDecimal("0.00"), Money.toDecimal(0L));
+    }
+
+    @Test
+    void testArithmetic_FailsOnOverflow() {
+        assertEquals(300L, Money.add(100L, 200L));
+        assertEquals(-100L, Money.subtract(100L, 200L));
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1L));
+        assertThrows(ArithmeticException.class, () -> Money.subtract(Long.MIN_VALUE, 1L));
+        assertThrows(ArithmeticException.class, () -> Money.negate(Long.MIN_VALUE));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.limit.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.StringWriter;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReservationPartitionRepositoryTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 2, 20);
+
+    private JdbcTemplate jdbcTemplate;
+    private ReservationPartitionRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:partitionexport;DB_CLOSE_DELAY=-1", "sa", ""));
+        repository = new ReservationPartitionRepository(jdbcTemplate);
+        // Отсоединенная партиция - обычная таблица с колонками limit_reservations
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + ReservationPartitionRepository.partitionName(DAY));
+        jdbcTemplate.execute("CREATE TABLE " + ReservationPartitionRepository.partitionName(DAY) + " (" +
+                "id BIGINT, user_id BIGINT, amount NUMERIC(19,2), status VARCHAR(50), " +
+                "operation_type VARCHAR(20), operation_id VARCHAR(255), created_at TIMESTAMP, expires_at TIMESTAMP)");
+    }
+
+    @Test
+    void testExportCsv_QuotesFieldsPerRfc4180() {
+        // Given - operationId приходит от клиента и может содержать что угодно
+        insert(1, "plain-op");
+        insert(2, "op,with \"quotes\"\r\nand lines");
+        insert(3, null);
+
+        // When
+        StringWriter out = new StringWriter();
+        long rows = repository.exportCsv(DAY, out);
+
+        // Then
+        assertEquals(3, rows);
+        String[] lines = out.toString().split("\r\n", -1);
+        assertEquals("ID,USER_ID,AMOUNT,STATUS,OPERATION_TYPE,OPERATION_ID,CREATED_AT,EXPIRES_AT", lines[0]);
+        assertEquals("1,7,10.50,CONFIRMED,RESERVE,plain-op,2024-02-20 10:00:00.0,", lines[1]);
+        assertEquals("2,7,10.50,CONFIRMED,RESERVE,\"op,with \"\"quotes\"\"", lines[2]);
+        assertEquals("and lines\",2024-02-20 10:00:00.0,", lines[3]);
+        assertEquals("3,7,10.50,CONFIRMED,RESERVE,,2024-02-20 10:00:00.0,", lines[4]);
+        assertEquals("", lines[5]);
+    }
+
+    private void insert(long id, String operationId) {
+        jdbcTemplate.update("INSERT INTO " + ReservationPartitionRepository.partitionName(DAY) +
+                        " VALUES (?, 7, 10.50, 'CONFIRMED', 'RESERVE', ?, TIMESTAMP '2024-02-20 10:00:00', NULL)",
+                id, operationId);
+    }
+}
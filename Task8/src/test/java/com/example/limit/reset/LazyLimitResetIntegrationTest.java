@@ -0,0 +1,150 @@
+package com.example.limit.reset;
+
+import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.money.Money;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitBatchRepository.ReservationRow;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.service.LimitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.reset.strategy=lazy",
+        "spring.datasource.url=jdbc:h2:mem:lazyresetdb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class LazyLimitResetIntegrationTest {
+
+    @Autowired
+    private LimitService limitService;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    @Autowired
+    private LimitBatchRepository batchRepository;
+
+    private static final Long USER_ID = 1L;
+
+    @BeforeEach
+    void setUp() {
+        reservationRepository.deleteAll();
+        userLimitRepository.deleteAll();
+    }
+
+    @Test
+    void testGetLimit_FirstTouchInNewDay_ResetsRow() {
+        // Given - вчера пользователь списал часть лимита и оставил pending-резерв
+        limitService.deductLimit(USER_ID, new BigDecimal("50000.00"));
+        limitService.reserveLimit(USER_ID, new BigDecimal("1000.00"), "lazy-yesterday");
+        moveToYesterday(USER_ID, "lazy-yesterday");
+        limitService.reserveLimit(USER_ID, new BigDecimal("500.00"), "lazy-today");
+
+        // When
+        LimitResponse limit = limitService.getLimit(USER_ID);
+
+        // Then - резерв прошлого дня отменен, сегодняшний сохранен
+        assertEquals(new BigDecimal("100000.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("99500.00"), limit.getAvailableLimit());
+        assertEquals(LimitReservation.ReservationStatus.CANCELLED,
+                reservationRepository.findByOperationId("lazy-yesterday").orElseThrow().getStatus());
+        assertEquals(LimitReservation.ReservationStatus.PENDING,
+                reservationRepository.findByOperationId("lazy-today").orElseThrow().getStatus());
+        assertEquals(LocalDate.now().toEpochDay(),
+                userLimitRepository.findByUserId(USER_ID).orElseThrow().getPeriodDay());
+    }
+
+    @Test
+    void testReserveLimit_ExhaustedYesterday_SucceedsToday() {
+        // Given
+        limitService.deductLimit(USER_ID, new BigDecimal("100000.00"));
+        moveToYesterday(USER_ID, null);
+
+        // When
+        limitService.reserveLimit(USER_ID, new BigDecimal("5000.00"), "lazy-reserve");
+
+        // Then
+        LimitResponse limit = limitService.getLimit(USER_ID);
+        assertEquals(new BigDecimal("100000.00"), limit.getCurrentLimit());
+        assertEquals(new BigDecimal("95000.00"), limit.getAvailableLimit());
+    }
+
+    @Test
+    void testSamePeriod_NotResetAgain() {
+        // When
+        limitService.deductLimit(USER_ID, new BigDecimal("30000.00"));
+        limitService.deductLimit(USER_ID, new BigDecimal("20000.00"));
+
+        // Then
+        assertEquals(new BigDecimal("50000.00"), limitService.getLimit(USER_ID).getCurrentLimit());
+    }
+
+    @Test
+    void testReserveBatch_RollsOverStaleUsers() {
+        // Given
+        limitService.deductLimit(USER_ID, new BigDecimal("100000.00"));
+        moveToYesterday(USER_ID, null);
+
+        // When
+        List<ReservationBatchResult> results = limitService.reserveBatch(List.of(
+                new ReservationBatchItem(USER_ID, new BigDecimal("7000.00"), "lazy-batch")));
+
+        // Then
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(0).outcome());
+        assertEquals(new BigDecimal("93000.00"), limitService.getLimit(USER_ID).getAvailableLimit());
+    }
+
+    @Test
+    void testTryReserveAll_StaleRow_IsNotReserved() {
+        // Given - строка прошлого дня, которую еще никто не сбросил
+        limitService.getLimit(USER_ID);
+        moveToYesterday(USER_ID, null);
+
+        // When
+        int[] counts = batchRepository.tryReserveAll(
+                List.of(new ReservationRow(USER_ID, Money.fromDecimal(new BigDecimal("10.00")), "lazy-stale")),
+                LocalDate.now().toEpochDay());
+
+        // Then
+        assertArrayEquals(new int[]{0}, counts);
+        assertEquals(0L, userLimitRepository.findByUserId(USER_ID).orElseThrow().getReservedAmount());
+    }
+
+    private void moveToYesterday(Long userId, String operationId) {
+        UserLimit userLimit = userLimitRepository.findByUserId(userId).orElseThrow();
+        userLimit.setPeriodDay(LocalDate.now().minusDays(1).toEpochDay());
+        userLimitRepository.save(userLimit);
+        if (operationId != null) {
+            LimitReservation reservation = reservationRepository.findByOperationId(operationId).orElseThrow();
+            reservation.setCreatedAt(LocalDateTime.now().minusDays(1));
+            reservationRepository.save(reservation);
+        }
+    }
+}
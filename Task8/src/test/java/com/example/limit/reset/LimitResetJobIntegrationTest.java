@@ -0,0 +1,152 @@
+package com.example.limit.reset;
+
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.LimitResetCheckpoint;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.LimitResetCheckpointRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.service.LimitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.reset.chunk-size=3",
+        "limit.reset.workers=3",
+        "limit.reset.pause-ms=0",
+        "spring.datasource.url=jdbc:h2:mem:resetdb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class LimitResetJobIntegrationTest {
+
+    @Autowired
+    private LimitResetJob resetJob;
+
+    @Autowired
+    private LimitService limitService;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    @Autowired
+    private LimitResetCheckpointRepository checkpointRepository;
+
+    @BeforeEach
+    void setUp() {
+        checkpointRepository.deleteAll();
+        reservationRepository.deleteAll();
+        userLimitRepository.deleteAll();
+    }
+
+    @Test
+    void testResetAllRangesInChunks() {
+        // Given - 10 пользователей на 3 воркера и пачки по 3 строки
+        LocalDate resetDate = LocalDate.now().plusDays(1);
+        for (long userId = 1; userId <= 10; userId++) {
+            limitService.deductLimit(userId, new BigDecimal("1000.00"));
+            limitService.reserveLimit(userId, new BigDecimal("500.00"), "reset-op-" + userId);
+        }
+        assertEquals(new BigDecimal("98500.00"), limitService.getLimit(1L).getAvailableLimit());
+
+        // When
+        resetJob.run(resetDate);
+
+        // Then - пачки сбрасывают закэшированные ответы своих пользователей
+        assertEquals(new BigDecimal("100000.00"), limitService.getLimit(1L).getAvailableLimit());
+        for (UserLimit userLimit : userLimitRepository.findAll()) {
+            assertEquals(10_000_000L, userLimit.getCurrentLimit());
+            assertEquals(0L, userLimit.getReservedAmount());
+        }
+        for (LimitReservation reservation : reservationRepository.findAll()) {
+            assertEquals(LimitReservation.ReservationStatus.CANCELLED, reservation.getStatus());
+        }
+        List<LimitResetCheckpoint> checkpoints = checkpointRepository.findByResetDateOrderByWorkerIndex(resetDate);
+        assertEquals(3, checkpoints.size());
+        assertTrue(checkpoints.stream().allMatch(LimitResetCheckpoint::isCompleted));
+
+        // Завершенный сброс за тот же день не повторяется
+        limitService.deductLimit(1L, new BigDecimal("1000.00"));
+        resetJob.run(resetDate);
+        assertEquals(new BigDecimal("99000.00"), limitService.getLimit(1L).getCurrentLimit());
+    }
+
+    @Test
+    void testResumesFromCheckpoint_KeepsReservationsCreatedAfterStart() {
+        // Given - сброс упал после первых трех строк
+        LocalDate resetDate = LocalDate.now().plusDays(1);
+        LocalDateTime startedAt = LocalDateTime.now().minusMinutes(5);
+        for (long userId = 1; userId <= 6; userId++) {
+            limitService.deductLimit(userId, new BigDecimal("1000.00"));
+        }
+        limitService.reserveLimit(5L, new BigDecimal("300.00"), "reset-before-start");
+        LimitReservation beforeStart = reservationRepository.findByOperationId("reset-before-start").orElseThrow();
+        beforeStart.setCreatedAt(startedAt.minusMinutes(1));
+        reservationRepository.save(beforeStart);
+        limitService.reserveLimit(5L, new BigDecimal("200.00"), "reset-after-start");
+
+        List<UserLimit> rows = userLimitRepository.findAll().stream()
+                .sorted((a, b) -> a.getId().compareTo(b.getId()))
+                .toList();
+        checkpointRepository.save(new LimitResetCheckpoint(
+                resetDate, 0, startedAt, rows.get(2).getId(), rows.get(5).getId()));
+        assertTrue(resetJob.isIncomplete(resetDate));
+
+        // When
+        resetJob.run(resetDate);
+
+        // Then - строки до чекпоинта не трогаются повторно
+        for (int i = 0; i < 6; i++) {
+            BigDecimal expected = i < 3 ? new BigDecimal("99000.00") : new BigDecimal("100000.00");
+            assertEquals(expected, limitService.getLimit(rows.get(i).getUserId()).getCurrentLimit());
+        }
+        assertEquals(LimitReservation.ReservationStatus.CANCELLED,
+                reservationRepository.findByOperationId("reset-before-start").orElseThrow().getStatus());
+        assertEquals(LimitReservation.ReservationStatus.PENDING,
+                reservationRepository.findByOperationId("reset-after-start").orElseThrow().getStatus());
+        assertEquals(new BigDecimal("99800.00"), limitService.getLimit(5L).getAvailableLimit());
+        assertFalse(resetJob.isIncomplete(resetDate));
+    }
+
+    @Test
+    void testSecondPassOverResetRows_KeepsDebitsMadeAfterReset() {
+        // Given - сброс за день прошел, после него пользователь потратил часть лимита
+        LocalDate resetDate = LocalDate.now().plusDays(1);
+        for (long userId = 1; userId <= 4; userId++) {
+            limitService.deductLimit(userId, new BigDecimal("1000.00"));
+        }
+        resetJob.run(resetDate);
+        limitService.deductLimit(1L, new BigDecimal("2500.00"));
+        limitService.reserveLimit(2L, new BigDecimal("700.00"), "reset-after-first-pass");
+
+        // When - другой узел проходит те же диапазоны заново со своих чекпоинтов
+        checkpointRepository.deleteAll();
+        resetJob.run(resetDate);
+
+        // Then - уже сброшенные строки не сбрасываются второй раз
+        assertEquals(new BigDecimal("97500.00"), limitService.getLimit(1L).getCurrentLimit());
+        assertEquals(new BigDecimal("99300.00"), limitService.getLimit(2L).getAvailableLimit());
+        assertEquals(LimitReservation.ReservationStatus.PENDING,
+                reservationRepository.findByOperationId("reset-after-first-pass").orElseThrow().getStatus());
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.limit.retention;
+
+import com.example.limit.repository.ReservationPartitionRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReservationRetentionJobTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 31);
+
+    @Mock
+    private ReservationPartitionRepository partitionRepository;
+
+    @TempDir
+    Path archiveDir;
+
+    @Test
+    void testRun_ArchivesOnlySettledPartitionsOutsideRetention() throws Exception {
+        // Given
+        ReservationRetentionJob job = new ReservationRetentionJob(partitionRepository, true, 30, archiveDir, 2);
+        LocalDate settled = TODAY.minusDays(40);
+        LocalDate withPending = TODAY.minusDays(35);
+        LocalDate recent = TODAY.minusDays(30);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findPartitionDays()).thenReturn(List.of(settled, withPending, recent, TODAY));
+        when(partitionRepository.countPending(settled)).thenReturn(0L);
+        when(partitionRepository.countPending(withPending)).thenReturn(3L);
+        when(partitionRepository.exportCsv(eq(settled), any())).thenAnswer(invocation -> {
+            Writer out = invocation.getArgument(1);
+            out.write("id,status\n1,CONFIRMED\n");
+            return 1L;
+        });
+
+        // When
+        job.run(TODAY);
+
+        // Then
+        verify(partitionRepository).createPartition(TODAY);
+        verify(partitionRepository).createPartition(TODAY.plusDays(2));
+        verify(partitionRepository).detachPartition(settled);
+        verify(partitionRepository).dropDetachedPartition(settled);
+        verify(partitionRepository, never()).detachPartition(withPending);
+        verify(partitionRepository, never()).countPending(recent);
+        verify(partitionRepository, never()).attachPartition(any());
+
+        Path archive = archiveDir.resolve("limit_reservations_p20240220.csv.gz");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archive)), StandardCharsets.UTF_8))) {
+            assertEquals(List.of("id,status", "1,CONFIRMED"), reader.lines().toList());
+        }
+        assertFalse(Files.exists(archiveDir.resolve("limit_reservations_p20240220.csv.gz.tmp")));
+    }
+
+    @Test
+    void testRun_ExportFails_PartitionAttachedBack() {
+        // Given
+        ReservationRetentionJob job = new ReservationRetentionJob(partitionRepository, true, 30, archiveDir, 0);
+        LocalDate old = TODAY.minusDays(31);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findPartitionDays()).thenReturn(List.of(old));
+        when(partitionRepository.countPending(old)).thenReturn(0L);
+        when(partitionRepository.exportCsv(eq(old), any())).thenThrow(new IllegalStateException("connection lost"));
+
+        // When
+        job.run(TODAY);
+
+        // Then
+        verify(partitionRepository).attachPartition(old);
+        verify(partitionRepository, never()).dropDetachedPartition(any());
+    }
+
+    @Test
+    void testRun_DropFails_PartitionAttachedBack() {
+        // Given
+        ReservationRetentionJob job = new ReservationRetentionJob(partitionRepository, true, 30, archiveDir, 0);
+        LocalDate old = TODAY.minusDays(31);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findPartitionDays()).thenReturn(List.of(old));
+        when(partitionRepository.countPending(old)).thenReturn(0L);
+        doThrow(new IllegalStateException("lock timeout")).when(partitionRepository).dropDetachedPartition(old);
+
+        // When
+        job.run(TODAY);
+
+        // Then
+        verify(partitionRepository).attachPartition(old);
+    }
+
+    @Test
+    void testRun_InterruptedArchive_IsFinishedOnTheNextRun() {
+        // Given - прошлый запуск отсоединил партицию и не успел ее удалить
+        ReservationRetentionJob job = new ReservationRetentionJob(partitionRepository, true, 30, archiveDir, 0);
+        LocalDate detached = TODAY.minusDays(45);
+        when(partitionRepository.isPartitioned()).thenReturn(true);
+        when(partitionRepository.findDetachedPartitionDays()).thenReturn(List.of(detached));
+        when(partitionRepository.findPartitionDays()).thenReturn(List.of(TODAY));
+        when(partitionRepository.exportCsv(eq(detached), any())).thenReturn(0L);
+
+        // When
+        job.run(TODAY);
+
+        // Then
+        verify(partitionRepository, never()).detachPartition(any());
+        verify(partitionRepository).dropDetachedPartition(detached);
+        verify(partitionRepository, never()).attachPartition(any());
+        assertTrue(Files.exists(archiveDir.resolve("limit_reservations_p20240215.csv.gz")));
+    }
+
+    @Test
+    void testRun_NotPartitioned_DoesNothing() {
+        // Given
+        ReservationRetentionJob job = new ReservationRetentionJob(partitionRepository, true, 30, archiveDir, 7);
+        when(partitionRepository.isPartitioned()).thenReturn(false);
+
+        // When
+        job.run(TODAY);
+
+        // Then
+        verify(partitionRepository, only()).isPartitioned();
+    }
+}
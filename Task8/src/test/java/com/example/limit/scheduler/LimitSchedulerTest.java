@@ -0,0 +1,94 @@
+package com.example.limit.scheduler;
+
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.reset.LimitResetJob;
+import com.example.limit.retention.ReservationRetentionJob;
+import com.example.limit.service.LimitMaintenance;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LimitSchedulerTest {
+
+    @Mock
+    private LimitMaintenance limitService;
+
+    @Mock
+    private LazyLimitReset lazyReset;
+
+    @Mock
+    private ReservationRetentionJob retentionJob;
+
+    @Mock
+    private LimitResetJob resetJob;
+
+    private LimitScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new LimitScheduler(limitService, lazyReset, retentionJob, resetJob);
+    }
+
+    @Test
+    void testFailedDailyReset_IsRetriedUntilItSucceeds() {
+        // Given - полуночный сброс падает до создания чекпоинтов
+        doThrow(new IllegalStateException("database is down"))
+                .doThrow(new IllegalStateException("database is down"))
+                .doNothing()
+                .when(limitService).resetAllLimits();
+
+        // When
+        scheduler.resetLimitsDaily();
+        scheduler.retryIncompleteReset();
+        scheduler.retryIncompleteReset();
+        scheduler.retryIncompleteReset();
+
+        // Then - после успешного повтора сброс больше не запускается
+        verify(limitService, times(3)).resetAllLimits();
+    }
+
+    @Test
+    void testIncompleteCheckpoints_AreResumedByTheHourlyJob() {
+        // Given - сброс начал другой узел и остановился
+        when(resetJob.isIncomplete(LocalDate.now())).thenReturn(true);
+
+        // When
+        scheduler.retryIncompleteReset();
+
+        // Then
+        verify(limitService).resetAllLimits();
+    }
+
+    @Test
+    void testCompletedReset_IsNotRepeated() {
+        // Given
+        when(resetJob.isIncomplete(any())).thenReturn(false);
+
+        // When
+        scheduler.resetLimitsDaily();
+        scheduler.retryIncompleteReset();
+
+        // Then
+        verify(limitService, times(1)).resetAllLimits();
+    }
+
+    @Test
+    void testLazyStrategy_SkipsRetry() {
+        // Given
+        when(lazyReset.isEnabled()).thenReturn(true);
+
+        // When
+        scheduler.retryIncompleteReset();
+
+        // Then
+        verifyNoInteractions(limitService, resetJob);
+    }
+}
@@ -1,26 +1,48 @@
 package com.example.limit.service;
 
+import com.example.limit.cache.LimitReadCache;
 import com.example.limit.dto.LimitResponse;
+import com.example.limit.dto.ReservationBatchItem;
+import com.example.limit.dto.ReservationBatchResult;
 import com.example.limit.dto.ReservationResponse;
 import com.example.limit.entity.LimitReservation;
 import com.example.limit.entity.UserLimit;
 import com.example.limit.exception.InsufficientLimitException;
 import com.example.limit.exception.ReservationNotFoundException;
+import com.example.limit.expiry.ReservationExpiryWheel;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.lock.UserLockStripes;
+import com.example.limit.money.Money;
 import com.example.limit.repository.LimitReservationRepository;
 import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.reset.LazyLimitReset;
+import com.example.limit.reset.LimitResetJob;
+import com.example.limit.velocity.VelocityLimiter;
+import com.example.limit.writebehind.ReservationWriteBehind;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,27 +54,46 @@ class LimitServiceTest {
     @Mock
     private LimitReservationRepository reservationRepository;
     
-    @InjectMocks
+    @Mock
+    private ReservationBatchProcessor batchProcessor;
+    
+    @Mock
+    private ReservationExpiryWheel expiryWheel;
+    
+    @Mock
+    private LimitResetJob limitResetJob;
+    
+    @Mock
+    private LazyLimitReset lazyReset;
+    
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    
     private LimitService limitService;
     
     private static final BigDecimal DEFAULT_LIMIT = new BigDecimal("100000.00");
+    private static final long DEFAULT_LIMIT_CENTS = 10_000_000L;
     private static final Long USER_ID = 1L;
     
     @BeforeEach
     void setUp() {
         // Создаем новый экземпляр сервиса с дефолтным лимитом
-        limitService = new LimitService(userLimitRepository, reservationRepository, DEFAULT_LIMIT);
+        limitService = new LimitService(userLimitRepository, reservationRepository, batchProcessor, expiryWheel,
+                limitResetJob, lazyReset, new IdempotencyCache(Duration.ofMinutes(10), 100),
+                new VelocityLimiter(List.of(), null, null, null, System::currentTimeMillis),
+                new ReservationWriteBehind(null, null, null, null, null, false, 0, 1), new UserLockStripes(16),
+                new LimitReadCache(true, Duration.ofSeconds(5), 100),
+                transactionManager,
+                DEFAULT_LIMIT, 2);
     }
     
     @Test
     void testGetLimit_ExistingUser() {
         // Given
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS);
         userLimit.setUpdatedAt(LocalDateTime.now());
         
         when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
         
         // When
         LimitResponse response = limitService.getLimit(USER_ID);
@@ -68,13 +109,11 @@ class LimitServiceTest {
     @Test
     void testGetLimit_NewUser() {
         // Given
-        UserLimit newUserLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        UserLimit newUserLimit = new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS);
         newUserLimit.setUpdatedAt(LocalDateTime.now());
         
         when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.empty());
         when(userLimitRepository.save(any(UserLimit.class))).thenReturn(newUserLimit);
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
         
         // When
         LimitResponse response = limitService.getLimit(USER_ID);
@@ -83,22 +122,37 @@ class LimitServiceTest {
         assertNotNull(response);
         verify(userLimitRepository).save(any(UserLimit.class));
     }
-    
+
+    @Test
+    void testGetLimit_CachedUntilUserIsChanged() {
+        // Given
+        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS);
+        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
+        when(userLimitRepository.addCurrentLimit(USER_ID, 5_000L)).thenReturn(1);
+
+        // When - повторное чтение идет из кэша, без транзакции
+        LimitResponse first = limitService.getLimit(USER_ID);
+        assertSame(first, limitService.getLimit(USER_ID));
+        verify(userLimitRepository, times(1)).findByUserId(USER_ID);
+        verifyNoInteractions(transactionManager);
+
+        // Then - изменение сбрасывает запись
+        limitService.restoreLimit(USER_ID, new BigDecimal("50.00"));
+        assertNotSame(first, limitService.getLimit(USER_ID));
+        verify(userLimitRepository, times(2)).findByUserId(USER_ID);
+    }
+
     @Test
     void testReserveLimit_Success() {
         // Given
         BigDecimal amount = new BigDecimal("1000.00");
         String operationId = "op-123";
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
-        LimitReservation reservation = new LimitReservation(USER_ID, amount, operationId);
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
         reservation.setId(1L);
         reservation.setCreatedAt(LocalDateTime.now());
         reservation.setExpiresAt(LocalDateTime.now().plusHours(1));
         
-        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
-        when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.empty());
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
+        when(userLimitRepository.tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(1);
         when(reservationRepository.save(any(LimitReservation.class))).thenReturn(reservation);
         
         // When
@@ -109,21 +163,86 @@ class LimitServiceTest {
         assertEquals(operationId, response.getOperationId());
         assertEquals(amount, response.getAmount());
         verify(reservationRepository).save(any(LimitReservation.class));
+        verify(userLimitRepository, never()).findByUserId(any());
+    }
+    
+    @Test
+    void testReserveLimit_Repeated_ReturnsOriginalWithoutDb() {
+        // Given
+        BigDecimal amount = new BigDecimal("1000.00");
+        String operationId = "op-retry";
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
+        reservation.setId(7L);
+        
+        when(userLimitRepository.tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(1);
+        when(reservationRepository.save(any(LimitReservation.class))).thenReturn(reservation);
+        ReservationResponse original = limitService.reserveLimit(USER_ID, amount, operationId);
+        
+        // When
+        ReservationResponse repeated = limitService.reserveLimit(USER_ID, amount, operationId);
+        
+        // Then
+        assertSame(original, repeated);
+        verify(userLimitRepository, times(1)).tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong());
+        verify(reservationRepository, times(1)).save(any(LimitReservation.class));
+        assertThrows(IllegalArgumentException.class, () ->
+                limitService.reserveLimit(USER_ID, new BigDecimal("5.00"), operationId));
+    }
+    
+    @Test
+    void testReserveLimit_CacheMissDuplicate_ReturnsStoredReservation() {
+        // Given - резерв создан другим узлом, уникальное ограничение отклоняет вставку
+        BigDecimal amount = new BigDecimal("1000.00");
+        String operationId = "op-other-node";
+        LimitReservation stored = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
+        stored.setId(9L);
+        
+        when(userLimitRepository.tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(1);
+        when(reservationRepository.save(any(LimitReservation.class)))
+                .thenThrow(new DataIntegrityViolationException("uk_operation_id"));
+        when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.of(stored));
+        
+        // When
+        ReservationResponse response = limitService.reserveLimit(USER_ID, amount, operationId);
+        
+        // Then
+        assertEquals(9L, response.getReservationId());
+        verify(transactionManager).rollback(any());
     }
     
     @Test
     void testReserveLimit_InsufficientLimit() {
         // Given
         BigDecimal amount = new BigDecimal("200000.00");
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS);
         
+        when(userLimitRepository.tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(0);
         when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
         
         // When/Then
         assertThrows(InsufficientLimitException.class, () -> 
                 limitService.reserveLimit(USER_ID, amount, null));
+        verify(reservationRepository, never()).save(any());
+    }
+    
+    @Test
+    void testReserveLimit_NewUser_CreatesLimitAndRetries() {
+        // Given
+        BigDecimal amount = new BigDecimal("1000.00");
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), "op-new");
+        
+        when(userLimitRepository.tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(0, 1);
+        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.empty());
+        when(userLimitRepository.save(any(UserLimit.class)))
+                .thenReturn(new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS));
+        when(reservationRepository.save(any(LimitReservation.class))).thenReturn(reservation);
+        
+        // When
+        limitService.reserveLimit(USER_ID, amount, "op-new");
+        
+        // Then
+        verify(userLimitRepository).save(any(UserLimit.class));
+        verify(userLimitRepository, times(2)).tryReserve(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong());
     }
     
     @Test
@@ -131,21 +250,35 @@ class LimitServiceTest {
         // Given
         String operationId = "op-123";
         BigDecimal amount = new BigDecimal("1000.00");
-        LimitReservation reservation = new LimitReservation(USER_ID, amount, operationId);
-        reservation.setStatus(LimitReservation.ReservationStatus.PENDING);
-        
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
         
         when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.of(reservation));
-        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
+        when(reservationRepository.transitionStatus(operationId,
+                LimitReservation.ReservationStatus.PENDING, LimitReservation.ReservationStatus.CONFIRMED)).thenReturn(1);
+        when(userLimitRepository.applyConfirmed(USER_ID, Money.fromDecimal(amount))).thenReturn(1);
         
         // When
         limitService.confirmOperation(operationId);
         
         // Then
-        assertEquals(LimitReservation.ReservationStatus.CONFIRMED, reservation.getStatus());
-        verify(userLimitRepository).save(userLimit);
-        verify(reservationRepository).save(reservation);
+        verify(userLimitRepository).applyConfirmed(USER_ID, Money.fromDecimal(amount));
+        verify(userLimitRepository, never()).save(any());
+    }
+    
+    @Test
+    void testConfirmOperation_NotPending() {
+        // Given
+        String operationId = "op-123";
+        LimitReservation reservation = new LimitReservation(USER_ID, 100_000L, operationId);
+        reservation.setStatus(LimitReservation.ReservationStatus.CANCELLED);
+        
+        when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.of(reservation));
+        when(reservationRepository.transitionStatus(operationId,
+                LimitReservation.ReservationStatus.PENDING, LimitReservation.ReservationStatus.CONFIRMED)).thenReturn(0);
+        
+        // When/Then
+        assertThrows(IllegalStateException.class, () -> limitService.confirmOperation(operationId));
+        verify(userLimitRepository, never()).applyConfirmed(any(), anyLong());
     }
     
     @Test
@@ -164,18 +297,18 @@ class LimitServiceTest {
         // Given
         String operationId = "op-123";
         BigDecimal amount = new BigDecimal("1000.00");
-        LimitReservation reservation = new LimitReservation(USER_ID, amount, operationId);
-        reservation.setStatus(LimitReservation.ReservationStatus.PENDING);
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
         
         when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.of(reservation));
+        when(reservationRepository.transitionStatus(operationId,
+                LimitReservation.ReservationStatus.PENDING, LimitReservation.ReservationStatus.CANCELLED)).thenReturn(1);
         
         // When
         limitService.cancelOperation(operationId);
         
         // Then
-        assertEquals(LimitReservation.ReservationStatus.CANCELLED, reservation.getStatus());
-        verify(reservationRepository).save(reservation);
-        verify(userLimitRepository, never()).save(any());
+        verify(userLimitRepository).addReservedAmount(USER_ID, -Money.fromDecimal(amount));
+        verify(userLimitRepository, never()).addCurrentLimit(any(), anyLong());
     }
     
     @Test
@@ -183,70 +316,181 @@ class LimitServiceTest {
         // Given
         String operationId = "op-123";
         BigDecimal amount = new BigDecimal("1000.00");
-        LimitReservation reservation = new LimitReservation(USER_ID, amount, operationId);
+        LimitReservation reservation = new LimitReservation(USER_ID, Money.fromDecimal(amount), operationId);
         reservation.setStatus(LimitReservation.ReservationStatus.CONFIRMED);
         
-        UserLimit userLimit = new UserLimit(USER_ID, new BigDecimal("99000.00"), DEFAULT_LIMIT);
-        
         when(reservationRepository.findByOperationId(operationId)).thenReturn(Optional.of(reservation));
-        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
+        when(reservationRepository.transitionStatus(operationId,
+                LimitReservation.ReservationStatus.CONFIRMED, LimitReservation.ReservationStatus.CANCELLED)).thenReturn(1);
+        when(userLimitRepository.addCurrentLimit(USER_ID, Money.fromDecimal(amount))).thenReturn(1);
         
         // When
         limitService.cancelOperation(operationId);
         
         // Then
-        assertEquals(LimitReservation.ReservationStatus.CANCELLED, reservation.getStatus());
-        verify(userLimitRepository).save(userLimit);
-        assertEquals(new BigDecimal("100000.00"), userLimit.getCurrentLimit());
+        verify(userLimitRepository).addCurrentLimit(USER_ID, Money.fromDecimal(amount));
+        verify(userLimitRepository, never()).addReservedAmount(any(), anyLong());
     }
     
     @Test
     void testRestoreLimit() {
         // Given
         BigDecimal amount = new BigDecimal("1000.00");
-        UserLimit userLimit = new UserLimit(USER_ID, new BigDecimal("99000.00"), DEFAULT_LIMIT);
-        
-        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
+        when(userLimitRepository.addCurrentLimit(USER_ID, Money.fromDecimal(amount))).thenReturn(1);
         
         // When
         limitService.restoreLimit(USER_ID, amount);
         
         // Then
-        assertEquals(new BigDecimal("100000.00"), userLimit.getCurrentLimit());
-        verify(userLimitRepository).save(userLimit);
+        verify(userLimitRepository).addCurrentLimit(USER_ID, Money.fromDecimal(amount));
     }
     
     @Test
-    void testDeductLimit_Success() {
+    void testRestoreLimit_UserLimitNotFound() {
         // Given
         BigDecimal amount = new BigDecimal("1000.00");
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        when(userLimitRepository.addCurrentLimit(USER_ID, Money.fromDecimal(amount))).thenReturn(0);
         
-        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
+        // When/Then
+        assertThrows(IllegalStateException.class, () -> limitService.restoreLimit(USER_ID, amount));
+    }
+    
+    @Test
+    void testDeductLimit_Success() {
+        // Given
+        BigDecimal amount = new BigDecimal("1000.00");
+        when(userLimitRepository.tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(1);
         
         // When
         limitService.deductLimit(USER_ID, amount);
         
         // Then
-        assertEquals(new BigDecimal("99000.00"), userLimit.getCurrentLimit());
-        verify(userLimitRepository).save(userLimit);
+        verify(userLimitRepository).tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong());
+        verify(userLimitRepository, never()).findByUserId(any());
+    }
+    
+    @Test
+    void testDeductLimit_WithOperationId_RepeatedDoesNotDeductTwice() {
+        // Given
+        BigDecimal amount = new BigDecimal("1000.00");
+        when(userLimitRepository.tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(1);
+        when(reservationRepository.save(any(LimitReservation.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        
+        // When
+        limitService.deductLimit(USER_ID, amount, "deduct-1");
+        limitService.deductLimit(USER_ID, amount, "deduct-1");
+        
+        // Then
+        verify(userLimitRepository, times(1)).tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong());
+        verify(reservationRepository).save(argThat(saved ->
+                saved.getStatus() == LimitReservation.ReservationStatus.CONFIRMED && saved.getExpiresAt() == null));
     }
     
     @Test
     void testDeductLimit_InsufficientLimit() {
         // Given
         BigDecimal amount = new BigDecimal("200000.00");
-        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT, DEFAULT_LIMIT);
+        UserLimit userLimit = new UserLimit(USER_ID, DEFAULT_LIMIT_CENTS, DEFAULT_LIMIT_CENTS);
         
+        when(userLimitRepository.tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(0);
         when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
-        when(reservationRepository.sumReservedAmountByUserIdAndStatus(USER_ID, LimitReservation.ReservationStatus.PENDING))
-                .thenReturn(BigDecimal.ZERO);
         
         // When/Then
         assertThrows(InsufficientLimitException.class, () -> 
                 limitService.deductLimit(USER_ID, amount));
     }
-}
+    
+    @Test
+    void testDeductLimit_StalePeriod_RollsOverAndRetries() {
+        // Given - строка относится к прошлому дню, условный UPDATE ее не трогает
+        BigDecimal amount = new BigDecimal("1000.00");
+        UserLimit userLimit = new UserLimit(USER_ID, 0, DEFAULT_LIMIT_CENTS);
+        
+        when(userLimitRepository.tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong())).thenReturn(0, 1);
+        when(userLimitRepository.findByUserId(USER_ID)).thenReturn(Optional.of(userLimit));
+        when(lazyReset.isStale(userLimit)).thenReturn(true);
+        
+        // When
+        limitService.deductLimit(USER_ID, amount);
+        
+        // Then
+        verify(lazyReset).rollOver(USER_ID);
+        verify(userLimitRepository, times(2)).tryDeduct(eq(USER_ID), eq(Money.fromDecimal(amount)), anyLong());
+    }
+    
+    @Test
+    void testReserveBatch_GroupsByUserAndKeepsOrder() {
+        // Given
+        ReservationBatchItem first = new ReservationBatchItem(2L, new BigDecimal("10.00"), "batch-1");
+        ReservationBatchItem second = new ReservationBatchItem(1L, new BigDecimal("20.00"), "batch-2");
+        ReservationBatchItem third = new ReservationBatchItem(2L, new BigDecimal("30.00"), "batch-3");
+        
+        when(batchProcessor.reserveChunk(any())).thenAnswer(invocation -> {
+            List<ReservationBatchItem> chunk = invocation.getArgument(0);
+            return chunk.stream().map(item -> ReservationBatchResult.reserved(item, item.operationId())).toList();
+        });
+        
+        // When
+        List<ReservationBatchResult> results = limitService.reserveBatch(List.of(first, second, third));
+        
+        // Then - пачки по 2 элемента, элементы отсортированы по пользователю
+        verify(batchProcessor).reserveChunk(List.of(second, first));
+        verify(batchProcessor).reserveChunk(List.of(third));
+        assertEquals(List.of("batch-1", "batch-2", "batch-3"),
+                results.stream().map(ReservationBatchResult::operationId).toList());
+    }
+    
+    @Test
+    void testReserveBatch_FailedChunkRetriedItemByItem() {
+        // Given
+        ReservationBatchItem ok = new ReservationBatchItem(1L, new BigDecimal("10.00"), "batch-ok");
+        ReservationBatchItem broken = new ReservationBatchItem(1L, new BigDecimal("20.00"), "batch-broken");
+        
+        when(batchProcessor.reserveChunk(List.of(ok, broken)))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+        when(batchProcessor.reserveChunk(List.of(ok)))
+                .thenReturn(List.of(ReservationBatchResult.reserved(ok, "batch-ok")));
+        when(batchProcessor.reserveChunk(List.of(broken)))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+        
+        // When
+        List<ReservationBatchResult> results = limitService.reserveBatch(List.of(ok, broken));
+        
+        // Then
+        assertEquals(ReservationBatchResult.Outcome.RESERVED, results.get(0).outcome());
+        assertEquals(ReservationBatchResult.Outcome.FAILED, results.get(1).outcome());
+    }
 
+    @Test
+    void testMutationsOfOneUser_RunOneAtATimeUnderItsStripe() throws Exception {
+        // Given - транзакции замоканы, поэтому по очереди изменения одного пользователя ставят только полосы
+        AtomicInteger inTransaction = new AtomicInteger();
+        AtomicInteger maxInTransaction = new AtomicInteger();
+        when(userLimitRepository.addCurrentLimit(eq(USER_ID), anyLong())).thenAnswer(invocation -> {
+            maxInTransaction.accumulateAndGet(inTransaction.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            inTransaction.decrementAndGet();
+            return 1;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+
+        // When
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    limitService.restoreLimit(USER_ID, new BigDecimal("1.00"));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Then
+        verify(userLimitRepository, times(160)).addCurrentLimit(USER_ID, 100L);
+        assertEquals(1, maxInTransaction.get());
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.limit.velocity;
+
+import com.example.limit.cache.LimitReadCache;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.exception.VelocityLimitExceededException;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.repository.LimitBatchRepository;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.repository.VelocitySnapshotRepository;
+import com.example.limit.service.LimitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.velocity.minute.max-operations=3",
+        "limit.velocity.hour.max-amount=5000.00",
+        "limit.velocity.snapshot-ms=3600000",
+        "spring.datasource.url=jdbc:h2:mem:velocitydb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class VelocityLimitIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private LimitService limitService;
+
+    @Autowired
+    private VelocityLimiter velocityLimiter;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    @Autowired
+    private VelocitySnapshotRepository snapshotRepository;
+
+    @Autowired
+    private LimitBatchRepository batchRepository;
+
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    @Autowired
+    private LimitReadCache readCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        reservationRepository.deleteAll();
+        userLimitRepository.deleteAll();
+        snapshotRepository.deleteAll();
+        idempotencyCache.clear();
+        readCache.clear();
+    }
+
+    @Test
+    void testReserveAndDeduct_ShareOperationWindow() {
+        // Given
+        Long userId = 1L;
+        limitService.reserveLimit(userId, new BigDecimal("10.00"), "velocity-op-1");
+        limitService.deductLimit(userId, new BigDecimal("10.00"));
+        limitService.reserveLimit(userId, new BigDecimal("10.00"), null);
+
+        // When/Then - повтор по operationId отвечает из кэша и не считается новой операцией
+        assertNotNull(limitService.reserveLimit(userId, new BigDecimal("10.00"), "velocity-op-1"));
+        assertThrows(VelocityLimitExceededException.class, () ->
+                limitService.reserveLimit(userId, new BigDecimal("10.00"), null));
+        assertThrows(VelocityLimitExceededException.class, () ->
+                limitService.deductLimit(userId, new BigDecimal("10.00"), "velocity-op-2"));
+        assertEquals(2, reservationRepository.count());
+    }
+
+    @Test
+    void testRejectedByDailyLimit_NotCounted() {
+        // Given - дневного лимита не хватает
+        Long userId = 2L;
+        userLimitRepository.save(new UserLimit(userId, 100_000L, 10_000_000L));
+        for (int i = 0; i < 5; i++) {
+            assertThrows(InsufficientLimitException.class, () ->
+                    limitService.reserveLimit(userId, new BigDecimal("2000.00"), null));
+        }
+
+        // When/Then - отклоненные операции не заняли окно
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(limitService.reserveLimit(userId, new BigDecimal("100.00"), null));
+        }
+        assertThrows(VelocityLimitExceededException.class, () ->
+                limitService.reserveLimit(userId, new BigDecimal("100.00"), null));
+    }
+
+    @Test
+    void testReserveBatchEndpoint_CountsEveryItemAndReleasesRejected() throws Exception {
+        // Given - одна операция уже в окне минуты (предел 3), второму пользователю не хватит дневного лимита
+        Long userId = 4L;
+        limitService.reserveLimit(userId, new BigDecimal("10.00"), null);
+        userLimitRepository.save(new UserLimit(5L, 100_000L, 10_000_000L));
+
+        // When
+        mockMvc.perform(post("/api/limits/reserve:batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"items": [
+                                  {"userId": 4, "amount": 10.00, "operationId": "velocity-batch-1"},
+                                  {"userId": 4, "amount": 10.00, "operationId": "velocity-batch-2"},
+                                  {"userId": 4, "amount": 10.00, "operationId": "velocity-batch-3"},
+                                  {"userId": 5, "amount": 2000.00, "operationId": "velocity-batch-4"}
+                                ]}
+                                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("RESERVED"))
+                .andExpect(jsonPath("$[1].outcome").value("RESERVED"))
+                .andExpect(jsonPath("$[2].outcome").value("VELOCITY_LIMIT_EXCEEDED"))
+                .andExpect(jsonPath("$[3].outcome").value("INSUFFICIENT_LIMIT"));
+
+        // Then - пачка не обходит пределы, а отклоненный лимитом элемент не занял окно
+        assertTrue(reservationRepository.findByOperationId("velocity-batch-3").isEmpty());
+        assertThrows(VelocityLimitExceededException.class, () ->
+                limitService.reserveLimit(userId, new BigDecimal("10.00"), null));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(limitService.reserveLimit(5L, new BigDecimal("100.00"), null));
+        }
+    }
+
+    @Test
+    void testSnapshot_RestoredAfterRestart() {
+        // Given
+        Long userId = 3L;
+        limitService.reserveLimit(userId, new BigDecimal("3000.00"), null);
+        limitService.reserveLimit(userId, new BigDecimal("1500.00"), null);
+
+        // When - снимок и новый экземпляр, как после перезапуска
+        velocityLimiter.snapshot();
+        VelocityLimiter restarted = new VelocityLimiter(List.of(
+                new VelocityWindow("minute", Duration.ofMinutes(1), 60, 3, 0),
+                new VelocityWindow("hour", Duration.ofHours(1), 60, 0, 500_000)),
+                batchRepository, snapshotRepository, transactionManager, System::currentTimeMillis);
+        restarted.restore();
+
+        // Then
+        assertEquals(2, snapshotRepository.findAll().stream()
+                .filter(snapshot -> snapshot.getUserId().equals(userId)).count());
+        assertThrows(VelocityLimitExceededException.class, () -> restarted.acquire(userId, 50_001));
+        assertNotNull(restarted.acquire(userId, 50_000));
+        assertThrows(VelocityLimitExceededException.class, () -> restarted.acquire(userId, 0));
+    }
+}
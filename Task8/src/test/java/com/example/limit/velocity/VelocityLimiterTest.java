@@ -0,0 +1,89 @@
+package com.example.limit.velocity;
+
+import com.example.limit.exception.VelocityLimitExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VelocityLimiterTest {
+
+    private static final Long USER_ID = 1L;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    @Test
+    void testOperationCap_SlidesWithBuckets() {
+        // Given - не больше 3 операций за минуту, бакеты по 10 секунд
+        VelocityLimiter limiter = limiter(new VelocityWindow("minute", Duration.ofMinutes(1), 6, 3, 0));
+        limiter.acquire(USER_ID, 100);
+        clock.addAndGet(20_000);
+        limiter.acquire(USER_ID, 100);
+        limiter.acquire(USER_ID, 100);
+
+        // When/Then - окно заполнено, другой пользователь считается отдельно
+        assertThrows(VelocityLimitExceededException.class, () -> limiter.acquire(USER_ID, 100));
+        assertNotNull(limiter.acquire(2L, 100));
+
+        // Первая операция выходит из окна через минуту после своего бакета
+        clock.addAndGet(39_999);
+        assertThrows(VelocityLimitExceededException.class, () -> limiter.acquire(USER_ID, 100));
+        clock.addAndGet(1);
+        assertNotNull(limiter.acquire(USER_ID, 100));
+    }
+
+    @Test
+    void testAmountCap_ReleasedOperationDoesNotCount() {
+        // Given - не больше 10.00 за час
+        VelocityLimiter limiter = limiter(new VelocityWindow("hour", Duration.ofHours(1), 60, 0, 1_000));
+        VelocityLimiter.Permit permit = limiter.acquire(USER_ID, 600);
+
+        // When/Then
+        VelocityLimitExceededException e = assertThrows(VelocityLimitExceededException.class, () ->
+                limiter.acquire(USER_ID, 500));
+        assertEquals("Velocity limit exceeded: at most 10.00 per hour", e.getMessage());
+
+        limiter.release(permit);
+        assertNotNull(limiter.acquire(USER_ID, 1_000));
+    }
+
+    @Test
+    void testDisabledWindows_AreNotTracked() {
+        VelocityLimiter limiter = limiter(new VelocityWindow("minute", Duration.ofMinutes(1), 60, 0, 0));
+
+        assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(USER_ID, Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    void testCounter_EncodeRestore_DropsExpiredBuckets() {
+        // Given
+        VelocityWindow window = new VelocityWindow("minute", Duration.ofMinutes(1), 60, 0, 0);
+        SlidingWindowCounter counter = new SlidingWindowCounter(window);
+        counter.advance(0);
+        counter.add(0, 1, 100);
+        counter.advance(30_000);
+        counter.add(30_000, 2, 250);
+        byte[] encoded = counter.encode();
+
+        // When - восстанавливаем через 40 секунд: первый бакет уже вне окна
+        SlidingWindowCounter restored = new SlidingWindowCounter(window);
+        restored.advance(70_000);
+        restored.restore(encoded);
+
+        // Then
+        assertEquals(SlidingWindowCounter.ENCODED_BUCKET_BYTES, restored.encode().length);
+        assertTrue(restored.fits(0, new VelocityWindow("minute", Duration.ofMinutes(1), 60, 3, 0)));
+        assertFalse(restored.fits(0, new VelocityWindow("minute", Duration.ofMinutes(1), 60, 2, 0)));
+        assertFalse(restored.fits(1, new VelocityWindow("minute", Duration.ofMinutes(1), 60, 0, 250)));
+    }
+
+    private VelocityLimiter limiter(VelocityWindow window) {
+        return new VelocityLimiter(List.of(window), null, null, null, clock::get);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.limit.writebehind;
+
+import com.example.limit.cache.LimitReadCache;
+import com.example.limit.dto.ReservationResponse;
+import com.example.limit.entity.LimitReservation;
+import com.example.limit.entity.UserLimit;
+import com.example.limit.exception.InsufficientLimitException;
+import com.example.limit.idempotency.IdempotencyCache;
+import com.example.limit.repository.LimitReservationRepository;
+import com.example.limit.repository.UserLimitRepository;
+import com.example.limit.service.LimitService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "limit.default-value=100000.00",
+        "limit.write-behind.enabled=true",
+        "limit.write-behind.max-delay-ms=5",
+        "limit.write-behind.max-batch=16",
+        "spring.datasource.url=jdbc:h2:mem:writebehinddb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class ReservationWriteBehindIntegrationTest {
+
+    @Autowired
+    private LimitService limitService;
+
+    @Autowired
+    private UserLimitRepository userLimitRepository;
+
+    @Autowired
+    private LimitReservationRepository reservationRepository;
+
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    @Autowired
+    private LimitReadCache readCache;
+
+    @BeforeEach
+    void setUp() {
+        reservationRepository.deleteAll();
+        userLimitRepository.deleteAll();
+        idempotencyCache.clear();
+        readCache.clear();
+    }
+
+    @Test
+    void testConcurrentReserveAndConfirm_AllCommitted() throws Exception {
+        // Given - 8 пользователей, по 10 резервов с подтверждением из параллельных потоков
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<ReservationResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            long userId = 1 + i % 8;
+            String operationId = "wb-op-" + i;
+            futures.add(executor.submit(() -> {
+                ReservationResponse reservation = limitService.reserveLimit(userId, new BigDecimal("10.00"), operationId);
+                limitService.confirmOperation(operationId);
+                return reservation;
+            }));
+        }
+
+        // When
+        for (Future<ReservationResponse> future : futures) {
+            ReservationResponse reservation = future.get(30, TimeUnit.SECONDS);
+            // Then - ответ получен после коммита, поэтому резерв уже в БД
+            assertNotNull(reservation.getReservationId());
+            assertEquals("PENDING", reservation.getStatus());
+        }
+        executor.shutdown();
+
+        // Then
+        assertEquals(80, reservationRepository.countByStatus(LimitReservation.ReservationStatus.CONFIRMED));
+        for (long userId = 1; userId <= 8; userId++) {
+            UserLimit userLimit = userLimitRepository.findByUserId(userId).orElseThrow();
+            assertEquals(10_000_000L - 10_000L, userLimit.getCurrentLimit());
+            assertEquals(0L, userLimit.getReservedAmount());
+        }
+    }
+
+    @Test
+    void testRejectedWrites_FailOnlyTheirCaller() {
+        // Given
+        Long userId = 100L;
+        userLimitRepository.save(new UserLimit(userId, 5_000L, 10_000_000L));
+        ReservationResponse first = limitService.reserveLimit(userId, new BigDecimal("30.00"), "wb-dup");
+
+        // When/Then - повтор отвечает исходным резервом, нехватка лимита отклоняет только свой вызов
+        idempotencyCache.clear();
+        assertEquals(first.getReservationId(),
+                limitService.reserveLimit(userId, new BigDecimal("30.00"), "wb-dup").getReservationId());
+        assertThrows(InsufficientLimitException.class, () ->
+                limitService.reserveLimit(userId, new BigDecimal("30.00"), null));
+        assertNotNull(limitService.reserveLimit(userId, new BigDecimal("20.00"), null));
+
+        limitService.confirmOperation("wb-dup");
+        IllegalStateException e = assertThrows(IllegalStateException.class, () ->
+                limitService.confirmOperation("wb-dup"));
+        assertEquals("Reservation is not in PENDING status", e.getMessage());
+
+        UserLimit userLimit = userLimitRepository.findByUserId(userId).orElseThrow();
+        assertEquals(2_000L, userLimit.getCurrentLimit());
+        assertEquals(2_000L, userLimit.getReservedAmount());
+    }
+}
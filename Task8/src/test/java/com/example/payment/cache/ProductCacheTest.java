@@ -0,0 +1,102 @@
+package com.example.payment.cache;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.exception.ProductNotFoundException;
+import com.example.product.ProductType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final ProductCache cache = new ProductCache(true, 2, Duration.ofMinutes(10), Duration.ofSeconds(5),
+            Duration.ofSeconds(10), now::get);
+
+    @Test
+    void testBalanceExpiresBeforeOwnership() {
+        ProductResponse product = product(10L, 1L);
+        cache.put(product);
+
+        assertSame(product, cache.get(10L));
+
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+        assertNull(cache.get(10L));
+        assertEquals(1L, cache.owner(10L));
+
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertNull(cache.owner(10L));
+    }
+
+    @Test
+    void testNotFoundIsCachedBriefly() {
+        cache.putNotFound(55L, "Product 55 not found");
+
+        ProductNotFoundException error = assertThrows(ProductNotFoundException.class, () -> cache.get(55L));
+        assertEquals("Product 55 not found", error.getMessage());
+        assertNull(cache.owner(55L));
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertNull(cache.get(55L));
+    }
+
+    @Test
+    void testUserProductsAreCachedWithTheirProducts() {
+        List<ProductResponse> products = List.of(product(1L, 7L), product(2L, 7L));
+        cache.putProducts(7L, products);
+
+        assertEquals(products, cache.getProducts(7L));
+        assertEquals(7L, cache.get(2L).userId());
+
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+        assertNull(cache.getProducts(7L));
+    }
+
+    @Test
+    void testStatisticsAndEvictionByMaxSize() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        cache.put(product(1L, 1L));
+        cache.put(product(2L, 1L));
+        cache.put(product(3L, 1L));
+        cache.putNotFound(4L, "missing");
+
+        assertNull(cache.get(1L));
+        cache.get(3L);
+        assertThrows(ProductNotFoundException.class, () -> cache.get(4L));
+
+        assertEquals(1, counter(registry, "hit"));
+        assertEquals(1, counter(registry, "miss"));
+        assertEquals(1, counter(registry, "not-found"));
+        assertEquals(2, registry.get("cache.evictions").tag("cache", "products").functionCounter().count());
+        assertEquals(2, registry.get("cache.size").tag("cache", "products").gauge().value());
+    }
+
+    @Test
+    void testDisabledCacheStoresNothing() {
+        ProductCache disabled = new ProductCache(false, 2, Duration.ofMinutes(10), Duration.ofSeconds(5),
+                Duration.ofSeconds(10), now::get);
+        disabled.put(product(1L, 1L));
+        disabled.putNotFound(2L, "missing");
+
+        assertNull(disabled.get(1L));
+        assertNull(disabled.get(2L));
+    }
+
+    private static double counter(SimpleMeterRegistry registry, String result) {
+        return registry.get("cache.gets").tag("cache", "products").tag("result", result).functionCounter().count();
+    }
+
+    private static ProductResponse product(Long id, Long userId) {
+        return new ProductResponse(id, "4081781000000000000" + id, new BigDecimal("100.00"), ProductType.ACCOUNT, userId);
+    }
+}
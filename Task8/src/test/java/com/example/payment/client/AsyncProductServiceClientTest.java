@@ -0,0 +1,99 @@
+package com.example.payment.client;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.exception.ProductNotFoundException;
+import com.example.payment.exception.ProductServiceUnavailableException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncProductServiceClientTest {
+
+    private HttpServer server;
+    private AsyncProductServiceClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v1/users/1/products", exchange -> respond(exchange, 200, """
+                [
+                  {"id":1,"accountNumber":"111","balance":100.0,"productType":"ACCOUNT","userId":1},
+                  {"id":2,"accountNumber":"222","balance":200.0,"productType":"ACCOUNT","userId":1}
+                ]
+                """));
+        server.createContext("/api/v1/products/1", exchange -> respond(exchange, 200, """
+                {"id":1,"accountNumber":"111","balance":100.0,"productType":"ACCOUNT","userId":1}
+                """));
+        server.createContext("/api/v1/products/55", exchange -> respond(exchange, 404, "not found"));
+        server.createContext("/api/v1/products/10", exchange -> respond(exchange, 503, "down"));
+        server.start();
+        client = newClient("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void getProductsForUserReturnsList() {
+        List<ProductResponse> products = client.getProductsForUser(1L).join();
+
+        assertThat(products).extracting(ProductResponse::id).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void getProductByIdReturnsProduct() {
+        ProductResponse product = client.getProductById(1L).join();
+
+        assertThat(product.userId()).isEqualTo(1L);
+    }
+
+    @Test
+    void getProductByIdCompletesWithMappedExceptions() {
+        CompletionException notFound = assertThrows(CompletionException.class, () -> client.getProductById(55L).join());
+        assertInstanceOf(ProductNotFoundException.class, notFound.getCause());
+
+        CompletionException unavailable = assertThrows(CompletionException.class, () -> client.getProductById(10L).join());
+        assertInstanceOf(ProductServiceUnavailableException.class, unavailable.getCause());
+    }
+
+    @Test
+    void getProductByIdCompletesWithResourceAccessExceptionWhenServiceIsDown() {
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        AsyncProductServiceClient downClient = newClient("http://localhost:" + port);
+
+        CompletionException error = assertThrows(CompletionException.class, () -> downClient.getProductById(1L).join());
+        assertInstanceOf(ResourceAccessException.class, error.getCause());
+    }
+
+    private static AsyncProductServiceClient newClient(String baseUrl) {
+        return new AsyncProductServiceClient(HttpClient.newHttpClient(), new ObjectMapper(),
+                new ProductServiceResponseErrorHandler(), baseUrl, Duration.ofSeconds(5));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.payment.client;
+
+import com.example.payment.exception.ProductNotFoundException;
+import com.example.payment.exception.ProductServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MicroBatcherTest {
+
+    /** Ключ занятого запроса: его одиночный вызов держится, пока тест не отпустит busyRelease */
+    private static final long BUSY = 0L;
+
+    private final List<Long> singleCalls = new CopyOnWriteArrayList<>();
+    private final List<List<Long>> batchCalls = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch busyStarted;
+    private volatile CountDownLatch busyRelease;
+
+    @Test
+    void testIdleLookupIsSentAtOnceWithoutWaitingForTheWindow() {
+        MicroBatcher<Long, String> batcher = batcher(Duration.ofSeconds(30), 10, this::loadAll);
+
+        long started = System.nanoTime();
+        assertEquals("product-7", batcher.load(7L));
+        assertEquals("product-8", batcher.load(8L));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(5));
+        assertEquals(List.of(7L, 8L), singleCalls);
+        assertThat(batchCalls).isEmpty();
+    }
+
+    @Test
+    void testConcurrentLookupsShareOneBatchCall() throws Exception {
+        MicroBatcher<Long, String> batcher = batcher(Duration.ofSeconds(5), 4, this::loadAll);
+
+        List<String> results = loadConcurrently(batcher, 1L, 2L, 3L, 4L);
+
+        assertEquals(List.of("product-1", "product-2", "product-3", "product-4"), results);
+        assertEquals(1, batchCalls.size());
+        assertThat(batchCalls.get(0)).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+        assertThat(singleCalls).isEmpty();
+    }
+
+    @Test
+    void testMissingKeysAndFailuresReachEveryCaller() throws Exception {
+        MicroBatcher<Long, String> partial = batcher(Duration.ofSeconds(5), 2, keys -> loadAll(keys.subList(0, 1)));
+        List<Throwable> missing = failuresOf(partial, 1L, 2L);
+        assertThat(missing).hasSize(1);
+        assertInstanceOf(ProductNotFoundException.class, missing.get(0));
+
+        ProductServiceUnavailableException down = new ProductServiceUnavailableException("down");
+        MicroBatcher<Long, String> failing = batcher(Duration.ofSeconds(5), 2, keys -> {
+            throw down;
+        });
+        assertEquals(List.of(down, down), failuresOf(failing, 1L, 2L));
+    }
+
+    @Test
+    void testInvalidSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> batcher(Duration.ofMillis(-1), 10, this::loadAll));
+        assertThrows(IllegalArgumentException.class, () -> batcher(Duration.ofMillis(1), 0, this::loadAll));
+    }
+
+    /**
+     * Ключи грузятся, пока выполняется занятый запрос, иначе первый ушел бы сразу один.
+     * window длиннее теста, поэтому пакет закрывается только заполнением до maxSize = числу ключей
+     */
+    private List<String> loadConcurrently(MicroBatcher<Long, String> batcher, Long... keys) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(keys.length + 1);
+        try {
+            List<Future<String>> futures = submitWhileBusy(executor, batcher, keys);
+            List<String> results = new ArrayList<>();
+            for (Future<String> future : futures) {
+                results.add(future.get(5, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            busyRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Throwable> failuresOf(MicroBatcher<Long, String> batcher, Long... keys) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(keys.length + 1);
+        try {
+            List<Future<String>> futures = submitWhileBusy(executor, batcher, keys);
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<String> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            return failures;
+        } finally {
+            busyRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<String>> submitWhileBusy(ExecutorService executor, MicroBatcher<Long, String> batcher,
+                                                 Long... keys) throws InterruptedException {
+        busyStarted = new CountDownLatch(1);
+        busyRelease = new CountDownLatch(1);
+        executor.submit(() -> batcher.load(BUSY));
+        assertTrue(busyStarted.await(5, TimeUnit.SECONDS));
+        List<Future<String>> futures = new ArrayList<>();
+        for (Long key : keys) {
+            futures.add(executor.submit(() -> batcher.load(key)));
+        }
+        return futures;
+    }
+
+    private MicroBatcher<Long, String> batcher(Duration window, int maxSize,
+                                               Function<List<Long>, Map<Long, String>> batchCall) {
+        return new MicroBatcher<>(key -> {
+            if (key == BUSY) {
+                busyStarted.countDown();
+                await(busyRelease);
+            } else {
+                singleCalls.add(key);
+            }
+            return "product-" + key;
+        }, keys -> {
+            batchCalls.add(List.copyOf(keys));
+            return batchCall.apply(keys);
+        }, key -> new ProductNotFoundException("missing " + key), window, maxSize);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<Long, String> loadAll(List<Long> keys) {
+        return keys.stream().collect(Collectors.toMap(Function.identity(), key -> "product-" + key));
+    }
+}
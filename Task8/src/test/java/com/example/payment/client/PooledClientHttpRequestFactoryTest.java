@@ -0,0 +1,65 @@
+package com.example.payment.client;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PooledClientHttpRequestFactoryTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private PooledClientHttpRequestFactory requestFactory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        requestFactory = new PooledClientHttpRequestFactory("test", new PooledClientHttpRequestFactory.Settings(
+                2, 4, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(1),
+                Duration.ofSeconds(30), Duration.ofMinutes(5)));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        requestFactory.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    void sequentialCallsReuseOneConnectionAndAreMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        requestFactory.bindTo(registry);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        String url = "http://localhost:" + server.getAddress().getPort() + "/api/v1/products/1";
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(restTemplate.getForObject(url, String.class)).isEqualTo("ok");
+        }
+
+        assertThat(clientPorts).hasSize(1);
+        assertThat(registry.get("httpcomponents.httpclient.pool.acquire").tag("httpclient", "test").timer().count())
+                .isEqualTo(5);
+        assertThat(registry.get("httpcomponents.httpclient.pool.total.connections").tag("state", "available")
+                .gauge().value()).isEqualTo(1);
+        assertThat(registry.get("httpcomponents.httpclient.pool.total.max").gauge().value()).isEqualTo(4);
+    }
+}
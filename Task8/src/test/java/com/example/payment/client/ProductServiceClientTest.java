@@ -46,6 +46,20 @@ class ProductServiceClientTest {
         assertThat(products).hasSize(2);
     }
 
+    @Test
+    void getProductsByIdsUsesBatchEndpoint() {
+        mockServer.expect(requestTo("http://localhost:8089/api/v1/products?ids=1,2"))
+                .andRespond(MockRestResponseCreators.withSuccess("""
+                        [
+                          {"id":1,"accountNumber":"111","balance":100.0,"productType":"ACCOUNT","userId":1}
+                        ]
+                        """, MediaType.APPLICATION_JSON));
+
+        List<ProductResponse> products = client.getProductsByIds(List.of(1L, 2L, 1L));
+
+        assertThat(products).extracting(ProductResponse::id).containsExactly(1L);
+    }
+
     @Test
     void getProductByIdThrowsWhenNotFound() {
         mockServer.expect(requestTo("http://localhost:8089/api/v1/products/55"))
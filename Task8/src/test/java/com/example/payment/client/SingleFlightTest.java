@@ -0,0 +1,125 @@
+package com.example.payment.client;
+
+import com.example.payment.exception.ProductServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SingleFlight<Long, String> flights = new SingleFlight<>();
+
+    @Test
+    void testConcurrentCallersShareOneCallAndItsResult() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        flights.bindTo(registry, "blocking", "product");
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> leader = executor.submit(() -> flights.execute(1L, () -> {
+                calls.incrementAndGet();
+                leaderStarted.countDown();
+                await(release);
+                return "product-1";
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(() -> flights.execute(1L, () -> {
+                calls.incrementAndGet();
+                return "unexpected";
+            }));
+            while (registry.get("product.client.coalesced").functionCounter().count() < 1) {
+                Thread.sleep(5);
+            }
+            assertEquals("other", flights.execute(2L, () -> "other"));
+            release.countDown();
+
+            assertEquals("product-1", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("product-1", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(0, flights.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFollowersReceiveTheLeadersExceptionAndEntryIsRemoved() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        flights.bindTo(registry, "blocking", "product");
+        ProductServiceUnavailableException failure = new ProductServiceUnavailableException("down");
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> flights.execute(1L, () -> {
+                leaderStarted.countDown();
+                await(release);
+                throw failure;
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(() -> flights.execute(1L, () -> "unexpected"));
+            while (registry.get("product.client.coalesced").functionCounter().count() < 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertSame(failure, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+            assertSame(failure, assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+            assertEquals(0, flights.inFlight());
+            assertEquals("retry", flights.execute(1L, () -> "retry"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testAsyncCallersShareOneFutureAndEntryIsRemovedOnTimeout() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> first = flights.executeAsync(1L, () -> {
+            calls.incrementAndGet();
+            return response;
+        });
+        CompletableFuture<String> second = flights.executeAsync(1L, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("unexpected");
+        });
+        second.cancel(false);
+        assertEquals(1, flights.inFlight());
+
+        response.completeExceptionally(new CompletionException(new ResourceAccessException("Read timed out")));
+
+        CompletionException error = assertThrows(CompletionException.class, first::join);
+        assertEquals(ResourceAccessException.class, error.getCause().getClass());
+        assertEquals(1, calls.get());
+        assertEquals(0, flights.inFlight());
+        assertFalse(flights.executeAsync(1L, () -> CompletableFuture.completedFuture("retry")).isCompletedExceptionally());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
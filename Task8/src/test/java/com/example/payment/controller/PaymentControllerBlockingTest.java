@@ -0,0 +1,105 @@
+package com.example.payment.controller;
+
+import com.example.dto.ProductResponse;
+import com.example.payment.dto.PaymentRequest;
+import com.example.payment.dto.PaymentResponse;
+import com.example.payment.dto.PaymentStatus;
+import com.example.payment.exception.InsufficientFundsException;
+import com.example.payment.service.PaymentService;
+import com.example.product.ProductType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = PaymentController.class)
+@Import(PaymentExceptionHandler.class)
+@TestPropertySource(properties = "payment.async.enabled=false")
+class PaymentControllerBlockingTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private PaymentService paymentService;
+
+    @Test
+    void getUserProductsReturnsOk() throws Exception {
+        List<ProductResponse> responses = List.of(
+                new ProductResponse(1L, "111", BigDecimal.TEN, ProductType.ACCOUNT, 1L)
+        );
+        when(paymentService.getProductsForUser(1L)).thenReturn(responses);
+
+        // Ответ уже готов, когда контроллер возвращает future: сервис вызван в потоке запроса
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/users/1/products")).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1L));
+        verify(paymentService, never()).getProductsForUserAsync(any());
+    }
+
+    @Test
+    void executePaymentReturnsResponse() throws Exception {
+        PaymentResponse paymentResponse = new PaymentResponse(
+                10L,
+                new BigDecimal("50.00"),
+                new BigDecimal("150.00"),
+                PaymentStatus.SUCCESS,
+                "Payment successfully executed"
+        );
+        when(paymentService.executePayment(any(PaymentRequest.class))).thenReturn(paymentResponse);
+
+        PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("50.00"));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/execute")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("SUCCESS"))
+                .andExpect(jsonPath("$.remainingBalance").value(150.00));
+        verify(paymentService, never()).executePaymentAsync(any());
+    }
+
+    @Test
+    void executePaymentReturnsErrorWhenInsufficientFunds() throws Exception {
+        when(paymentService.executePayment(any(PaymentRequest.class)))
+                .thenThrow(new InsufficientFundsException("Insufficient funds"));
+
+        PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("500.00"));
+
+        mockMvc.perform(post("/api/v1/payments/execute")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(content().string(containsString("Insufficient funds")));
+        verify(paymentService, never()).executePaymentAsync(any());
+    }
+}
@@ -15,17 +15,21 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = PaymentController.class)
@@ -46,9 +50,13 @@ class PaymentControllerTest {
         List<ProductResponse> responses = List.of(
                 new ProductResponse(1L, "111", BigDecimal.TEN, ProductType.ACCOUNT, 1L)
         );
-        when(paymentService.getProductsForUser(1L)).thenReturn(responses);
+        when(paymentService.getProductsForUserAsync(1L)).thenReturn(CompletableFuture.completedFuture(responses));
 
-        mockMvc.perform(get("/api/v1/payments/users/1/products"))
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/users/1/products"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1L));
     }
@@ -62,13 +70,18 @@ class PaymentControllerTest {
                 PaymentStatus.SUCCESS,
                 "Payment successfully executed"
         );
-        when(paymentService.executePayment(any(PaymentRequest.class))).thenReturn(paymentResponse);
+        when(paymentService.executePaymentAsync(any(PaymentRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(paymentResponse));
 
         PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("50.00"));
 
-        mockMvc.perform(post("/api/v1/payments/execute")
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/execute")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.status").value("SUCCESS"))
                 .andExpect(jsonPath("$.remainingBalance").value(150.00));
@@ -76,14 +89,18 @@ class PaymentControllerTest {
 
     @Test
     void executePaymentReturnsErrorWhenInsufficientFunds() throws Exception {
-        when(paymentService.executePayment(any(PaymentRequest.class)))
-                .thenThrow(new InsufficientFundsException("Insufficient funds"));
+        when(paymentService.executePaymentAsync(any(PaymentRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(new InsufficientFundsException("Insufficient funds")));
 
         PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("500.00"));
 
-        mockMvc.perform(post("/api/v1/payments/execute")
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/execute")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isUnprocessableEntity())
                 .andExpect(content().string(containsString("Insufficient funds")));
     }
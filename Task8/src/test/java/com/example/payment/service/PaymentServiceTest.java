@@ -1,25 +1,32 @@
 package com.example.payment.service;
 
 import com.example.dto.ProductResponse;
+import com.example.payment.cache.ProductCache;
+import com.example.payment.client.AsyncProductServiceClient;
 import com.example.payment.client.ProductServiceClient;
 import com.example.payment.dto.PaymentRequest;
 import com.example.payment.dto.PaymentResponse;
 import com.example.payment.dto.PaymentStatus;
 import com.example.payment.exception.InsufficientFundsException;
+import com.example.payment.exception.ProductNotFoundException;
 import com.example.payment.exception.ProductOwnershipException;
 import com.example.product.ProductType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -29,13 +36,17 @@ class PaymentServiceTest {
     @Mock
     private ProductServiceClient productServiceClient;
 
-    @InjectMocks
+    @Mock
+    private AsyncProductServiceClient asyncProductServiceClient;
+
     private PaymentService paymentService;
 
     private ProductResponse productResponse;
 
     @BeforeEach
     void setUp() {
+        paymentService = new PaymentService(productServiceClient, asyncProductServiceClient, new ProductCache(false, 1,
+                Duration.ofMinutes(10), Duration.ofSeconds(5), Duration.ofSeconds(10)));
         productResponse = new ProductResponse(
                 10L,
                 "123456",
@@ -82,6 +93,45 @@ class PaymentServiceTest {
 
         assertThrows(InsufficientFundsException.class, () -> paymentService.executePayment(request));
     }
-}
 
+    @Test
+    void executePaymentAsyncReturnsSuccessResponse() {
+        PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("30.00"));
+        when(asyncProductServiceClient.getProductById(10L)).thenReturn(CompletableFuture.completedFuture(productResponse));
+
+        PaymentResponse response = paymentService.executePaymentAsync(request).join();
+
+        assertEquals(PaymentStatus.SUCCESS, response.status());
+        assertEquals(new BigDecimal("70.00"), response.remainingBalance());
+    }
 
+    @Test
+    void executePaymentAsyncCompletesExceptionallyWhenInsufficientFunds() {
+        PaymentRequest request = new PaymentRequest(1L, 10L, new BigDecimal("150.00"));
+        when(asyncProductServiceClient.getProductById(10L)).thenReturn(CompletableFuture.completedFuture(productResponse));
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> paymentService.executePaymentAsync(request).join());
+        assertInstanceOf(InsufficientFundsException.class, error.getCause());
+    }
+
+    @Test
+    void executePaymentServesRepeatedPaymentsAndNotFoundFromCache() {
+        PaymentService cachingService = new PaymentService(productServiceClient, asyncProductServiceClient,
+                new ProductCache(true, 100, Duration.ofMinutes(10), Duration.ofSeconds(5), Duration.ofSeconds(10)));
+        when(productServiceClient.getProductById(10L)).thenReturn(productResponse);
+        when(productServiceClient.getProductById(55L)).thenThrow(new ProductNotFoundException("Product 55 not found"));
+
+        cachingService.executePayment(new PaymentRequest(1L, 10L, new BigDecimal("10.00")));
+        cachingService.executePayment(new PaymentRequest(1L, 10L, new BigDecimal("20.00")));
+        assertThrows(ProductOwnershipException.class,
+                () -> cachingService.executePayment(new PaymentRequest(99L, 10L, new BigDecimal("10.00"))));
+        assertThrows(ProductNotFoundException.class,
+                () -> cachingService.executePayment(new PaymentRequest(1L, 55L, new BigDecimal("10.00"))));
+        assertThrows(ProductNotFoundException.class,
+                () -> cachingService.executePayment(new PaymentRequest(1L, 55L, new BigDecimal("10.00"))));
+
+        verify(productServiceClient, times(1)).getProductById(10L);
+        verify(productServiceClient, times(1)).getProductById(55L);
+    }
+}
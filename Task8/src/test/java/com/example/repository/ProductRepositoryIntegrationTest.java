@@ -0,0 +1,87 @@
+package com.example.repository;
+
+import com.example.User;
+import com.example.product.Product;
+import com.example.product.ProductType;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:productrepositorydb",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false"
+})
+@ActiveProfiles("test")
+class ProductRepositoryIntegrationTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        userRepository.deleteAll();
+        alice = userRepository.save(new User(null, "repo-alice"));
+        bob = userRepository.save(new User(null, "repo-bob"));
+    }
+
+    @Test
+    void testFindAllWithUserByIdIn_LoadsUsersWithTheProducts() {
+        // Given
+        Product first = save("40817810000000000101", alice);
+        Product second = save("40817810000000000102", bob);
+        save("40817810000000000103", alice);
+
+        // When - вне транзакции: ленивый user без JOIN FETCH здесь уже не загрузить
+        List<Product> products = productRepository.findAllWithUserByIdIn(
+                List.of(first.getId(), second.getId(), Long.MAX_VALUE));
+
+        // Then - ненайденный id пропущен, пользователи загружены тем же запросом
+        products.sort(Comparator.comparing(Product::getId));
+        assertEquals(List.of(first.getId(), second.getId()), products.stream().map(Product::getId).toList());
+        assertTrue(products.stream().allMatch(product -> Hibernate.isInitialized(product.getUser())));
+        assertEquals("repo-alice", products.get(0).getUser().getUsername());
+        assertEquals("repo-bob", products.get(1).getUser().getUsername());
+    }
+
+    @Test
+    void testFindById_LeavesUserLazy() {
+        // Given
+        Product product = save("40817810000000000104", alice);
+
+        // When/Then - без JOIN FETCH пользователь остается неинициализированным прокси
+        Product loaded = productRepository.findById(product.getId()).orElseThrow();
+        assertFalse(Hibernate.isInitialized(loaded.getUser()));
+    }
+
+    @Test
+    void testFindAllWithUserByIdIn_NoMatches_ReturnsEmptyList() {
+        assertTrue(productRepository.findAllWithUserByIdIn(List.of(Long.MAX_VALUE)).isEmpty());
+    }
+
+    private Product save(String accountNumber, User user) {
+        return productRepository.save(new Product(null, accountNumber, new BigDecimal("100.00"),
+                ProductType.ACCOUNT, user));
+    }
+}